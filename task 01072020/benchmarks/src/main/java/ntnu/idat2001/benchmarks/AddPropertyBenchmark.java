@@ -0,0 +1,86 @@
+package ntnu.idat2001.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ntnu.idat2001.Property;
+import ntnu.idat2001.PropertyRegister;
+
+/**
+ * Measures the time of PropertyRegister.addProperty() on a register that
+ * already holds the given number of properties, from 10^3 to 10^7.
+ *
+ * Adding changes the register, so it can not be repeated on the same
+ * register for as long as the other benchmarks run. Instead each
+ * iteration refills a register to the given size, and then adds a batch of
+ * ADD_COUNT new properties, timed as a whole. The result is the time of
+ * the batch; divide by ADD_COUNT to get the time per property. The
+ * allocations reported by the GC profiler include refilling the register.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = AddPropertyBenchmark.ADD_COUNT)
+@Measurement(iterations = 20, batchSize = AddPropertyBenchmark.ADD_COUNT)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class AddPropertyBenchmark
+{
+    // The number of properties added per iteration
+    static final int ADD_COUNT = 1 << 12;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    // The first size properties fill the register, the rest are added
+    private Property[] properties;
+    private PropertyRegister register;
+    private int next;
+
+    /**
+     * Generates the properties to fill the register with and to add.
+     */
+    @Setup(Level.Trial)
+    public void generate()
+    {
+        this.properties = SyntheticProperties.generate(this.size + ADD_COUNT, SyntheticProperties.SEED);
+    }
+
+    /**
+     * Fills a new register to the given size before each batch.
+     */
+    @Setup(Level.Iteration)
+    public void fill()
+    {
+        this.register = new PropertyRegister();
+        // Measure the operations themselves, not the timing of them
+        this.register.setMetricsEnabled(false);
+        for (int i = 0; i < this.size; i++)
+        {
+            this.register.addProperty(this.properties[i]);
+        }
+        this.next = this.size;
+    }
+
+    /**
+     * Adds the next new property to the register.
+     */
+    @Benchmark
+    public boolean addProperty()
+    {
+        boolean added = this.register.addProperty(this.properties[this.next]);
+        this.next++;
+        return added;
+    }
+}
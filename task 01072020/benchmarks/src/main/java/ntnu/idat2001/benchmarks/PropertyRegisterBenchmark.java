@@ -0,0 +1,113 @@
+package ntnu.idat2001.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ntnu.idat2001.Property;
+
+/**
+ * Measures the time and allocations of the PropertyRegister operations,
+ * for register sizes from 10^3 to 10^7 properties (see RegisterState).
+ * All results are per operation; for the iterator traversal an operation
+ * is the whole register. Adding properties is measured by
+ * AddPropertyBenchmark, since it changes the register.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class PropertyRegisterBenchmark
+{
+    private int next;
+
+    /**
+     * Returns the index of the next prepared lookup.
+     */
+    private int nextLookup()
+    {
+        this.next = (this.next + 1) & (RegisterState.LOOKUP_COUNT - 1);
+        return this.next;
+    }
+
+    /**
+     * Looks up an existing property in the full register.
+     */
+    @Benchmark
+    public Property findProperty(RegisterState state)
+    {
+        int i = this.nextLookup();
+        return state.register.findProperty(state.municipalityNumbers[i],
+                state.lotNumbers[i], state.sectionNumbers[i]);
+    }
+
+    /**
+     * Looks up all the prepared properties in one batch, by packed key.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RegisterState.LOOKUP_COUNT)
+    public Property[] findProperties(RegisterState state)
+    {
+        state.register.findProperties(state.propertyKeys, state.results, false);
+        return state.results;
+    }
+
+    /**
+     * Finds and iterates over all the properties with a lot number.
+     */
+    @Benchmark
+    public void findAllPropertiesWithLotNumber(RegisterState state, Blackhole blackhole)
+    {
+        Iterator<Property> it = state.register.findAllPropertiesWithLotNumber(
+                state.lotNumbers[this.nextLookup()]);
+        while (it.hasNext())
+        {
+            blackhole.consume(it.next());
+        }
+    }
+
+    /**
+     * Calculates the average area of the full register.
+     */
+    @Benchmark
+    public double getAverageAreaOfProperties(RegisterState state)
+    {
+        return state.register.getAverageAreaOfProperties();
+    }
+
+    /**
+     * Iterates over the full register. Divide by the register size to get
+     * the time per property.
+     */
+    @Benchmark
+    public void getIteratorTraversal(RegisterState state, Blackhole blackhole)
+    {
+        Iterator<Property> it = state.register.getIterator();
+        while (it.hasNext())
+        {
+            blackhole.consume(it.next());
+        }
+    }
+
+    /**
+     * Builds the ID string of a property.
+     */
+    @Benchmark
+    public String getPropertyIDAsString(RegisterState state)
+    {
+        return state.properties[this.nextLookup() % state.size].getPropertyIDAsString();
+    }
+}
@@ -0,0 +1,68 @@
+package ntnu.idat2001.benchmarks;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ntnu.idat2001.Property;
+import ntnu.idat2001.PropertyRegister;
+
+/**
+ * A register filled with synthetic properties, shared by the benchmarks.
+ * The register size is a JMH parameter, from 10^3 to 10^7 properties.
+ */
+@State(Scope.Benchmark)
+public class RegisterState
+{
+    // The number of lookups prepared, must be a power of two
+    static final int LOOKUP_COUNT = 1 << 12;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    Property[] properties;
+    PropertyRegister register;
+
+    // The IDs of existing properties to look up, in random order
+    int[] municipalityNumbers;
+    int[] lotNumbers;
+    int[] sectionNumbers;
+    // The same IDs as packed keys, and room for the results of a batch lookup
+    long[] propertyKeys;
+    Property[] results;
+
+    /**
+     * Generates the properties and fills the register.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.properties = SyntheticProperties.generate(this.size, SyntheticProperties.SEED);
+        this.register = new PropertyRegister();
+        // Measure the operations themselves, not the timing of them
+        this.register.setMetricsEnabled(false);
+        for (Property property : this.properties)
+        {
+            this.register.addProperty(property);
+        }
+
+        Random random = new Random(SyntheticProperties.SEED + 1);
+        this.municipalityNumbers = new int[LOOKUP_COUNT];
+        this.lotNumbers = new int[LOOKUP_COUNT];
+        this.sectionNumbers = new int[LOOKUP_COUNT];
+        this.propertyKeys = new long[LOOKUP_COUNT];
+        this.results = new Property[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++)
+        {
+            Property property = this.properties[random.nextInt(this.size)];
+            this.municipalityNumbers[i] = property.getMunicipalityNumber();
+            this.lotNumbers[i] = property.getLotNumber();
+            this.sectionNumbers[i] = property.getSectionNumber();
+            this.propertyKeys[i] = property.getPropertyKey();
+        }
+    }
+}
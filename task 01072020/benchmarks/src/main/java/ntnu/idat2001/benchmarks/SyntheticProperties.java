@@ -0,0 +1,110 @@
+package ntnu.idat2001.benchmarks;
+
+import java.util.Random;
+
+import ntnu.idat2001.Property;
+
+/**
+ * Generates synthetic properties with a distribution close to the Norwegian
+ * cadastre: a few hundred municipalities of very different size, lot numbers
+ * where low numbers are much more common than high ones, a handful of
+ * sections per lot, log-normally distributed areas, and owners where a few
+ * institutional owners hold a large share of the properties.
+ *
+ * The same seed always gives the same properties, so runs can be compared.
+ */
+final class SyntheticProperties
+{
+    /** The seed used by the benchmarks. */
+    static final long SEED = 1445_77_131L;
+
+    private static final int MUNICIPALITY_COUNT = 356;
+    private static final int MAX_LOT_NUMBER = 1000;
+    private static final String[] INSTITUTIONAL_OWNERS = {
+        "Statskog SF", "Statens vegvesen", "Bane NOR SF", "Forsvarsbygg",
+        "Opplysningsvesenets fond", "Statsbygg", "Kommunen", "Fylkeskommunen",
+        "Norsk Hydro ASA", "Statkraft Energi AS"
+    };
+    // The share of the properties owned by an institutional owner
+    private static final double INSTITUTIONAL_SHARE = 0.3;
+
+    /**
+     * This class only holds static methods, hence no instances.
+     */
+    private SyntheticProperties()
+    {
+    }
+
+    /**
+     * Generates the given number of properties with unique IDs.
+     *
+     * @param count the number of properties to generate
+     * @param seed the seed of the random generator
+     * @return the generated properties
+     */
+    static Property[] generate(int count, long seed)
+    {
+        Random random = new Random(seed);
+        int[] municipalityNumbers = municipalityNumbers(random);
+        // The next free section number of each lot in each municipality
+        int[][] nextSection = new int[MUNICIPALITY_COUNT][MAX_LOT_NUMBER + 1];
+        int privateOwners = Math.max(1, count / 2);
+
+        Property[] properties = new Property[count];
+        for (int i = 0; i < count; i++)
+        {
+            int municipality = zipf(random, MUNICIPALITY_COUNT);
+            int lotNumber = 1 + zipf(random, MAX_LOT_NUMBER);
+            nextSection[municipality][lotNumber]++;
+            int sectionNumber = nextSection[municipality][lotNumber];
+            double area = Math.exp(6.5 + random.nextGaussian());
+
+            String owner;
+            if (random.nextDouble() < INSTITUTIONAL_SHARE)
+            {
+                owner = INSTITUTIONAL_OWNERS[random.nextInt(INSTITUTIONAL_OWNERS.length)];
+            }
+            else
+            {
+                owner = "Owner " + random.nextInt(privateOwners);
+            }
+
+            int municipalityNumber = municipalityNumbers[municipality];
+            properties[i] = new Property(municipalityNumber, "Municipality " + municipalityNumber,
+                    lotNumber, sectionNumber, "Property " + i, Math.round(area * 10) / 10.0, owner);
+        }
+        return properties;
+    }
+
+    /**
+     * Picks distinct municipality numbers between 301 and 5444.
+     */
+    private static int[] municipalityNumbers(Random random)
+    {
+        int[] numbers = new int[MUNICIPALITY_COUNT];
+        boolean[] used = new boolean[5445];
+        for (int i = 0; i < MUNICIPALITY_COUNT; i++)
+        {
+            int number;
+            do
+            {
+                number = 301 + random.nextInt(5444 - 301 + 1);
+            }
+            while (used[number]);
+            used[number] = true;
+            numbers[i] = number;
+        }
+        return numbers;
+    }
+
+    /**
+     * Returns a number between 0 and n - 1, where low numbers are much more
+     * likely than high numbers (roughly a Zipf distribution).
+     */
+    private static int zipf(Random random, int n)
+    {
+        // Inverse transform of a continuous 1/x distribution over [1, n + 1)
+        double x = Math.exp(random.nextDouble() * Math.log(n + 1));
+        return Math.min(n - 1, (int) x - 1);
+    }
+}
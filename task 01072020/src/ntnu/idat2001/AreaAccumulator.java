@@ -0,0 +1,83 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+
+/**
+ * Collects the areas of a group of properties while an AreaReport is being
+ * calculated. Besides the running AreaStatistics, every area is kept, so
+ * the exact percentiles can be found once all the areas are collected.
+ *
+ * An accumulator is only used by one thread at a time; the accumulators of
+ * different threads are combined with addAll().
+ */
+final class AreaAccumulator
+{
+    private final AreaStatistics statistics;
+    private double[] areas;
+    private int size;
+
+    /**
+     * Creates an empty accumulator.
+     */
+    AreaAccumulator()
+    {
+        this.statistics = new AreaStatistics();
+        this.areas = new double[8];
+        this.size = 0;
+    }
+
+    /**
+     * Adds the area of one more property.
+     *
+     * @param area the area in square meters
+     */
+    void add(double area)
+    {
+        if (this.size == this.areas.length)
+        {
+            this.areas = Arrays.copyOf(this.areas, this.size * 2);
+        }
+        this.areas[this.size] = area;
+        this.size++;
+        this.statistics.add(area);
+    }
+
+    /**
+     * Adds all the areas collected by the other accumulator.
+     *
+     * @param other the accumulator to add
+     */
+    void addAll(AreaAccumulator other)
+    {
+        if (this.size + other.size > this.areas.length)
+        {
+            this.areas = Arrays.copyOf(this.areas,
+                    Math.max(this.size + other.size, this.areas.length * 2));
+        }
+        System.arraycopy(other.areas, 0, this.areas, this.size, other.size);
+        this.size += other.size;
+        this.statistics.addAll(other.statistics);
+    }
+
+    /**
+     * Returns the number of areas collected.
+     *
+     * @return the number of areas
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Creates the immutable summary of the areas collected.
+     *
+     * @return the summary of the areas
+     */
+    AreaSummary toSummary()
+    {
+        double[] sortedAreas = Arrays.copyOf(this.areas, this.size);
+        Arrays.sort(sortedAreas);
+        return new AreaSummary(new AreaStatistics(this.statistics), sortedAreas);
+    }
+}
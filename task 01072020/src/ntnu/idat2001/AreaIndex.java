@@ -0,0 +1,343 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An index of the properties of one municipality, sorted by area, used to
+ * find the properties in an area range and the largest or smallest
+ * properties without going through all of them.
+ *
+ * The properties are kept in two arrays sorted by area, so a range is
+ * found with two binary searches. Keeping the arrays sorted on every add
+ * would make importing a municipality quadratic, so new properties are
+ * first collected in a small pending run, which is searched alongside the
+ * arrays. The run is only merged into the arrays when it has grown larger
+ * than the square root of their size, so adding and querying in turn costs
+ * about the square root of the size per property, and a bulk import
+ * followed by a query still sorts and merges only once.
+ *
+ * While the run is small it is kept sorted as properties are added. Once
+ * it is full, properties are appended unsorted, and the next query sorts
+ * and merges it.
+ *
+ * A merge creates new arrays, and an iterator copies the part of the
+ * pending run it returns, so an iterator keeps walking the properties it
+ * was created over, even if more properties are added.
+ */
+final class AreaIndex
+{
+    private static final Comparator<Property> BY_AREA = Comparator.comparingDouble(Property::getArea);
+    // The smallest pending run that is merged into the sorted arrays
+    private static final int MIN_PENDING = 64;
+
+    // The merged properties and their areas, in ascending order of area
+    private double[] areas;
+    private Property[] properties;
+    // The properties added since the last merge and their areas, in
+    // ascending order of area if pendingSorted, otherwise in the order added
+    private double[] pendingAreas;
+    private Property[] pending;
+    private int pendingSize;
+    private boolean pendingSorted;
+
+    /**
+     * Creates an empty index.
+     */
+    AreaIndex()
+    {
+        this.areas = new double[0];
+        this.properties = new Property[0];
+        this.pendingAreas = new double[MIN_PENDING];
+        this.pending = new Property[MIN_PENDING];
+        this.pendingSize = 0;
+        this.pendingSorted = true;
+    }
+
+    /**
+     * Adds a property to the index.
+     *
+     * @param property the property to add
+     */
+    void add(Property property)
+    {
+        if (this.pendingSize == this.pending.length)
+        {
+            this.pendingAreas = Arrays.copyOf(this.pendingAreas, this.pendingSize * 2);
+            this.pending = Arrays.copyOf(this.pending, this.pendingSize * 2);
+        }
+        double area = property.getArea();
+        int index = this.pendingSize;
+        if (this.pendingSorted && this.pendingSize < this.mergeThreshold())
+        {
+            // After any equal areas, so equal areas stay in the order added
+            index = endOf(this.pendingAreas, this.pendingSize, area);
+            System.arraycopy(this.pendingAreas, index, this.pendingAreas, index + 1, this.pendingSize - index);
+            System.arraycopy(this.pending, index, this.pending, index + 1, this.pendingSize - index);
+        }
+        else
+        {
+            this.pendingSorted = false;
+        }
+        this.pendingAreas[index] = area;
+        this.pending[index] = property;
+        this.pendingSize++;
+    }
+
+    /**
+     * Returns the number of properties with an area between
+     * <code>minArea</code> and <code>maxArea</code>, both inclusive.
+     *
+     * @param minArea the smallest area to include, in square meters
+     * @param maxArea the largest area to include, in square meters
+     * @return the number of properties in the area range
+     */
+    int countBetween(double minArea, double maxArea)
+    {
+        this.prepare();
+        int count = endOf(this.areas, this.areas.length, maxArea)
+                - startOf(this.areas, this.areas.length, minArea);
+        count += endOf(this.pendingAreas, this.pendingSize, maxArea)
+                - startOf(this.pendingAreas, this.pendingSize, minArea);
+        return Math.max(0, count);
+    }
+
+    /**
+     * Returns the properties with an area between <code>minArea</code> and
+     * <code>maxArea</code>, both inclusive, in ascending order of area.
+     *
+     * @param minArea the smallest area to include, in square meters
+     * @param maxArea the largest area to include, in square meters
+     * @return an iterator of the properties in the area range
+     */
+    Iterator<Property> between(double minArea, double maxArea)
+    {
+        this.prepare();
+        int start = startOf(this.areas, this.areas.length, minArea);
+        int end = Math.max(start, endOf(this.areas, this.areas.length, maxArea));
+        int pendingStart = startOf(this.pendingAreas, this.pendingSize, minArea);
+        int pendingEnd = Math.max(pendingStart, endOf(this.pendingAreas, this.pendingSize, maxArea));
+        return new SliceIterator(this.properties, start, end,
+                Arrays.copyOfRange(this.pending, pendingStart, pendingEnd), false, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the <code>count</code> smallest properties, in ascending order
+     * of area.
+     *
+     * @param count the largest number of properties to return
+     * @return an iterator of the smallest properties
+     */
+    Iterator<Property> smallest(int count)
+    {
+        this.prepare();
+        return new SliceIterator(this.properties, 0, Math.min(count, this.properties.length),
+                Arrays.copyOf(this.pending, Math.min(count, this.pendingSize)), false, count);
+    }
+
+    /**
+     * Returns the <code>count</code> largest properties, in descending order
+     * of area.
+     *
+     * @param count the largest number of properties to return
+     * @return an iterator of the largest properties
+     */
+    Iterator<Property> largest(int count)
+    {
+        this.prepare();
+        int size = this.properties.length;
+        return new SliceIterator(this.properties, size - Math.min(count, size), size,
+                Arrays.copyOfRange(this.pending, this.pendingSize - Math.min(count, this.pendingSize),
+                        this.pendingSize), true, count);
+    }
+
+    /**
+     * Returns the size of the pending run above which it is merged into
+     * the sorted arrays.
+     */
+    private int mergeThreshold()
+    {
+        return Math.max(MIN_PENDING, (int) Math.sqrt(this.properties.length));
+    }
+
+    /**
+     * Sorts the pending run if properties were appended to it unsorted, and
+     * merges it into the sorted arrays if it has grown too large.
+     */
+    private void prepare()
+    {
+        if (!this.pendingSorted)
+        {
+            Arrays.sort(this.pending, 0, this.pendingSize, BY_AREA);
+            for (int i = 0; i < this.pendingSize; i++)
+            {
+                this.pendingAreas[i] = this.pending[i].getArea();
+            }
+            this.pendingSorted = true;
+        }
+        if (this.pendingSize > this.mergeThreshold())
+        {
+            this.merge();
+        }
+    }
+
+    /**
+     * Merges the sorted pending run into the sorted arrays.
+     */
+    private void merge()
+    {
+        int size = this.properties.length + this.pendingSize;
+        double[] mergedAreas = new double[size];
+        Property[] mergedProperties = new Property[size];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++)
+        {
+            if (j == this.pendingSize
+                    || (i < this.areas.length && this.areas[i] <= this.pendingAreas[j]))
+            {
+                mergedAreas[k] = this.areas[i];
+                mergedProperties[k] = this.properties[i];
+                i++;
+            }
+            else
+            {
+                mergedAreas[k] = this.pendingAreas[j];
+                mergedProperties[k] = this.pending[j];
+                j++;
+            }
+        }
+        this.areas = mergedAreas;
+        this.properties = mergedProperties;
+        // A bulk import leaves a large pending buffer behind, which would
+        // only hold on to memory
+        int capacity = 2 * this.mergeThreshold();
+        if (this.pending.length > capacity)
+        {
+            this.pendingAreas = new double[capacity];
+            this.pending = new Property[capacity];
+        }
+        else
+        {
+            Arrays.fill(this.pending, 0, this.pendingSize, null);
+        }
+        this.pendingSize = 0;
+    }
+
+    /**
+     * Returns the index of the first of the <code>size</code> first areas
+     * that is at least <code>area</code>.
+     */
+    private static int startOf(double[] areas, int size, double area)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (areas[middle] < area)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index after the last of the <code>size</code> first areas
+     * that is at most <code>area</code>.
+     */
+    private static int endOf(double[] areas, int size, double area)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (areas[middle] <= area)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterates over a slice of the sorted array of properties and a sorted
+     * copy of part of the pending run together, in order of area, forwards
+     * or backwards, returning at most a given number of properties.
+     */
+    private static final class SliceIterator implements Iterator<Property>
+    {
+        private final Property[] properties;
+        private final int start;
+        private final int end;
+        private final Property[] pending;
+        private final boolean descending;
+        private final int count;
+        private int returned;
+        private int returnedPending;
+
+        SliceIterator(Property[] properties, int start, int end, Property[] pending,
+                      boolean descending, int limit)
+        {
+            this.properties = properties;
+            this.start = start;
+            this.end = end;
+            this.pending = pending;
+            this.descending = descending;
+            this.count = Math.min(limit, end - start + pending.length);
+            this.returned = 0;
+            this.returnedPending = 0;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.returned + this.returnedPending < this.count;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = null;
+            if (this.returned < this.end - this.start)
+            {
+                property = this.properties[this.descending
+                        ? this.end - 1 - this.returned : this.start + this.returned];
+            }
+            Property pendingProperty = null;
+            if (this.returnedPending < this.pending.length)
+            {
+                pendingProperty = this.pending[this.descending
+                        ? this.pending.length - 1 - this.returnedPending : this.returnedPending];
+            }
+            if (null == pendingProperty || (null != property && (this.descending
+                    ? property.getArea() >= pendingProperty.getArea()
+                    : property.getArea() <= pendingProperty.getArea())))
+            {
+                this.returned++;
+            }
+            else
+            {
+                property = pendingProperty;
+                this.returnedPending++;
+            }
+            return property;
+        }
+    }
+}
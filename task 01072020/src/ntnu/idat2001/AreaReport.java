@@ -0,0 +1,73 @@
+package ntnu.idat2001;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+/**
+ * An immutable report of the areas of the properties in a register,
+ * grouped by a key such as the municipality number or the owner.
+ * The report holds a summary of all the properties, and one summary
+ * per group, in the order of the keys.
+ *
+ * @param <K> the type of the group keys
+ */
+public final class AreaReport<K>
+{
+    private final AreaSummary total;
+    private final SortedMap<K, AreaSummary> groups;
+
+    /**
+     * Creates a report.
+     *
+     * @param total the summary of all the properties
+     * @param groups the summary of each group, not to be changed later
+     */
+    AreaReport(AreaSummary total, SortedMap<K, AreaSummary> groups)
+    {
+        this.total = total;
+        this.groups = Collections.unmodifiableSortedMap(groups);
+    }
+
+    /**
+     * Returns the summary of all the properties in the register.
+     *
+     * @return the summary of all the properties
+     */
+    public AreaSummary getTotal()
+    {
+        return this.total;
+    }
+
+    /**
+     * Returns the summary of the group with the given key, or
+     * <code>null</code> if there are no properties in the group.
+     *
+     * @param key the key of the group
+     * @return the summary of the group, or <code>null</code>
+     */
+    public AreaSummary getGroup(K key)
+    {
+        return this.groups.get(key);
+    }
+
+    /**
+     * Returns the summaries of all the groups, sorted by key.
+     * The map can not be changed.
+     *
+     * @return the summaries of all the groups
+     */
+    public SortedMap<K, AreaSummary> getGroups()
+    {
+        return this.groups;
+    }
+
+    /**
+     * Returns the number of groups.
+     *
+     * @return the number of groups
+     */
+    public int getNumberOfGroups()
+    {
+        return this.groups.size();
+    }
+}
@@ -0,0 +1,133 @@
+package ntnu.idat2001;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Calculates an AreaReport by splitting the slots of a PropertyMap into
+ * ranges that are processed on all the cores (fork/join).
+ *
+ * Each task collects the areas of its own range into its own accumulators,
+ * so the threads never share anything that needs locking. The partial
+ * results of two tasks are combined when both are done.
+ *
+ * @param <K> the type of the group keys
+ */
+final class AreaReportTask<K> extends RecursiveTask<AreaReportTask.PartialReport<K>>
+{
+    private static final long serialVersionUID = 1L;
+
+    // Ranges with fewer slots than this are processed without splitting
+    private static final int SLOTS_PER_TASK = 1 << 15;
+
+    private final PropertyMap properties;
+    private final int fromSlot;
+    private final int toSlot;
+    private final Function<Property, K> grouping;
+
+    /**
+     * Creates a task processing the slots from <code>fromSlot</code>
+     * (inclusive) to <code>toSlot</code> (exclusive).
+     *
+     * @param properties the properties to process
+     * @param fromSlot the first slot to process
+     * @param toSlot the slot after the last slot to process
+     * @param grouping returns the group key of a property, or
+     *        <code>null</code> if the property is not in any group
+     */
+    AreaReportTask(PropertyMap properties, int fromSlot, int toSlot,
+                   Function<Property, K> grouping)
+    {
+        this.properties = properties;
+        this.fromSlot = fromSlot;
+        this.toSlot = toSlot;
+        this.grouping = grouping;
+    }
+
+    @Override
+    protected PartialReport<K> compute()
+    {
+        PartialReport<K> result;
+        if (this.toSlot - this.fromSlot <= SLOTS_PER_TASK)
+        {
+            result = new PartialReport<>();
+            for (int slot = this.fromSlot; slot < this.toSlot; slot++)
+            {
+                Property property = this.properties.valueAt(slot);
+                if (null != property)
+                {
+                    result.add(this.grouping.apply(property), property.getArea());
+                }
+            }
+        }
+        else
+        {
+            int middleSlot = (this.fromSlot + this.toSlot) >>> 1;
+            AreaReportTask<K> left = new AreaReportTask<>(this.properties,
+                    this.fromSlot, middleSlot, this.grouping);
+            AreaReportTask<K> right = new AreaReportTask<>(this.properties,
+                    middleSlot, this.toSlot, this.grouping);
+            left.fork();
+            result = right.compute();
+            result.addAll(left.join());
+        }
+        return result;
+    }
+
+    /**
+     * The areas collected by one task, in total and per group.
+     *
+     * @param <K> the type of the group keys
+     */
+    static final class PartialReport<K>
+    {
+        private final AreaAccumulator total;
+        private final HashMap<K, AreaAccumulator> groups;
+
+        PartialReport()
+        {
+            this.total = new AreaAccumulator();
+            this.groups = new HashMap<>();
+        }
+
+        void add(K key, double area)
+        {
+            this.total.add(area);
+            if (null != key)
+            {
+                this.groups.computeIfAbsent(key, k -> new AreaAccumulator()).add(area);
+            }
+        }
+
+        void addAll(PartialReport<K> other)
+        {
+            this.total.addAll(other.total);
+            for (Map.Entry<K, AreaAccumulator> entry : other.groups.entrySet())
+            {
+                AreaAccumulator accumulator = this.groups.putIfAbsent(entry.getKey(), entry.getValue());
+                if (null != accumulator)
+                {
+                    accumulator.addAll(entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Creates the report, with the groups sorted by key.
+         *
+         * @return the report
+         */
+        AreaReport<K> toReport()
+        {
+            TreeMap<K, AreaSummary> summaries = new TreeMap<>();
+            for (Map.Entry<K, AreaAccumulator> entry : this.groups.entrySet())
+            {
+                summaries.put(entry.getKey(), entry.getValue().toSummary());
+            }
+            return new AreaReport<>(this.total.toSummary(), summaries);
+        }
+    }
+}
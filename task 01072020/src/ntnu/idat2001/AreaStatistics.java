@@ -0,0 +1,145 @@
+package ntnu.idat2001;
+
+/**
+ * Running statistics of the areas of a group of properties: the number
+ * of properties, and the sum, minimum and maximum of their areas.
+ * The statistics are updated one area at a time as properties are added,
+ * so reading them never requires going through the properties.
+ *
+ * The sum is kept with compensated (Kahan) summation, so that adding
+ * millions of small areas to a large sum does not lose precision.
+ */
+public class AreaStatistics
+{
+    private long count;
+    private double sum;
+    // The low-order bits lost from the sum so far (Kahan compensation)
+    private double compensation;
+    private double minimum;
+    private double maximum;
+
+    /**
+     * Creates empty statistics.
+     */
+    AreaStatistics()
+    {
+        this.count = 0;
+        this.sum = 0;
+        this.compensation = 0;
+        this.minimum = Double.POSITIVE_INFINITY;
+        this.maximum = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Creates a copy of the given statistics.
+     *
+     * @param other the statistics to copy
+     */
+    AreaStatistics(AreaStatistics other)
+    {
+        this.count = other.count;
+        this.sum = other.sum;
+        this.compensation = other.compensation;
+        this.minimum = other.minimum;
+        this.maximum = other.maximum;
+    }
+
+    /**
+     * Adds the area of one more property to the statistics.
+     *
+     * @param area the area in square meters
+     */
+    void add(double area)
+    {
+        this.addToSum(area);
+        this.count++;
+        this.minimum = Math.min(this.minimum, area);
+        this.maximum = Math.max(this.maximum, area);
+    }
+
+    /**
+     * Adds all the areas counted by the other statistics to these statistics,
+     * as if they had been added here one by one.
+     *
+     * @param other the statistics to add
+     */
+    void addAll(AreaStatistics other)
+    {
+        this.addToSum(other.sum);
+        this.addToSum(-other.compensation);
+        this.count += other.count;
+        this.minimum = Math.min(this.minimum, other.minimum);
+        this.maximum = Math.max(this.maximum, other.maximum);
+    }
+
+    /**
+     * Adds a value to the sum, using Kahan compensated summation.
+     *
+     * @param value the value to add
+     */
+    private void addToSum(double value)
+    {
+        double correctedValue = value - this.compensation;
+        double newSum = this.sum + correctedValue;
+        this.compensation = (newSum - this.sum) - correctedValue;
+        this.sum = newSum;
+    }
+
+    /**
+     * Returns the number of properties.
+     *
+     * @return the number of properties
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the areas, in square meters.
+     *
+     * @return the sum of the areas, in square meters
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Returns the average area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the average area, in square meters
+     */
+    public double getAverage()
+    {
+        double average = 0;
+        if (this.count > 0)
+        {
+            average = this.sum / this.count;
+        }
+        return average;
+    }
+
+    /**
+     * Returns the smallest area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the smallest area, in square meters
+     */
+    public double getMinimum()
+    {
+        return this.count > 0 ? this.minimum : 0;
+    }
+
+    /**
+     * Returns the largest area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the largest area, in square meters
+     */
+    public double getMaximum()
+    {
+        return this.count > 0 ? this.maximum : 0;
+    }
+}
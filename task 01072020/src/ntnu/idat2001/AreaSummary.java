@@ -0,0 +1,188 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+
+/**
+ * An immutable summary of the areas of a group of properties: the number
+ * of properties, the sum, average, minimum and maximum area, the exact
+ * percentiles, and a histogram of the areas.
+ *
+ * The histogram has one bucket per power of ten square meters: bucket 0
+ * counts the areas below 10 m², bucket 1 the areas from 10 m² up to
+ * 100 m², and so on, while the last bucket counts every area of
+ * 1 000 000 m² or more.
+ */
+public final class AreaSummary
+{
+    // The lower bound of each histogram bucket except the first, in m²
+    private static final double[] HISTOGRAM_BOUNDS = {10, 100, 1000, 10000, 100000, 1000000};
+
+    private final AreaStatistics statistics;
+    // All the areas in ascending order, used to find the percentiles
+    private final double[] sortedAreas;
+    private final long[] histogram;
+
+    /**
+     * Creates a summary of the given areas.
+     *
+     * @param statistics the statistics of the areas, not to be changed later
+     * @param sortedAreas all the areas in ascending order, not to be
+     *        changed later
+     */
+    AreaSummary(AreaStatistics statistics, double[] sortedAreas)
+    {
+        this.statistics = statistics;
+        this.sortedAreas = sortedAreas;
+        this.histogram = new long[HISTOGRAM_BOUNDS.length + 1];
+        int bucketStart = 0;
+        for (int bucket = 0; bucket < HISTOGRAM_BOUNDS.length; bucket++)
+        {
+            int bucketEnd = firstIndexAtLeast(sortedAreas, HISTOGRAM_BOUNDS[bucket]);
+            this.histogram[bucket] = bucketEnd - bucketStart;
+            bucketStart = bucketEnd;
+        }
+        this.histogram[HISTOGRAM_BOUNDS.length] = sortedAreas.length - bucketStart;
+    }
+
+    /**
+     * Returns the number of properties.
+     *
+     * @return the number of properties
+     */
+    public long getCount()
+    {
+        return this.statistics.getCount();
+    }
+
+    /**
+     * Returns the sum of the areas, in square meters.
+     *
+     * @return the sum of the areas, in square meters
+     */
+    public double getSum()
+    {
+        return this.statistics.getSum();
+    }
+
+    /**
+     * Returns the average area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the average area, in square meters
+     */
+    public double getAverage()
+    {
+        return this.statistics.getAverage();
+    }
+
+    /**
+     * Returns the smallest area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the smallest area, in square meters
+     */
+    public double getMinimum()
+    {
+        return this.statistics.getMinimum();
+    }
+
+    /**
+     * Returns the largest area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the largest area, in square meters
+     */
+    public double getMaximum()
+    {
+        return this.statistics.getMaximum();
+    }
+
+    /**
+     * Returns the given percentile of the areas, using the nearest-rank
+     * method: the smallest area that at least <code>percentile</code> percent
+     * of the areas are less than or equal to. The 50th percentile is the
+     * median. If there are no properties, 0 is returned.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the area at the percentile, in square meters
+     * @throws IllegalArgumentException if the percentile is not from 0 to 100
+     */
+    public double getPercentile(double percentile)
+    {
+        if (!(percentile >= 0 && percentile <= 100))
+        {
+            throw new IllegalArgumentException("The percentile must be from 0 to 100");
+        }
+        double area = 0;
+        if (this.sortedAreas.length > 0)
+        {
+            int rank = (int) Math.ceil(percentile / 100 * this.sortedAreas.length);
+            area = this.sortedAreas[Math.max(rank - 1, 0)];
+        }
+        return area;
+    }
+
+    /**
+     * Returns the median area, in square meters.
+     * If there are no properties, 0 is returned.
+     *
+     * @return the median area, in square meters
+     */
+    public double getMedian()
+    {
+        return this.getPercentile(50);
+    }
+
+    /**
+     * Returns the number of properties in each histogram bucket
+     * (see the class description).
+     *
+     * @return a copy of the histogram
+     */
+    public long[] getHistogram()
+    {
+        return this.histogram.clone();
+    }
+
+    /**
+     * Returns the lower bound of each histogram bucket except the first,
+     * in square meters. Bucket i + 1 starts at element i.
+     *
+     * @return a copy of the bucket bounds
+     */
+    public static double[] getHistogramBounds()
+    {
+        return HISTOGRAM_BOUNDS.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d properties, average %.1f m², median %.1f m², "
+                + "90th percentile %.1f m², min %.1f m², max %.1f m², histogram %s",
+                this.getCount(), this.getAverage(), this.getMedian(), this.getPercentile(90),
+                this.getMinimum(), this.getMaximum(), Arrays.toString(this.histogram));
+    }
+
+    /**
+     * Returns the index of the first area that is at least the given value.
+     */
+    private static int firstIndexAtLeast(double[] sortedAreas, double value)
+    {
+        int low = 0;
+        int high = sortedAreas.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (sortedAreas[middle] < value)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
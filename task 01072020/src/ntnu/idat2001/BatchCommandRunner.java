@@ -0,0 +1,255 @@
+package ntnu.idat2001;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Runs a stream of commands against a PropertyRegister without any user
+ * interaction, for driving the register from scripts.
+ *
+ * Each line of the input holds one command, with the fields separated by
+ * semicolons as in the CSV files (see PropertyCsvParser). Empty lines and
+ * lines starting with <code>#</code> are skipped. The commands are:
+ * <ul>
+ * <li><code>add;municipalityNumber;municipalityName;lotNumber;sectionNumber;name;area;owner</code>
+ * - adds a property, the owner may be left empty</li>
+ * <li><code>find;municipalityNumber;lotNumber;sectionNumber</code>
+ * - finds a property</li>
+ * <li><code>list</code> - lists all the properties</li>
+ * <li><code>average</code> - the average area of the properties</li>
+ * <li><code>transfer;municipalityNumber;lotNumber;sectionNumber;owner</code>
+ * - transfers the ownership of a property</li>
+ * </ul>
+ * Every command writes one result line, starting with one of
+ * <code>OK</code>, <code>DUPLICATE</code>, <code>FOUND</code>,
+ * <code>NOT_FOUND</code>, <code>AVERAGE</code>, <code>END</code> or
+ * <code>ERROR</code>. Properties are written in the CSV format, after
+ * <code>FOUND;</code> or, for <code>list</code>, one per line after
+ * <code>PROPERTY;</code> followed by <code>END;count</code>. When the input
+ * ends, a line <code>DONE;commands;failed commands;seconds;commands per second</code>
+ * is written.
+ *
+ * The input is read through one reader and the output written through one
+ * writer, which should both be buffered.
+ */
+public class BatchCommandRunner
+{
+    private static final String SEPARATOR = ";";
+
+    private final PropertyRegister register;
+    // Parses the fields of an add command, which are the same as a CSV line
+    private final PropertyCsvParser parser;
+    private final StringBuilder line;
+    private long commandsRun;
+    private long failedCommands;
+    private long elapsedNanos;
+
+    /**
+     * Creates a runner running commands against the given register.
+     *
+     * @param register the register to run the commands against
+     */
+    public BatchCommandRunner(PropertyRegister register)
+    {
+        this.register = register;
+        this.parser = new PropertyCsvParser();
+        this.line = new StringBuilder();
+        this.commandsRun = 0;
+        this.failedCommands = 0;
+        this.elapsedNanos = 0;
+    }
+
+    /**
+     * Runs all the commands read from the input, writing the results to
+     * the output. The output is flushed, but neither stream is closed.
+     *
+     * @param input the commands to run
+     * @param output where to write the results
+     * @throws IOException if the input can not be read or the output
+     *         can not be written
+     */
+    public void run(BufferedReader input, Writer output) throws IOException
+    {
+        long startTime = System.nanoTime();
+        String command = input.readLine();
+        while (null != command)
+        {
+            if (!command.isEmpty() && !command.startsWith("#"))
+            {
+                this.line.setLength(0);
+                if (!this.runCommand(command, output))
+                {
+                    this.failedCommands++;
+                }
+                this.commandsRun++;
+                this.line.append('\n');
+                output.append(this.line);
+            }
+            command = input.readLine();
+        }
+        this.elapsedNanos += System.nanoTime() - startTime;
+
+        output.write(String.format("DONE;%d;%d;%.3f;%.0f%n", this.commandsRun,
+                this.failedCommands, this.elapsedNanos / 1e9, this.getCommandsPerSecond()));
+        output.flush();
+    }
+
+    /**
+     * Returns the number of commands run so far.
+     * @return the number of commands run
+     */
+    public long getCommandsRun()
+    {
+        return this.commandsRun;
+    }
+
+    /**
+     * Returns the number of commands that failed so far, that is commands
+     * resulting in <code>ERROR</code>.
+     * @return the number of failed commands
+     */
+    public long getFailedCommands()
+    {
+        return this.failedCommands;
+    }
+
+    /**
+     * Returns the number of commands run per second.
+     * @return the number of commands run per second
+     */
+    public double getCommandsPerSecond()
+    {
+        double commandsPerSecond = 0;
+        if (this.elapsedNanos > 0)
+        {
+            commandsPerSecond = this.commandsRun * 1e9 / this.elapsedNanos;
+        }
+        return commandsPerSecond;
+    }
+
+    /**
+     * Runs one command, appending the result to the line.
+     *
+     * @param command the command line
+     * @param output where to write the lines of a list
+     * @return <code>false</code> if the command failed
+     * @throws IOException if the output can not be written
+     */
+    private boolean runCommand(String command, Writer output) throws IOException
+    {
+        int end = command.indexOf(';');
+        String name = end < 0 ? command : command.substring(0, end);
+        String[] arguments = end < 0 ? new String[0] : command.substring(end + 1).split(SEPARATOR, -1);
+        boolean success = true;
+        try
+        {
+            switch (name)
+            {
+                case "add":
+                    success = this.add(command.substring(end + 1));
+                    break;
+
+                case "find":
+                    this.find(arguments);
+                    break;
+
+                case "list":
+                    this.list(output);
+                    break;
+
+                case "average":
+                    this.line.append("AVERAGE;").append(this.register.getAverageAreaOfProperties());
+                    break;
+
+                case "transfer":
+                    this.transfer(arguments);
+                    break;
+
+                default:
+                    this.line.append("ERROR;Unknown command ").append(name);
+                    success = false;
+                    break;
+            }
+        }
+        catch (IllegalArgumentException | IndexOutOfBoundsException e)
+        {
+            // Covers NumberFormatException and missing fields
+            this.line.setLength(0);
+            this.line.append("ERROR;").append(e.getClass().getSimpleName());
+            success = false;
+        }
+        return success;
+    }
+
+    private boolean add(String fields)
+    {
+        boolean success = false;
+        byte[] bytes = fields.getBytes(StandardCharsets.UTF_8);
+        Property property = this.parser.parseLine(ByteBuffer.wrap(bytes), 0, bytes.length);
+        if (null == property)
+        {
+            this.line.append("ERROR;Malformed property");
+        }
+        else if (this.register.addProperty(property))
+        {
+            this.line.append("OK");
+            success = true;
+        }
+        else
+        {
+            this.line.append("DUPLICATE");
+            success = true;
+        }
+        return success;
+    }
+
+    private void find(String[] arguments)
+    {
+        Property property = this.register.findProperty(Integer.parseInt(arguments[0]),
+                Integer.parseInt(arguments[1]), Integer.parseInt(arguments[2]));
+        if (null == property)
+        {
+            this.line.append("NOT_FOUND");
+        }
+        else
+        {
+            this.line.append("FOUND;");
+            PropertyExporter.appendCsv(this.line, property);
+        }
+    }
+
+    private void list(Writer output) throws IOException
+    {
+        int count = 0;
+        Iterator<Property> it = this.register.getIterator();
+        while (it.hasNext())
+        {
+            // Write each property as it is found, so a large register is
+            // never held in memory as text
+            this.line.append("PROPERTY;");
+            PropertyExporter.appendCsv(this.line, it.next());
+            this.line.append('\n');
+            output.append(this.line);
+            this.line.setLength(0);
+            count++;
+        }
+        this.line.append("END;").append(count);
+    }
+
+    private void transfer(String[] arguments)
+    {
+        if (this.register.transferOwnership(Integer.parseInt(arguments[0]),
+                Integer.parseInt(arguments[1]), Integer.parseInt(arguments[2]), arguments[3]))
+        {
+            this.line.append("OK");
+        }
+        else
+        {
+            this.line.append("NOT_FOUND");
+        }
+    }
+}
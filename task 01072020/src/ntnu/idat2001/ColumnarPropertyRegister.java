@@ -0,0 +1,343 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+/**
+ * A register holding the properties column by column instead of as
+ * Property objects, with the same methods as PropertyRegister.
+ *
+ * Each field is kept in its own primitive array (one row per property),
+ * and the strings are stored once in a dictionary and referred to by ID,
+ * so a municipality name shared by thousands of properties is only stored
+ * once. This uses far less memory than one object per property, and lets
+ * searches and the area calculations run as tight loops over the arrays.
+ *
+ * The Property objects returned by the methods are views created on
+ * demand, holding a copy of the row. The owner names are already shared
+ * through the dictionary of the register, so the views do not store them
+ * in the owner name pool.
+ * The properties are returned in the order they were added.
+ */
+public class ColumnarPropertyRegister
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final PropertyRowIndex rowsByKey;
+    private final StringDictionary strings;
+    private int[] municipalityNumbers;
+    private int[] lotNumbers;
+    private int[] sectionNumbers;
+    private double[] areas;
+    private int[] municipalityNameIds;
+    private int[] nameIds;
+    private int[] ownerIds;
+    private int size;
+
+    /**
+     * Creates a new instance of the ColumnarPropertyRegister.
+     */
+    public ColumnarPropertyRegister()
+    {
+        this.rowsByKey = new PropertyRowIndex();
+        this.strings = new StringDictionary();
+        this.municipalityNumbers = new int[INITIAL_CAPACITY];
+        this.lotNumbers = new int[INITIAL_CAPACITY];
+        this.sectionNumbers = new int[INITIAL_CAPACITY];
+        this.areas = new double[INITIAL_CAPACITY];
+        this.municipalityNameIds = new int[INITIAL_CAPACITY];
+        this.nameIds = new int[INITIAL_CAPACITY];
+        this.ownerIds = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Adds a property to the register. If the property is already in the register
+     * the property is not added, and <code>false</code> is returned.
+     * The register keeps a copy of the fields, not the Property object.
+     *
+     * @param property the property/real estate to add to the register.
+     * @return <code>true</code> if property was added successfully,
+     *         <code>false</code> otherwise.
+     */
+    public boolean addProperty(Property property)
+    {
+        boolean success = this.rowsByKey.putIfAbsent(property.getPropertyKey(), this.size);
+        if (success)
+        {
+            if (this.size == this.areas.length)
+            {
+                this.grow();
+            }
+            int row = this.size;
+            this.municipalityNumbers[row] = property.getMunicipalityNumber();
+            this.lotNumbers[row] = property.getLotNumber();
+            this.sectionNumbers[row] = property.getSectionNumber();
+            this.areas[row] = property.getArea();
+            this.municipalityNameIds[row] = this.strings.idOf(property.getMunicipalityName());
+            this.nameIds[row] = this.strings.idOf(property.getName());
+            this.ownerIds[row] = this.strings.idOf(property.getNameOfOwner());
+            this.size++;
+        }
+        return success;
+    }
+
+    /**
+     * Searches the register for the property matching the municipality number,
+     * lot number and section number provided by the parameters.
+     * If no property found, <code>null</code> is returned.
+     *
+     * @param municipalityNumber the municipality number to be matched
+     * @param lotNumber the lot number to be matched
+     * @param sectionNumber the section number to be matched
+     * @return a view of the property found, or <code>null</code> if no
+     *         property was found
+     */
+    public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        Property foundProperty = null;
+        int row = this.findRow(municipalityNumber, lotNumber, sectionNumber);
+        if (row != PropertyRowIndex.NO_ROW)
+        {
+            foundProperty = this.viewOf(row);
+        }
+        return foundProperty;
+    }
+
+    /**
+     * Transfers the ownership of the property matching the municipality
+     * number, lot number and section number to a new owner.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param nameOfNewOwner the name of the new owner
+     * @return <code>true</code> if the property was found and the ownership
+     *         transferred, <code>false</code> if no property was found.
+     */
+    public boolean transferOwnership(int municipalityNumber, int lotNumber, int sectionNumber,
+                                     String nameOfNewOwner)
+    {
+        boolean success = false;
+        int row = this.findRow(municipalityNumber, lotNumber, sectionNumber);
+        if (row != PropertyRowIndex.NO_ROW)
+        {
+            // Let the view validate the name, as Property.setNameOfOwner()
+            // does, without storing it in the owner name pool
+            Property view = this.viewOf(row);
+            view.setUnpooledNameOfOwner(nameOfNewOwner);
+            this.ownerIds[row] = this.strings.idOf(view.getNameOfOwner());
+            success = true;
+        }
+        return success;
+    }
+
+    /**
+     * Findes all the properties that has a lot number matching the lotnumber
+     * provided as parameter. The lot number column is scanned as the
+     * iterator is used, and views are only created for the matches.
+     *
+     * @param lotNumber the lotNumber to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
+    {
+        return new RowIterator(row -> this.lotNumbers[row] == lotNumber);
+    }
+
+    /**
+     * Finds all the properties in the municipality given by the parameter.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        return new RowIterator(row -> this.municipalityNumbers[row] == municipalityNumber);
+    }
+
+    /**
+     * Finds all the properties (sections) of the given lot in the given
+     * municipality.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByLot(int municipalityNumber, int lotNumber)
+    {
+        return this.findSectionRange(municipalityNumber, lotNumber, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds the properties of the given lot in the given municipality with
+     * a section number between <code>fromSectionNumber</code> and
+     * <code>toSectionNumber</code>, both inclusive.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @param fromSectionNumber the lowest section number to include
+     * @param toSectionNumber the highest section number to include
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findSectionRange(int municipalityNumber, int lotNumber,
+                                               int fromSectionNumber, int toSectionNumber)
+    {
+        return new RowIterator(row -> this.lotNumbers[row] == lotNumber
+                && this.municipalityNumbers[row] == municipalityNumber
+                && this.sectionNumbers[row] >= fromSectionNumber
+                && this.sectionNumbers[row] <= toSectionNumber);
+    }
+
+    /**
+     * Returns an iterator to be used to iterate over the propetries in the
+     * property register.
+     *
+     * @return an iterator of views of the properties in the register.
+     */
+    public Iterator<Property> getIterator()
+    {
+        return new RowIterator(row -> true);
+    }
+
+    /**
+     * Returns the average area of all the properties in the register.
+     * The average area is given in square meters.
+     * If the register does not contain any properties, 0 is returned.
+     *
+     * @return the average area in square meters
+     */
+    public double getAverageAreaOfProperties()
+    {
+        AreaStatistics statistics = new AreaStatistics();
+        for (int row = 0; row < this.size; row++)
+        {
+            statistics.add(this.areas[row]);
+        }
+        return statistics.getAverage();
+    }
+
+    /**
+     * Returns the area statistics of all the properties in the given
+     * municipality, calculated by scanning the columns.
+     *
+     * @param municipalityNumber the municipality number
+     * @return the area statistics of the municipality
+     */
+    public AreaStatistics getAreaStatistics(int municipalityNumber)
+    {
+        AreaStatistics statistics = new AreaStatistics();
+        for (int row = 0; row < this.size; row++)
+        {
+            if (this.municipalityNumbers[row] == municipalityNumber)
+            {
+                statistics.add(this.areas[row]);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Returns the number of properties in the register.
+     *
+     * @return the number of properties in the register.
+     */
+    public int getNumberOfProperties()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the row holding the property, or NO_ROW if there is none.
+     */
+    private int findRow(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        int row = PropertyRowIndex.NO_ROW;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            row = this.rowsByKey.get(PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+        return row;
+    }
+
+    /**
+     * Creates a Property holding a copy of the given row.
+     */
+    private Property viewOf(int row)
+    {
+        Property property = new Property(this.municipalityNumbers[row],
+                this.strings.stringOf(this.municipalityNameIds[row]),
+                this.lotNumbers[row], this.sectionNumbers[row],
+                this.strings.stringOf(this.nameIds[row]), this.areas[row]);
+        String owner = this.strings.stringOf(this.ownerIds[row]);
+        if (null != owner)
+        {
+            property.setUnpooledNameOfOwner(owner);
+        }
+        return property;
+    }
+
+    /**
+     * Doubles the capacity of all the columns.
+     */
+    private void grow()
+    {
+        int capacity = this.areas.length * 2;
+        this.municipalityNumbers = Arrays.copyOf(this.municipalityNumbers, capacity);
+        this.lotNumbers = Arrays.copyOf(this.lotNumbers, capacity);
+        this.sectionNumbers = Arrays.copyOf(this.sectionNumbers, capacity);
+        this.areas = Arrays.copyOf(this.areas, capacity);
+        this.municipalityNameIds = Arrays.copyOf(this.municipalityNameIds, capacity);
+        this.nameIds = Arrays.copyOf(this.nameIds, capacity);
+        this.ownerIds = Arrays.copyOf(this.ownerIds, capacity);
+    }
+
+    /**
+     * Iterates over the rows matching a condition, creating a view of each
+     * row as it is returned. Only the rows in the register when the iterator
+     * was created are included.
+     */
+    private final class RowIterator implements Iterator<Property>
+    {
+        private final IntPredicate condition;
+        private final int end;
+        private int nextRow;
+
+        RowIterator(IntPredicate condition)
+        {
+            this.condition = condition;
+            this.end = size;
+            this.nextRow = this.findMatch(0);
+        }
+
+        private int findMatch(int from)
+        {
+            int row = from;
+            while (row < this.end && !this.condition.test(row))
+            {
+                row++;
+            }
+            return row;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.nextRow < this.end;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = viewOf(this.nextRow);
+            this.nextRow = this.findMatch(this.nextRow + 1);
+            return property;
+        }
+    }
+}
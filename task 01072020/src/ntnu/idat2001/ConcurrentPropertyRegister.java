@@ -0,0 +1,361 @@
+package ntnu.idat2001;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A thread-safe version of the PropertyRegister, with the same methods.
+ * Many threads can add properties and search the register at the same time.
+ *
+ * Adding a property is a single atomic put-if-absent, so two threads adding
+ * the same property can never both succeed. Searches do not take any locks.
+ * The iterators returned are weakly consistent: they never throw
+ * ConcurrentModificationException, and they include the properties that
+ * were in the register when the iterator was created, and possibly some of
+ * the properties added while iterating. A property that has just been added
+ * may be found by findProperty() slightly before it shows up in the other
+ * searches and the area statistics.
+ *
+ * Properties are treated as immutable once added: transferOwnership()
+ * replaces the property with a copy that has the new owner, so a property
+ * returned by a search never changes while another thread reads it. A
+ * lot search running during a transfer may miss the transferred property
+ * or return both copies of it. The indexes of a property are updated while
+ * holding a lock striped on its key, so a transfer can never be overtaken
+ * by the indexing of the add that put the property in the register.
+ */
+public class ConcurrentPropertyRegister
+{
+    // Number of lock stripes for the register wide area statistics.
+    // Must be a power of two.
+    private static final int STATISTICS_STRIPES = 16;
+    // Number of lock stripes guarding the indexes of the properties.
+    // Must be a power of two.
+    private static final int INDEX_LOCK_STRIPES = 64;
+
+    private final ConcurrentHashMap<Long, Property> properties;
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Property>> propertiesByLotNumber;
+    // Sorted on the packed key, see PropertyRegister for how this gives
+    // the municipality, lot and section order.
+    private final ConcurrentSkipListMap<Long, Property> propertiesInKeyOrder;
+    // The register wide statistics are split in stripes, each guarded by
+    // its own lock, so threads adding properties rarely wait for each other.
+    private final AreaStatistics[] areaStatisticsStripes;
+    // Each municipality's statistics are guarded by their own lock.
+    private final ConcurrentHashMap<Integer, AreaStatistics> areaStatisticsByMunicipality;
+    // Guard the updates of the lot and key indexes, striped on the key
+    private final Object[] indexLocks;
+
+    /**
+     * Creates a new instance of the ConcurrentPropertyRegister.
+     */
+    public ConcurrentPropertyRegister()
+    {
+        this.properties = new ConcurrentHashMap<>();
+        this.propertiesByLotNumber = new ConcurrentHashMap<>();
+        this.propertiesInKeyOrder = new ConcurrentSkipListMap<>();
+        this.areaStatisticsStripes = new AreaStatistics[STATISTICS_STRIPES];
+        for (int i = 0; i < STATISTICS_STRIPES; i++)
+        {
+            this.areaStatisticsStripes[i] = new AreaStatistics();
+        }
+        this.areaStatisticsByMunicipality = new ConcurrentHashMap<>();
+        this.indexLocks = new Object[INDEX_LOCK_STRIPES];
+        for (int i = 0; i < INDEX_LOCK_STRIPES; i++)
+        {
+            this.indexLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Adds a property to the register. If the property is already in the register
+     * the property is not added, and <code>false</code> is returned.
+     *
+     * If the property was added successfully, <code>true</code> is returned.
+     *
+     * @param property the property/real estate to add to the register.
+     * @return <code>true</code> if property was added successfully,
+     *         <code>false</code> otherwise.
+     */
+    public boolean addProperty(Property property)
+    {
+        long key = property.getPropertyKey();
+        boolean success = null == this.properties.putIfAbsent(key, property);
+        if (success)
+        {
+            // Only the thread that won the put-if-absent gets here, so each
+            // property is added to the indexes exactly once. If the property
+            // was transferred before this thread got the lock, the transfer
+            // has already indexed the copy that replaced it.
+            synchronized (this.indexLocks[stripeOf(key, INDEX_LOCK_STRIPES)])
+            {
+                if (this.properties.get(key) == property)
+                {
+                    this.propertiesByLotNumber
+                            .computeIfAbsent(property.getLotNumber(),
+                                    lot -> new ConcurrentLinkedQueue<>())
+                            .add(property);
+                    this.propertiesInKeyOrder.put(key, property);
+                }
+            }
+
+            AreaStatistics stripe = this.areaStatisticsStripes[stripeOf(key, STATISTICS_STRIPES)];
+            synchronized (stripe)
+            {
+                stripe.add(property.getArea());
+            }
+            AreaStatistics municipalityStatistics = this.areaStatisticsByMunicipality
+                    .computeIfAbsent(property.getMunicipalityNumber(), m -> new AreaStatistics());
+            synchronized (municipalityStatistics)
+            {
+                municipalityStatistics.add(property.getArea());
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Transfers the ownership of the property matching the municipality
+     * number, lot number and section number to a new owner. The property
+     * is replaced by a copy with the new owner in the register and all its
+     * indexes, so threads still holding the property see the previous
+     * owner. Transfers of the same property are made one at a time.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param nameOfNewOwner the name of the new owner
+     * @return <code>true</code> if the property was found and the ownership
+     *         transferred, <code>false</code> if no property was found.
+     */
+    public boolean transferOwnership(int municipalityNumber, int lotNumber, int sectionNumber,
+                                     String nameOfNewOwner)
+    {
+        boolean success = false;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            long key = PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber);
+            synchronized (this.indexLocks[stripeOf(key, INDEX_LOCK_STRIPES)])
+            {
+                Property property = this.properties.get(key);
+                if (null != property)
+                {
+                    Property transferred = new Property(property.getMunicipalityNumber(),
+                            property.getMunicipalityName(), property.getLotNumber(),
+                            property.getSectionNumber(), property.getName(), property.getArea(),
+                            nameOfNewOwner);
+                    this.properties.put(key, transferred);
+                    // If the add of the property has not indexed it yet, it
+                    // never will, since the property is no longer the one in
+                    // the register, so the copy is indexed here either way.
+                    ConcurrentLinkedQueue<Property> propertiesWithLotNumber = this.propertiesByLotNumber
+                            .computeIfAbsent(lotNumber, lot -> new ConcurrentLinkedQueue<>());
+                    propertiesWithLotNumber.remove(property);
+                    propertiesWithLotNumber.add(transferred);
+                    this.propertiesInKeyOrder.put(key, transferred);
+                    success = true;
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Searches the register for the property matching the municipality number,
+     * lot number and section number provided by the parameters.
+     * If no property found, <code>null</code> is returned.
+     *
+     * @param municipalityNumber the municipality number to be matched
+     * @param lotNumber the lot number to be matched
+     * @param sectionNumber the section number to be matched
+     * @return the property found, or <code>null</code> if no property was found
+     */
+    public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        Property foundProperty = null;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            foundProperty = this.properties.get(
+                    PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+        return foundProperty;
+    }
+
+    /**
+     * Findes all the properties that has a lot number matching the lotnumber
+     * provided as parameter.
+     *
+     * @param lotNumber the lotNumber to search for
+     * @return a weakly consistent iterator of the found properties. If no
+     *         properties was found, an empty iterator is returned.
+     */
+    public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        ConcurrentLinkedQueue<Property> propertiesWithLotNumber =
+                this.propertiesByLotNumber.get(lotNumber);
+        if (null != propertiesWithLotNumber)
+        {
+            foundProperties = propertiesWithLotNumber.iterator();
+        }
+        return foundProperties;
+    }
+
+    /**
+     * Finds all the properties in the municipality given by the parameter,
+     * sorted by lot number and section number.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @return a weakly consistent iterator of the found properties
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        if (PropertyKey.isValid(municipalityNumber, 0, 0))
+        {
+            foundProperties = this.findKeyRange(
+                    PropertyKey.pack(municipalityNumber, 0, 0),
+                    PropertyKey.pack(municipalityNumber,
+                            PropertyKey.MAX_LOT_OR_SECTION_NUMBER,
+                            PropertyKey.MAX_LOT_OR_SECTION_NUMBER));
+        }
+        return foundProperties;
+    }
+
+    /**
+     * Finds all the properties (sections) of the given lot in the given
+     * municipality, sorted by section number.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @return a weakly consistent iterator of the found properties
+     */
+    public Iterator<Property> findByLot(int municipalityNumber, int lotNumber)
+    {
+        return this.findSectionRange(municipalityNumber, lotNumber,
+                0, PropertyKey.MAX_LOT_OR_SECTION_NUMBER);
+    }
+
+    /**
+     * Finds the properties of the given lot in the given municipality with
+     * a section number between <code>fromSectionNumber</code> and
+     * <code>toSectionNumber</code>, both inclusive, sorted by section number.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @param fromSectionNumber the lowest section number to include
+     * @param toSectionNumber the highest section number to include
+     * @return a weakly consistent iterator of the found properties
+     */
+    public Iterator<Property> findSectionRange(int municipalityNumber, int lotNumber,
+                                               int fromSectionNumber, int toSectionNumber)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        int fromSection = Math.max(0, fromSectionNumber);
+        int toSection = Math.min(PropertyKey.MAX_LOT_OR_SECTION_NUMBER, toSectionNumber);
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, fromSection)
+                && PropertyKey.isValid(municipalityNumber, lotNumber, toSection)
+                && fromSection <= toSection)
+        {
+            foundProperties = this.findKeyRange(
+                    PropertyKey.pack(municipalityNumber, lotNumber, fromSection),
+                    PropertyKey.pack(municipalityNumber, lotNumber, toSection));
+        }
+        return foundProperties;
+    }
+
+    /**
+     * Returns an iterator to be used to iterate over the propetries in the
+     * property register.
+     *
+     * @return a weakly consistent iterator over the properties in the register.
+     */
+    public Iterator<Property> getIterator()
+    {
+        return this.properties.values().iterator();
+    }
+
+    /**
+     * Returns the average area of all the properties in the register.
+     * The average area is given in square meters.
+     * If the register does not contain any properties, 0 is returned.
+     *
+     * @return the average area in square meters
+     */
+    public double getAverageAreaOfProperties()
+    {
+        AreaStatistics total = new AreaStatistics();
+        for (AreaStatistics stripe : this.areaStatisticsStripes)
+        {
+            synchronized (stripe)
+            {
+                total.addAll(stripe);
+            }
+        }
+        return total.getAverage();
+    }
+
+    /**
+     * Returns the area statistics of all the properties in the given
+     * municipality. The statistics returned is a copy.
+     * If the municipality has no properties, empty statistics are returned.
+     *
+     * @param municipalityNumber the municipality number
+     * @return the area statistics of the municipality
+     */
+    public AreaStatistics getAreaStatistics(int municipalityNumber)
+    {
+        AreaStatistics copy = new AreaStatistics();
+        AreaStatistics statistics = this.areaStatisticsByMunicipality.get(municipalityNumber);
+        if (null != statistics)
+        {
+            synchronized (statistics)
+            {
+                copy.addAll(statistics);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of properties in the register.
+     *
+     * @return the number of properties in the register.
+     */
+    public int getNumberOfProperties()
+    {
+        return this.properties.size();
+    }
+
+    /**
+     * Returns an iterator over the sorted index from <code>fromKey</code>
+     * to <code>toKey</code>, both inclusive.
+     *
+     * @param fromKey the lowest packed key to include
+     * @param toKey the highest packed key to include
+     * @return a weakly consistent iterator of the properties in the range
+     */
+    private Iterator<Property> findKeyRange(long fromKey, long toKey)
+    {
+        return this.propertiesInKeyOrder
+                .subMap(fromKey, true, toKey, true)
+                .values()
+                .iterator();
+    }
+
+    /**
+     * Returns the statistics or lock stripe to use for the given key.
+     *
+     * @param key the packed key of the property
+     * @param stripes the number of stripes, a power of two
+     * @return the stripe index
+     */
+    private static int stripeOf(long key, int stripes)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (stripes - 1);
+    }
+}
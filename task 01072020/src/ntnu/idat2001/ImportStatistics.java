@@ -0,0 +1,103 @@
+package ntnu.idat2001;
+
+/**
+ * The result of importing properties from a file into a register: how many
+ * rows were read, how many properties were added, how many were rejected
+ * as duplicates or malformed rows, and how long the import took.
+ */
+public class ImportStatistics
+{
+    private final long rowsRead;
+    private final long propertiesAdded;
+    private final long duplicates;
+    private final long malformedRows;
+    private final long elapsedNanos;
+
+    /**
+     * Creates an instance of ImportStatistics.
+     *
+     * @param rowsRead the number of data rows read from the file
+     * @param propertiesAdded the number of properties added to the register
+     * @param duplicates the number of properties already in the register
+     * @param malformedRows the number of rows that could not be parsed
+     * @param elapsedNanos the time the import took, in nanoseconds
+     */
+    public ImportStatistics(long rowsRead, long propertiesAdded, long duplicates,
+                            long malformedRows, long elapsedNanos)
+    {
+        this.rowsRead = rowsRead;
+        this.propertiesAdded = propertiesAdded;
+        this.duplicates = duplicates;
+        this.malformedRows = malformedRows;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of data rows read from the file.
+     * @return the number of data rows read from the file
+     */
+    public long getRowsRead()
+    {
+        return rowsRead;
+    }
+
+    /**
+     * Returns the number of properties added to the register.
+     * @return the number of properties added to the register
+     */
+    public long getPropertiesAdded()
+    {
+        return propertiesAdded;
+    }
+
+    /**
+     * Returns the number of properties that were not added since a property
+     * with the same ID was already in the register.
+     * @return the number of duplicates
+     */
+    public long getDuplicates()
+    {
+        return duplicates;
+    }
+
+    /**
+     * Returns the number of rows that could not be parsed into a property.
+     * @return the number of malformed rows
+     */
+    public long getMalformedRows()
+    {
+        return malformedRows;
+    }
+
+    /**
+     * Returns the time the import took, in nanoseconds.
+     * @return the time the import took, in nanoseconds
+     */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of rows read per second.
+     * @return the number of rows read per second
+     */
+    public double getRowsPerSecond()
+    {
+        double rowsPerSecond = 0;
+        if (this.elapsedNanos > 0)
+        {
+            rowsPerSecond = this.rowsRead * 1e9 / this.elapsedNanos;
+        }
+        return rowsPerSecond;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d rows read in %.2f s (%.0f rows/s): "
+                        + "%d added, %d duplicates, %d malformed",
+                this.rowsRead, this.elapsedNanos / 1e9, this.getRowsPerSecond(),
+                this.propertiesAdded, this.duplicates, this.malformedRows);
+    }
+}
@@ -0,0 +1,288 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An index of properties sorted by their packed key (see PropertyKey),
+ * used to find the properties of a municipality or a lot, and to page
+ * through the register in key order.
+ *
+ * The keys are kept in a sorted array of primitive longs next to an array
+ * of the properties, so a range is found with two binary searches, and
+ * adding a property neither boxes its key nor allocates a tree node. As in
+ * AreaIndex, new properties are first collected in a pending run, which is
+ * searched alongside the arrays and only merged into them when it has
+ * grown larger than the square root of their size. A bulk import followed
+ * by a query therefore sorts and merges only once.
+ *
+ * A merge creates new arrays, and an iterator copies the part of the
+ * pending run it returns, so an iterator keeps walking the properties it
+ * was created over, even if more properties are added.
+ */
+final class KeyIndex
+{
+    private static final Comparator<Property> BY_KEY = Comparator.comparingLong(Property::getPropertyKey);
+    // The smallest pending run that is merged into the sorted arrays
+    private static final int MIN_PENDING = 64;
+
+    // The merged properties and their keys, in ascending order of key
+    private long[] keys;
+    private Property[] properties;
+    // The properties added since the last merge and their keys, in
+    // ascending order of key if pendingSorted, otherwise in the order added
+    private long[] pendingKeys;
+    private Property[] pending;
+    private int pendingSize;
+    private boolean pendingSorted;
+
+    /**
+     * Creates an empty index.
+     */
+    KeyIndex()
+    {
+        this.keys = new long[0];
+        this.properties = new Property[0];
+        this.pendingKeys = new long[MIN_PENDING];
+        this.pending = new Property[MIN_PENDING];
+        this.pendingSize = 0;
+        this.pendingSorted = true;
+    }
+
+    /**
+     * Adds a property to the index. The key of the property must not
+     * already be in the index.
+     *
+     * @param property the property to add
+     */
+    void add(Property property)
+    {
+        if (this.pendingSize == this.pending.length)
+        {
+            this.pendingKeys = Arrays.copyOf(this.pendingKeys, this.pendingSize * 2);
+            this.pending = Arrays.copyOf(this.pending, this.pendingSize * 2);
+        }
+        long key = property.getPropertyKey();
+        int index = this.pendingSize;
+        if (this.pendingSorted && this.pendingSize < this.mergeThreshold())
+        {
+            index = startOf(this.pendingKeys, this.pendingSize, key);
+            System.arraycopy(this.pendingKeys, index, this.pendingKeys, index + 1, this.pendingSize - index);
+            System.arraycopy(this.pending, index, this.pending, index + 1, this.pendingSize - index);
+        }
+        else
+        {
+            this.pendingSorted = false;
+        }
+        this.pendingKeys[index] = key;
+        this.pending[index] = property;
+        this.pendingSize++;
+    }
+
+    /**
+     * Returns the properties with a key between <code>fromKey</code> and
+     * <code>toKey</code>, both inclusive, in ascending order of key.
+     *
+     * @param fromKey the lowest key to include
+     * @param toKey the highest key to include
+     * @return an iterator of the properties in the key range
+     */
+    Iterator<Property> between(long fromKey, long toKey)
+    {
+        this.prepare();
+        int start = startOf(this.keys, this.keys.length, fromKey);
+        int end = Math.max(start, endOf(this.keys, this.keys.length, toKey));
+        int pendingStart = startOf(this.pendingKeys, this.pendingSize, fromKey);
+        int pendingEnd = Math.max(pendingStart, endOf(this.pendingKeys, this.pendingSize, toKey));
+        return new SliceIterator(this.properties, start, end,
+                Arrays.copyOfRange(this.pending, pendingStart, pendingEnd));
+    }
+
+    /**
+     * Returns the properties with a key greater than <code>key</code>, in
+     * ascending order of key.
+     *
+     * @param key the key to start after
+     * @return an iterator of the properties after the key
+     */
+    Iterator<Property> after(long key)
+    {
+        this.prepare();
+        int start = endOf(this.keys, this.keys.length, key);
+        int pendingStart = endOf(this.pendingKeys, this.pendingSize, key);
+        return new SliceIterator(this.properties, start, this.properties.length,
+                Arrays.copyOfRange(this.pending, pendingStart, this.pendingSize));
+    }
+
+    /**
+     * Returns the size of the pending run above which it is merged into
+     * the sorted arrays.
+     */
+    private int mergeThreshold()
+    {
+        return Math.max(MIN_PENDING, (int) Math.sqrt(this.properties.length));
+    }
+
+    /**
+     * Sorts the pending run if properties were appended to it unsorted, and
+     * merges it into the sorted arrays if it has grown too large.
+     */
+    private void prepare()
+    {
+        if (!this.pendingSorted)
+        {
+            Arrays.sort(this.pending, 0, this.pendingSize, BY_KEY);
+            for (int i = 0; i < this.pendingSize; i++)
+            {
+                this.pendingKeys[i] = this.pending[i].getPropertyKey();
+            }
+            this.pendingSorted = true;
+        }
+        if (this.pendingSize > this.mergeThreshold())
+        {
+            this.merge();
+        }
+    }
+
+    /**
+     * Merges the sorted pending run into the sorted arrays.
+     */
+    private void merge()
+    {
+        int size = this.properties.length + this.pendingSize;
+        long[] mergedKeys = new long[size];
+        Property[] mergedProperties = new Property[size];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++)
+        {
+            if (j == this.pendingSize
+                    || (i < this.keys.length && this.keys[i] < this.pendingKeys[j]))
+            {
+                mergedKeys[k] = this.keys[i];
+                mergedProperties[k] = this.properties[i];
+                i++;
+            }
+            else
+            {
+                mergedKeys[k] = this.pendingKeys[j];
+                mergedProperties[k] = this.pending[j];
+                j++;
+            }
+        }
+        this.keys = mergedKeys;
+        this.properties = mergedProperties;
+        // A bulk import leaves a large pending buffer behind, which would
+        // only hold on to memory
+        int capacity = 2 * this.mergeThreshold();
+        if (this.pending.length > capacity)
+        {
+            this.pendingKeys = new long[capacity];
+            this.pending = new Property[capacity];
+        }
+        else
+        {
+            Arrays.fill(this.pending, 0, this.pendingSize, null);
+        }
+        this.pendingSize = 0;
+    }
+
+    /**
+     * Returns the index of the first of the <code>size</code> first keys
+     * that is at least <code>key</code>.
+     */
+    private static int startOf(long[] keys, int size, long key)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index after the last of the <code>size</code> first keys
+     * that is at most <code>key</code>.
+     */
+    private static int endOf(long[] keys, int size, long key)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] <= key)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterates over a slice of the sorted array of properties and a sorted
+     * copy of part of the pending run together, in order of key.
+     */
+    private static final class SliceIterator implements Iterator<Property>
+    {
+        private final Property[] properties;
+        private final int end;
+        private final Property[] pending;
+        private int next;
+        private int nextPending;
+
+        SliceIterator(Property[] properties, int start, int end, Property[] pending)
+        {
+            this.properties = properties;
+            this.end = end;
+            this.pending = pending;
+            this.next = start;
+            this.nextPending = 0;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next < this.end || this.nextPending < this.pending.length;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property;
+            if (this.nextPending == this.pending.length
+                    || (this.next < this.end && this.properties[this.next].getPropertyKey()
+                            < this.pending[this.nextPending].getPropertyKey()))
+            {
+                property = this.properties[this.next];
+                this.next++;
+            }
+            else
+            {
+                property = this.pending[this.nextPending];
+                this.nextPending++;
+            }
+            return property;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ntnu.idat2001;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long an operation takes, in nanoseconds, as a histogram with
+ * buckets of growing width (in the style of HdrHistogram): each power of
+ * two is split into SUB_BUCKETS / 2 buckets of equal width, so a value is
+ * known to within about 6 %, whether it is 50 nanoseconds or 5 seconds, and
+ * the whole range fits in under a thousand buckets.
+ *
+ * Each thread records into its own array of counts, so recording never
+ * waits for or contends with other threads. Only the owning thread writes
+ * to an array, so a count is updated with a plain read and an ordered
+ * write instead of an atomic add. The arrays of all the threads are added
+ * up when a snapshot is taken. A snapshot taken while other threads are
+ * recording may miss their latest few values.
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /** The number of buckets, enough for any non-negative long. */
+    static final int BUCKETS = ((63 - SUB_BUCKET_BITS + 1) + 1) * HALF_SUB_BUCKETS;
+    // The sum and the maximum of the values are kept after the buckets
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private final CopyOnWriteArrayList<AtomicLongArray> recorders;
+    private final ThreadLocal<AtomicLongArray> recorder;
+
+    /**
+     * Creates an empty histogram.
+     */
+    LatencyHistogram()
+    {
+        this.recorders = new CopyOnWriteArrayList<>();
+        this.recorder = ThreadLocal.withInitial(() -> {
+            AtomicLongArray counts = new AtomicLongArray(BUCKETS + 2);
+            this.recorders.add(counts);
+            return counts;
+        });
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the time the operation took, in nanoseconds
+     */
+    void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        AtomicLongArray counts = this.recorder.get();
+        int bucket = bucketOf(value);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        counts.lazySet(SUM, counts.get(SUM) + value);
+        if (value > counts.get(MAX))
+        {
+            counts.lazySet(MAX, value);
+        }
+    }
+
+    /**
+     * Adds up the values recorded by all the threads so far.
+     *
+     * @return the merged histogram
+     */
+    LatencySnapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray threadCounts : this.recorders)
+        {
+            for (int bucket = 0; bucket < BUCKETS; bucket++)
+            {
+                counts[bucket] += threadCounts.get(bucket);
+            }
+            sum += threadCounts.get(SUM);
+            max = Math.max(max, threadCounts.get(MAX));
+        }
+        return new LatencySnapshot(counts, sum, max);
+    }
+
+    /**
+     * Returns the bucket of a value. Values below SUB_BUCKETS have a bucket
+     * each. Above that, the bucket is given by the position of the highest
+     * bit set and the SUB_BUCKET_BITS - 1 bits following it.
+     *
+     * @param value the value, not negative
+     * @return the bucket
+     */
+    static int bucketOf(long value)
+    {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1));
+        int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest value that falls in the bucket.
+     *
+     * @param bucket the bucket
+     * @return the highest value of the bucket
+     */
+    static long highestValueOf(int bucket)
+    {
+        long highest = bucket;
+        if (bucket >= SUB_BUCKETS)
+        {
+            int shift = (bucket >> (SUB_BUCKET_BITS - 1)) - 1;
+            long subBucket = bucket - ((long) shift << (SUB_BUCKET_BITS - 1));
+            highest = ((subBucket + 1) << shift) - 1;
+        }
+        return highest;
+    }
+}
@@ -0,0 +1,101 @@
+package ntnu.idat2001;
+
+/**
+ * The times recorded for an operation, merged from all the threads when
+ * the snapshot was taken. The snapshot does not change as more times are
+ * recorded. All times are in nanoseconds. Percentiles are accurate to
+ * within about 6 %, see LatencyHistogram.
+ */
+public final class LatencySnapshot
+{
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    /**
+     * Creates a snapshot from the merged counts of a LatencyHistogram.
+     */
+    LatencySnapshot(long[] counts, long sum, long max)
+    {
+        this.counts = counts;
+        long total = 0;
+        for (long bucketCount : counts)
+        {
+            total += bucketCount;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of times recorded.
+     *
+     * @return the number of times recorded
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns the average time, or 0 if no times were recorded.
+     *
+     * @return the average time in nanoseconds
+     */
+    public double getMeanNanos()
+    {
+        return this.count == 0 ? 0 : (double) this.sum / this.count;
+    }
+
+    /**
+     * Returns the longest time recorded, or 0 if no times were recorded.
+     *
+     * @return the longest time in nanoseconds
+     */
+    public long getMaxNanos()
+    {
+        return this.max;
+    }
+
+    /**
+     * Returns the time that the given percentage of the recorded times were
+     * at or below, or 0 if no times were recorded.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the time in nanoseconds
+     * @throws IllegalArgumentException if the percentile is outside 0 to 100
+     */
+    public long getPercentileNanos(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        long value = 0;
+        if (this.count > 0)
+        {
+            // The rank of the value, counting from 1
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            int bucket = 0;
+            while (seen + this.counts[bucket] < rank)
+            {
+                seen += this.counts[bucket];
+                bucket++;
+            }
+            value = Math.min(LatencyHistogram.highestValueOf(bucket), this.max);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count %d, mean %.1f us, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                this.count, this.getMeanNanos() / 1000,
+                this.getPercentileNanos(50) / 1000.0, this.getPercentileNanos(99) / 1000.0,
+                this.getPercentileNanos(99.9) / 1000.0, this.max / 1000.0);
+    }
+}
@@ -0,0 +1,106 @@
+package ntnu.idat2001;
+
+/**
+ * The metrics of a PropertyRegister at the time the snapshot was taken,
+ * returned by PropertyRegister.getMetrics(). The snapshot does not change
+ * as the register is used.
+ */
+public final class MetricsSnapshot
+{
+    private final LatencySnapshot add;
+    private final LatencySnapshot find;
+    private final LatencySnapshot lotSearch;
+    private final LatencySnapshot aggregation;
+    private final long duplicatesRejected;
+    private final int numberOfProperties;
+
+    /**
+     * Creates a snapshot. Use PropertyRegister.getMetrics() to take one.
+     */
+    MetricsSnapshot(LatencySnapshot add, LatencySnapshot find, LatencySnapshot lotSearch,
+                    LatencySnapshot aggregation, long duplicatesRejected, int numberOfProperties)
+    {
+        this.add = add;
+        this.find = find;
+        this.lotSearch = lotSearch;
+        this.aggregation = aggregation;
+        this.duplicatesRejected = duplicatesRejected;
+        this.numberOfProperties = numberOfProperties;
+    }
+
+    /**
+     * Returns the times of the calls to addProperty(), including the
+     * properties rejected as duplicates.
+     *
+     * @return the times of adding properties
+     */
+    public LatencySnapshot getAdd()
+    {
+        return this.add;
+    }
+
+    /**
+     * Returns the times of the lookups of single properties by
+     * findProperty().
+     *
+     * @return the times of finding properties
+     */
+    public LatencySnapshot getFind()
+    {
+        return this.find;
+    }
+
+    /**
+     * Returns the times of the searches by lot number. Only the search is
+     * timed, not the use of the iterator returned.
+     *
+     * @return the times of searching by lot number
+     */
+    public LatencySnapshot getLotSearch()
+    {
+        return this.lotSearch;
+    }
+
+    /**
+     * Returns the times of the area calculations: the average area, the area
+     * statistics of a municipality, and the area reports.
+     *
+     * @return the times of the area calculations
+     */
+    public LatencySnapshot getAggregation()
+    {
+        return this.aggregation;
+    }
+
+    /**
+     * Returns the number of properties that were not added because they
+     * were already in the register.
+     *
+     * @return the number of duplicates rejected
+     */
+    public long getDuplicatesRejected()
+    {
+        return this.duplicatesRejected;
+    }
+
+    /**
+     * Returns the number of properties in the register.
+     *
+     * @return the number of properties
+     */
+    public int getNumberOfProperties()
+    {
+        return this.numberOfProperties;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Properties:          " + this.numberOfProperties + "\n"
+                + "Duplicates rejected: " + this.duplicatesRejected + "\n"
+                + "Add:                 " + this.add + "\n"
+                + "Find:                " + this.find + "\n"
+                + "Lot search (lookup): " + this.lotSearch + "\n"
+                + "Area calculations:   " + this.aggregation;
+    }
+}
@@ -0,0 +1,85 @@
+package ntnu.idat2001;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps municipality numbers to one canonical instance of the municipality
+ * name. There are only a few hundred municipalities in Norway, while a
+ * register may hold millions of properties, so every property in a
+ * municipality should share the same name instance.
+ *
+ * The first name registered for a municipality number becomes the canonical
+ * name. A property created with a different name for the same number keeps
+ * its own name. The registry is thread-safe.
+ */
+public class MunicipalityRegistry
+{
+    private static final MunicipalityRegistry INSTANCE = new MunicipalityRegistry();
+
+    private final ConcurrentHashMap<Integer, String> namesByNumber;
+
+    /**
+     * Creates an empty registry.
+     */
+    public MunicipalityRegistry()
+    {
+        this.namesByNumber = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the registry used by Property and when importing properties.
+     *
+     * @return the shared municipality registry
+     */
+    public static MunicipalityRegistry getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the canonical name of the municipality, or <code>null</code>
+     * if no name has been registered for the municipality number.
+     *
+     * @param municipalityNumber the municipality number
+     * @return the canonical name, or <code>null</code>
+     */
+    public String getName(int municipalityNumber)
+    {
+        return this.namesByNumber.get(municipalityNumber);
+    }
+
+    /**
+     * Returns the canonical instance of the municipality name. If no name
+     * is registered for the municipality number, the given name is
+     * registered as the canonical name. If a different name is registered,
+     * the given name is returned unchanged.
+     *
+     * @param municipalityNumber the municipality number
+     * @param municipalityName the name of the municipality
+     * @return the canonical instance of the name if it matches the
+     *         registered name, otherwise <code>municipalityName</code>
+     */
+    public String canonicalName(int municipalityNumber, String municipalityName)
+    {
+        if (null == municipalityName)
+        {
+            return null;
+        }
+        String registeredName = this.namesByNumber.putIfAbsent(municipalityNumber, municipalityName);
+        if (null != registeredName && registeredName.equals(municipalityName))
+        {
+            return registeredName;
+        }
+        return municipalityName;
+    }
+
+    /**
+     * Returns the number of municipalities with a registered name.
+     *
+     * @return the number of municipalities
+     */
+    public int getNumberOfMunicipalities()
+    {
+        return this.namesByNumber.size();
+    }
+}
@@ -0,0 +1,186 @@
+package ntnu.idat2001;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A hash map from packed property keys (see {@link PropertyKey}) to row
+ * numbers, kept outside the Java heap. Works like PropertyRowIndex, with
+ * open addressing and linear probing, but the keys and the rows are stored
+ * in direct ByteBuffers, so the garbage collector never has to scan or
+ * copy them, however many properties the index holds.
+ *
+ * A direct buffer can hold at most 2 GB, which limits the index to
+ * MAX_CAPACITY slots, that is about 67 million properties.
+ */
+final class OffHeapKeyIndex
+{
+    /** Returned by get() when the key is not in the index. */
+    static final int NO_ROW = -1;
+
+    // Packed keys are never negative, so -1 marks a free slot.
+    private static final long FREE = -1L;
+    private static final int DEFAULT_CAPACITY = 1024;
+    // The most slots whose keys fit in one direct buffer
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private ByteBuffer keys;
+    private ByteBuffer rows;
+    private int capacity;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Creates an empty index.
+     */
+    OffHeapKeyIndex()
+    {
+        this.allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the row stored for the given key.
+     *
+     * @param key the packed key to look up
+     * @return the row, or NO_ROW if the key is not in the index
+     */
+    int get(long key)
+    {
+        int mask = this.capacity - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys.getLong(slot * Long.BYTES);
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return this.rows.getInt(slot * Integer.BYTES);
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys.getLong(slot * Long.BYTES);
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * Stores the row for the given key, unless the key is already in the index.
+     *
+     * @param key the packed key
+     * @param row the row holding the property
+     * @return <code>true</code> if the row was stored,
+     *         <code>false</code> if the key was already in the index.
+     * @throws IllegalStateException if the index is full
+     */
+    boolean putIfAbsent(long key, int row)
+    {
+        int mask = this.capacity - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys.getLong(slot * Long.BYTES);
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys.getLong(slot * Long.BYTES);
+        }
+        if (this.size == this.resizeThreshold && this.capacity == MAX_CAPACITY)
+        {
+            throw new IllegalStateException("The index can not hold more than "
+                    + this.resizeThreshold + " properties");
+        }
+        this.keys.putLong(slot * Long.BYTES, key);
+        this.rows.putInt(slot * Integer.BYTES, row);
+        this.size++;
+        if (this.size > this.resizeThreshold)
+        {
+            this.grow();
+        }
+        return true;
+    }
+
+    /**
+     * Stores the row for the given key, replacing the row stored before.
+     *
+     * @param key the packed key
+     * @param row the row to store
+     * @return the row stored before, or NO_ROW if the key was not in the
+     *         index
+     * @throws IllegalStateException if the index is full
+     */
+    int put(long key, int row)
+    {
+        int mask = this.capacity - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys.getLong(slot * Long.BYTES);
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                int previousRow = this.rows.getInt(slot * Integer.BYTES);
+                this.rows.putInt(slot * Integer.BYTES, row);
+                return previousRow;
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys.getLong(slot * Long.BYTES);
+        }
+        this.putIfAbsent(key, row);
+        return NO_ROW;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap.
+     *
+     * @return the number of bytes allocated
+     */
+    long getAllocatedBytes()
+    {
+        return (long) this.capacity * (Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Doubles the capacity of the index, and re-inserts all the keys. The
+     * old buffers are freed when they are garbage collected.
+     */
+    private void grow()
+    {
+        ByteBuffer oldKeys = this.keys;
+        ByteBuffer oldRows = this.rows;
+        int oldCapacity = this.capacity;
+        this.allocate(oldCapacity * 2);
+        int mask = this.capacity - 1;
+        for (int i = 0; i < oldCapacity; i++)
+        {
+            long key = oldKeys.getLong(i * Long.BYTES);
+            if (key != FREE)
+            {
+                int slot = slotOf(key, mask);
+                while (this.keys.getLong(slot * Long.BYTES) != FREE)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys.putLong(slot * Long.BYTES, key);
+                this.rows.putInt(slot * Integer.BYTES, oldRows.getInt(i * Integer.BYTES));
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        this.capacity = capacity;
+        this.keys = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+        this.rows = ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < capacity; slot++)
+        {
+            this.keys.putLong(slot * Long.BYTES, FREE);
+        }
+        // Keep the load factor at 0.5 or lower, so probe sequences stay short
+        this.resizeThreshold = capacity / 2;
+    }
+
+    private static int slotOf(long key, int mask)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
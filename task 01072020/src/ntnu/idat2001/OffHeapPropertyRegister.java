@@ -0,0 +1,457 @@
+package ntnu.idat2001;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * A register keeping the properties outside the Java heap, with the same
+ * methods as PropertyRegister, for registers so large that the garbage
+ * collector spends much of its time on the Property objects.
+ *
+ * Each property is stored as a fixed-width record of RECORD_BYTES bytes in
+ * direct ByteBuffers (slabs) of RECORDS_PER_SLAB records each. The record
+ * holds the municipality number, lot number, section number and area, and
+ * references to the municipality name, name and owner, which are stored in
+ * an OffHeapStringArena. The index from the key of a property to its record
+ * is an OffHeapKeyIndex, also outside the heap. Each municipality name is
+ * stored once, since the register keeps the reference per municipality.
+ * The owner is stored so that a transfer overwrites the previous owner
+ * when the new name fits in its place, so transfers do not make the arena
+ * grow without bound.
+ *
+ * The records with the same lot number are chained in the order they were
+ * added: each record holds the row of the next record with its lot number,
+ * and two more OffHeapKeyIndexes, keyed on the lot number, hold the first
+ * and the last row of each chain. A lot search follows the chain instead
+ * of scanning every record.
+ *
+ * What is left on the heap are the lists of slabs, and the names and area
+ * statistics per municipality, none of which grows with the number of
+ * properties in any way the garbage collector notices. The Property objects returned by
+ * the methods are views created on demand, holding a copy of the record,
+ * as for ColumnarPropertyRegister. The owners of the views are not stored
+ * in the owner name pool, which would add an entry for every name read.
+ * The properties are returned in the order they were added.
+ *
+ * The memory outside the heap is limited by the JVM option
+ * -XX:MaxDirectMemorySize, which is the same as the largest heap size
+ * (-Xmx) unless set. A register of ten million properties needs about
+ * 1.1 GB, and the memory is given back when the register is garbage
+ * collected.
+ *
+ * Like PropertyRegister, the register is not thread-safe.
+ */
+public class OffHeapPropertyRegister
+{
+    // The layout of a record
+    private static final int MUNICIPALITY_NUMBER = 0;
+    private static final int LOT_NUMBER = 4;
+    private static final int SECTION_NUMBER = 8;
+    private static final int NEXT_IN_LOT = 12;
+    private static final int AREA = 16;
+    private static final int MUNICIPALITY_NAME = 24;
+    private static final int NAME = 32;
+    private static final int OWNER = 40;
+    private static final int RECORD_BYTES = 48;
+    private static final int SLAB_SHIFT = 16;
+    private static final int RECORDS_PER_SLAB = 1 << SLAB_SHIFT;
+
+    private final ArrayList<ByteBuffer> slabs;
+    private final OffHeapKeyIndex rowsByKey;
+    // The first and the last row of each lot number's chain of records
+    private final OffHeapKeyIndex firstRowByLot;
+    private final OffHeapKeyIndex lastRowByLot;
+    private final OffHeapStringArena strings;
+    // The name of each municipality, and the reference to it in the arena.
+    // There are only a few hundred municipalities, so these stay small.
+    private final HashMap<Integer, String> municipalityNames;
+    private final HashMap<Integer, Long> municipalityNameReferences;
+    private final AreaStatistics areaStatistics;
+    private final HashMap<Integer, AreaStatistics> areaStatisticsByMunicipality;
+    private int size;
+
+    /**
+     * Creates a new instance of the OffHeapPropertyRegister.
+     */
+    public OffHeapPropertyRegister()
+    {
+        this.slabs = new ArrayList<>();
+        this.rowsByKey = new OffHeapKeyIndex();
+        this.firstRowByLot = new OffHeapKeyIndex();
+        this.lastRowByLot = new OffHeapKeyIndex();
+        this.strings = new OffHeapStringArena();
+        this.municipalityNames = new HashMap<>();
+        this.municipalityNameReferences = new HashMap<>();
+        this.areaStatistics = new AreaStatistics();
+        this.areaStatisticsByMunicipality = new HashMap<>();
+        this.size = 0;
+    }
+
+    /**
+     * Adds a property to the register. If the property is already in the register
+     * the property is not added, and <code>false</code> is returned.
+     * The register keeps a copy of the fields, not the Property object.
+     *
+     * @param property the property/real estate to add to the register.
+     * @return <code>true</code> if property was added successfully,
+     *         <code>false</code> otherwise.
+     */
+    public boolean addProperty(Property property)
+    {
+        boolean success = this.rowsByKey.putIfAbsent(property.getPropertyKey(), this.size);
+        if (success)
+        {
+            if (this.size == (long) this.slabs.size() * RECORDS_PER_SLAB)
+            {
+                this.slabs.add(ByteBuffer.allocateDirect(RECORDS_PER_SLAB * RECORD_BYTES)
+                        .order(ByteOrder.nativeOrder()));
+            }
+            int row = this.size;
+            ByteBuffer slab = this.slabOf(row);
+            int record = recordOf(row);
+            slab.putInt(record + MUNICIPALITY_NUMBER, property.getMunicipalityNumber());
+            slab.putInt(record + LOT_NUMBER, property.getLotNumber());
+            slab.putInt(record + SECTION_NUMBER, property.getSectionNumber());
+            slab.putInt(record + NEXT_IN_LOT, OffHeapKeyIndex.NO_ROW);
+            slab.putDouble(record + AREA, property.getArea());
+            slab.putLong(record + MUNICIPALITY_NAME, this.municipalityNameOf(property));
+            slab.putLong(record + NAME, this.strings.add(property.getName()));
+            slab.putLong(record + OWNER, this.strings.addReplaceable(property.getNameOfOwner()));
+            this.size++;
+
+            this.firstRowByLot.putIfAbsent(property.getLotNumber(), row);
+            int previousRow = this.lastRowByLot.put(property.getLotNumber(), row);
+            if (previousRow != OffHeapKeyIndex.NO_ROW)
+            {
+                this.slabOf(previousRow).putInt(recordOf(previousRow) + NEXT_IN_LOT, row);
+            }
+
+            this.areaStatistics.add(property.getArea());
+            this.areaStatisticsByMunicipality
+                    .computeIfAbsent(property.getMunicipalityNumber(), m -> new AreaStatistics())
+                    .add(property.getArea());
+        }
+        return success;
+    }
+
+    /**
+     * Searches the register for the property matching the municipality number,
+     * lot number and section number provided by the parameters.
+     * If no property found, <code>null</code> is returned.
+     *
+     * @param municipalityNumber the municipality number to be matched
+     * @param lotNumber the lot number to be matched
+     * @param sectionNumber the section number to be matched
+     * @return a view of the property found, or <code>null</code> if no
+     *         property was found
+     */
+    public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        Property foundProperty = null;
+        int row = this.findRow(municipalityNumber, lotNumber, sectionNumber);
+        if (row != OffHeapKeyIndex.NO_ROW)
+        {
+            foundProperty = this.viewOf(row);
+        }
+        return foundProperty;
+    }
+
+    /**
+     * Transfers the ownership of the property matching the municipality
+     * number, lot number and section number to a new owner. The new name
+     * overwrites the previous one in the string arena if it fits in its
+     * place, and is added to the arena otherwise.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param nameOfNewOwner the name of the new owner
+     * @return <code>true</code> if the property was found and the ownership
+     *         transferred, <code>false</code> if no property was found.
+     */
+    public boolean transferOwnership(int municipalityNumber, int lotNumber, int sectionNumber,
+                                     String nameOfNewOwner)
+    {
+        boolean success = false;
+        int row = this.findRow(municipalityNumber, lotNumber, sectionNumber);
+        if (row != OffHeapKeyIndex.NO_ROW)
+        {
+            // Let the view validate the name, as Property.setNameOfOwner()
+            // does, without keeping it in the owner name pool
+            Property view = this.viewOf(row);
+            view.setUnpooledNameOfOwner(nameOfNewOwner);
+            ByteBuffer slab = this.slabOf(row);
+            int record = recordOf(row);
+            long owner = slab.getLong(record + OWNER);
+            if (owner == OffHeapStringArena.NO_STRING
+                    || !this.strings.replace(owner, view.getNameOfOwner()))
+            {
+                slab.putLong(record + OWNER, this.strings.addReplaceable(view.getNameOfOwner()));
+            }
+            success = true;
+        }
+        return success;
+    }
+
+    /**
+     * Findes all the properties that has a lot number matching the lotnumber
+     * provided as parameter. The chain of records with the lot number is
+     * followed as the iterator is used, so only the matches are read.
+     *
+     * @param lotNumber the lotNumber to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
+    {
+        int firstRow = OffHeapKeyIndex.NO_ROW;
+        if (lotNumber >= 0)
+        {
+            firstRow = this.firstRowByLot.get(lotNumber);
+        }
+        return new LotIterator(firstRow);
+    }
+
+    /**
+     * Finds all the properties in the municipality given by the parameter.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        return new RowIterator(row -> this.intAt(row, MUNICIPALITY_NUMBER) == municipalityNumber);
+    }
+
+    /**
+     * Returns an iterator to be used to iterate over the propetries in the
+     * property register.
+     *
+     * @return an iterator of views of the properties in the register.
+     */
+    public Iterator<Property> getIterator()
+    {
+        return new RowIterator(row -> true);
+    }
+
+    /**
+     * Returns the average area of all the properties in the register.
+     * The average area is given in square meters.
+     * If the register does not contain any properties, 0 is returned.
+     *
+     * @return the average area in square meters
+     */
+    public double getAverageAreaOfProperties()
+    {
+        return this.areaStatistics.getAverage();
+    }
+
+    /**
+     * Returns the area statistics of all the properties in the given
+     * municipality. The statistics returned is a copy.
+     *
+     * @param municipalityNumber the municipality number
+     * @return the area statistics of the municipality
+     */
+    public AreaStatistics getAreaStatistics(int municipalityNumber)
+    {
+        AreaStatistics statistics = this.areaStatisticsByMunicipality.get(municipalityNumber);
+        if (null == statistics)
+        {
+            statistics = new AreaStatistics();
+        }
+        return new AreaStatistics(statistics);
+    }
+
+    /**
+     * Returns the number of properties in the register.
+     *
+     * @return the number of properties in the register.
+     */
+    public int getNumberOfProperties()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap, for the
+     * records, the strings and the index.
+     *
+     * @return the number of bytes allocated outside the heap
+     */
+    public long getOffHeapBytes()
+    {
+        return (long) this.slabs.size() * RECORDS_PER_SLAB * RECORD_BYTES
+                + this.strings.getAllocatedBytes() + this.rowsByKey.getAllocatedBytes()
+                + this.firstRowByLot.getAllocatedBytes() + this.lastRowByLot.getAllocatedBytes();
+    }
+
+    /**
+     * Returns the reference to the municipality name of the property,
+     * storing the name the first time the municipality is seen. A property
+     * with a different name than the first one for its municipality gets
+     * its own copy of the name, as in MunicipalityRegistry.
+     */
+    private long municipalityNameOf(Property property)
+    {
+        int municipalityNumber = property.getMunicipalityNumber();
+        String municipalityName = property.getMunicipalityName();
+        Long reference = this.municipalityNameReferences.get(municipalityNumber);
+        if (null == reference)
+        {
+            reference = this.strings.add(municipalityName);
+            this.municipalityNames.put(municipalityNumber, municipalityName);
+            this.municipalityNameReferences.put(municipalityNumber, reference);
+        }
+        else if (!Objects.equals(this.municipalityNames.get(municipalityNumber), municipalityName))
+        {
+            reference = this.strings.add(municipalityName);
+        }
+        return reference;
+    }
+
+    /**
+     * Returns the row holding the property, or NO_ROW if there is none.
+     */
+    private int findRow(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        int row = OffHeapKeyIndex.NO_ROW;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            row = this.rowsByKey.get(PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+        return row;
+    }
+
+    /**
+     * Creates a Property holding a copy of the given record. The shared
+     * municipality name is not decoded, only a name that differs from it.
+     */
+    private Property viewOf(int row)
+    {
+        ByteBuffer slab = this.slabOf(row);
+        int record = recordOf(row);
+        int municipalityNumber = slab.getInt(record + MUNICIPALITY_NUMBER);
+        long municipalityNameReference = slab.getLong(record + MUNICIPALITY_NAME);
+        String municipalityName;
+        if (this.municipalityNameReferences.get(municipalityNumber) == municipalityNameReference)
+        {
+            municipalityName = this.municipalityNames.get(municipalityNumber);
+        }
+        else
+        {
+            municipalityName = this.strings.get(municipalityNameReference);
+        }
+        Property property = new Property(municipalityNumber, municipalityName,
+                slab.getInt(record + LOT_NUMBER), slab.getInt(record + SECTION_NUMBER),
+                this.strings.get(slab.getLong(record + NAME)), slab.getDouble(record + AREA));
+        String owner = this.strings.get(slab.getLong(record + OWNER));
+        if (null != owner)
+        {
+            property.setUnpooledNameOfOwner(owner);
+        }
+        return property;
+    }
+
+    private int intAt(int row, int field)
+    {
+        return this.slabOf(row).getInt(recordOf(row) + field);
+    }
+
+    private ByteBuffer slabOf(int row)
+    {
+        return this.slabs.get(row >>> SLAB_SHIFT);
+    }
+
+    private static int recordOf(int row)
+    {
+        return (row & (RECORDS_PER_SLAB - 1)) * RECORD_BYTES;
+    }
+
+    /**
+     * Iterates over the rows matching a condition, creating a view of each
+     * row as it is returned. Only the rows in the register when the iterator
+     * was created are included.
+     */
+    private final class RowIterator implements Iterator<Property>
+    {
+        private final IntPredicate condition;
+        private final int end;
+        private int nextRow;
+
+        RowIterator(IntPredicate condition)
+        {
+            this.condition = condition;
+            this.end = size;
+            this.nextRow = this.findMatch(0);
+        }
+
+        private int findMatch(int from)
+        {
+            int row = from;
+            while (row < this.end && !this.condition.test(row))
+            {
+                row++;
+            }
+            return row;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.nextRow < this.end;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = viewOf(this.nextRow);
+            this.nextRow = this.findMatch(this.nextRow + 1);
+            return property;
+        }
+    }
+
+    /**
+     * Follows the chain of records with one lot number, creating a view of
+     * each row as it is returned. Only the rows in the register when the
+     * iterator was created are included.
+     */
+    private final class LotIterator implements Iterator<Property>
+    {
+        private final int end;
+        private int nextRow;
+
+        LotIterator(int firstRow)
+        {
+            this.end = size;
+            this.nextRow = firstRow;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.nextRow != OffHeapKeyIndex.NO_ROW && this.nextRow < this.end;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = viewOf(this.nextRow);
+            this.nextRow = intAt(this.nextRow, NEXT_IN_LOT);
+            return property;
+        }
+    }
+}
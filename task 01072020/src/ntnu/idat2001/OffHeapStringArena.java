@@ -0,0 +1,171 @@
+package ntnu.idat2001;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Stores strings outside the Java heap, in direct ByteBuffers (slabs) of
+ * SLAB_BYTES bytes each. A string is appended as its length followed by its
+ * UTF-8 bytes, and is referred to by a long: the slab in the upper 32 bits
+ * and the position in the slab in the lower 32 bits. The string is decoded
+ * into a new String each time it is read.
+ *
+ * Strings are never removed. A string that will be replaced later (such
+ * as the owner of a property) can be added with addReplaceable(), which
+ * stores the space reserved for it in front of the length. replace() then
+ * overwrites the string in place when the new one fits, so changing it
+ * over and over does not make the arena grow.
+ */
+final class OffHeapStringArena
+{
+    /** The reference used for <code>null</code>. */
+    static final long NO_STRING = -1L;
+
+    private static final int SLAB_BYTES = 1 << 24;
+
+    private final ArrayList<ByteBuffer> slabs;
+    private ByteBuffer currentSlab;
+    // Reused when decoding, since a String can not be created directly
+    // from a ByteBuffer
+    private byte[] scratch;
+    private long bytesUsed;
+
+    /**
+     * Creates an empty arena.
+     */
+    OffHeapStringArena()
+    {
+        this.slabs = new ArrayList<>();
+        this.currentSlab = null;
+        this.scratch = new byte[128];
+        this.bytesUsed = 0;
+    }
+
+    /**
+     * Appends a string to the arena.
+     *
+     * @param string the string, may be <code>null</code>
+     * @return the reference to the string
+     * @throws IllegalArgumentException if the string does not fit in a slab
+     */
+    long add(String string)
+    {
+        return this.append(string, false);
+    }
+
+    /**
+     * Appends a string to the arena that can later be overwritten by
+     * replace().
+     *
+     * @param string the string, may be <code>null</code>
+     * @return the reference to the string
+     * @throws IllegalArgumentException if the string does not fit in a slab
+     */
+    long addReplaceable(String string)
+    {
+        return this.append(string, true);
+    }
+
+    /**
+     * Overwrites a string added with addReplaceable(), if the new string
+     * fits in the space reserved for it. The reference stays the same.
+     *
+     * @param reference the reference returned by addReplaceable(), not
+     *        NO_STRING
+     * @param string the new string
+     * @return <code>true</code> if the string was overwritten,
+     *         <code>false</code> if it does not fit and must be added anew
+     */
+    boolean replace(long reference, String string)
+    {
+        ByteBuffer slab = this.slabs.get((int) (reference >>> 32));
+        int position = (int) reference;
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        boolean replaced = bytes.length <= slab.getInt(position - Integer.BYTES);
+        if (replaced)
+        {
+            slab.putInt(position, bytes.length);
+            slab.put(position + Integer.BYTES, bytes);
+        }
+        return replaced;
+    }
+
+    /**
+     * Reads a string from the arena.
+     *
+     * @param reference the reference returned by add()
+     * @return the string, or <code>null</code> if the reference is NO_STRING
+     */
+    String get(long reference)
+    {
+        if (reference == NO_STRING)
+        {
+            return null;
+        }
+        ByteBuffer slab = this.slabs.get((int) (reference >>> 32));
+        int position = (int) reference;
+        int length = slab.getInt(position);
+        if (length > this.scratch.length)
+        {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+        slab.get(position + Integer.BYTES, this.scratch, 0, length);
+        return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a string as its length followed by its bytes, after the
+     * number of bytes reserved for it if it is replaceable.
+     */
+    private long append(String string, boolean replaceable)
+    {
+        if (null == string)
+        {
+            return NO_STRING;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        int header = replaceable ? 2 * Integer.BYTES : Integer.BYTES;
+        int length = header + bytes.length;
+        if (length > SLAB_BYTES)
+        {
+            throw new IllegalArgumentException("The string is too long to store: "
+                    + bytes.length + " bytes");
+        }
+        if (null == this.currentSlab || this.currentSlab.remaining() < length)
+        {
+            this.currentSlab = ByteBuffer.allocateDirect(SLAB_BYTES).order(ByteOrder.nativeOrder());
+            this.slabs.add(this.currentSlab);
+        }
+        if (replaceable)
+        {
+            this.currentSlab.putInt(bytes.length);
+        }
+        long reference = ((long) (this.slabs.size() - 1) << 32) | this.currentSlab.position();
+        this.currentSlab.putInt(bytes.length);
+        this.currentSlab.put(bytes);
+        this.bytesUsed += length;
+        return reference;
+    }
+
+    /**
+     * Returns the number of bytes taken by the strings stored so far.
+     *
+     * @return the number of bytes used
+     */
+    long getBytesUsed()
+    {
+        return this.bytesUsed;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap.
+     *
+     * @return the number of bytes allocated
+     */
+    long getAllocatedBytes()
+    {
+        return (long) this.slabs.size() * SLAB_BYTES;
+    }
+}
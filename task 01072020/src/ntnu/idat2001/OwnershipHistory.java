@@ -0,0 +1,484 @@
+package ntnu.idat2001;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Keeps the history of the owners of the properties in a PropertyRegister,
+ * so that one can ask who owned a property at a given time, or look at the
+ * owners of the whole register as they were at a given time (see asOf()).
+ *
+ * The history listens to the register, and records the owner of each
+ * property when it is added, and again on every transfer of ownership,
+ * stamped with the time from the clock. History from before that, such
+ * as an archive of old transfers, can be loaded with record() into a
+ * history made with create(), before it starts following the register.
+ *
+ * Each property has its own log of entries. An entry is the time since the
+ * previous entry in milliseconds, followed by the ID of the owner (owner
+ * names are stored once, in a dictionary), both written in a variable
+ * number of bytes (7 bits per byte), so a typical entry takes 3 to 5
+ * bytes. The first entry of a log holds its time itself instead, with the
+ * sign in the lowest bit, so times before 1970 can be recorded too.
+ *
+ * To find the owner at a given time without decoding a long log from the
+ * start, the log is split into blocks of BLOCK_SIZE entries, and the time
+ * and position of the first entry of each block are kept on the side. A
+ * lookup binary searches these for the right block, and only decodes that
+ * block. Logs shorter than one block, which is nearly all of them, have no
+ * block index at all.
+ *
+ * Like PropertyRegister, the history is not thread-safe.
+ */
+public class OwnershipHistory implements PropertyRegisterListener
+{
+    // The number of entries in a block of a log
+    private static final int BLOCK_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Returned by ownerIdAt() for a property not in the register at the time
+    static final int NOT_REGISTERED = -2;
+
+    private final Clock clock;
+    private final PropertyRegister register;
+    private final StringDictionary owners;
+    private final PropertyRowIndex logsByKey;
+    // One log per property, by the index of the log
+    private Property[] properties;
+    private byte[][] entries;
+    private int[] lengths;
+    private int[] counts;
+    private long[] lastTimes;
+    // The time and position of the first entry of each block after the
+    // first, or null if the log is shorter than two blocks
+    private long[][] blockTimes;
+    private int[][] blockPositions;
+    private int size;
+
+    /**
+     * Creates an empty history. Use attach() or create() to create a history.
+     */
+    private OwnershipHistory(PropertyRegister register, Clock clock)
+    {
+        this.clock = clock;
+        this.register = register;
+        this.owners = new StringDictionary();
+        this.logsByKey = new PropertyRowIndex();
+        this.properties = new Property[INITIAL_CAPACITY];
+        this.entries = new byte[INITIAL_CAPACITY][];
+        this.lengths = new int[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.lastTimes = new long[INITIAL_CAPACITY];
+        this.blockTimes = new long[INITIAL_CAPACITY][];
+        this.blockPositions = new int[INITIAL_CAPACITY][];
+        this.size = 0;
+    }
+
+    /**
+     * Starts recording the history of the owners of the properties in the
+     * register, using the system clock. The current owners of the
+     * properties already in the register are recorded as of now.
+     *
+     * @param register the register to follow
+     * @return the history
+     */
+    public static OwnershipHistory attach(PropertyRegister register)
+    {
+        return attach(register, Clock.systemUTC());
+    }
+
+    /**
+     * Starts recording the history of the owners of the properties in the
+     * register. The current owners of the properties already in the
+     * register are recorded as of the current time of the clock.
+     *
+     * @param register the register to follow
+     * @param clock the clock giving the time of each change
+     * @return the history
+     */
+    public static OwnershipHistory attach(PropertyRegister register, Clock clock)
+    {
+        OwnershipHistory history = create(register, clock);
+        history.follow();
+        return history;
+    }
+
+    /**
+     * Creates an empty history of the register, using the system clock,
+     * that does not follow the register yet. Load the earlier history with
+     * record(), and then call follow().
+     *
+     * @param register the register to follow
+     * @return the history
+     */
+    public static OwnershipHistory create(PropertyRegister register)
+    {
+        return create(register, Clock.systemUTC());
+    }
+
+    /**
+     * Creates an empty history of the register that does not follow the
+     * register yet. Load the earlier history with record(), and then call
+     * follow().
+     *
+     * @param register the register to follow
+     * @param clock the clock giving the time of each change
+     * @return the history
+     */
+    public static OwnershipHistory create(PropertyRegister register, Clock clock)
+    {
+        return new OwnershipHistory(register, clock);
+    }
+
+    /**
+     * Starts, or after detach() resumes, recording the changes to the
+     * register. Each property in the register whose current owner is not
+     * the last owner recorded for it gets an entry with its current owner
+     * as of the current time of the clock.
+     */
+    public void follow()
+    {
+        long now = this.clock.millis();
+        Iterator<Property> it = this.register.getIterator();
+        while (it.hasNext())
+        {
+            Property property = it.next();
+            int log = this.logsByKey.get(property.getPropertyKey());
+            if (log == PropertyRowIndex.NO_ROW
+                    || this.ownerIdAt(log, Long.MAX_VALUE) != this.owners.idOf(property.getNameOfOwner()))
+            {
+                this.record(property, property.getNameOfOwner(), now);
+            }
+        }
+        this.register.addListener(this);
+    }
+
+    /**
+     * Stops recording changes to the register. The history recorded so far
+     * can still be used.
+     */
+    public void detach()
+    {
+        this.register.removeListener(this);
+    }
+
+    @Override
+    public void propertyAdded(Property property)
+    {
+        this.record(property, property.getNameOfOwner(), this.clock.millis());
+    }
+
+    @Override
+    public void ownerChanged(Property property, String previousOwner)
+    {
+        this.record(property, property.getNameOfOwner(), this.clock.millis());
+    }
+
+    /**
+     * Records the owner of the property from the given time. Used to load
+     * history from before the history follows the register, such as from
+     * an archive of old transfers (see create()). The entries of a property
+     * must be recorded in time order.
+     *
+     * @param property the property
+     * @param nameOfOwner the name of the owner from the given time, or
+     *        <code>null</code> if the property had no owner
+     * @param time the time the owner took over the property
+     * @throws IllegalArgumentException if the time is before the last time
+     *         recorded for the property
+     */
+    public void record(Property property, String nameOfOwner, Instant time)
+    {
+        long millis = time.toEpochMilli();
+        int log = this.logsByKey.get(property.getPropertyKey());
+        if (log != PropertyRowIndex.NO_ROW && millis < this.lastTimes[log])
+        {
+            throw new IllegalArgumentException("The history of " + property.getPropertyIDAsString()
+                    + " already has an entry after " + time);
+        }
+        this.record(property, nameOfOwner, millis);
+    }
+
+    /**
+     * Returns the name of the owner of the property at the given time.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param time the time
+     * @return the name of the owner, or <code>null</code> if the property
+     *         had no owner or was not in the register at the time
+     */
+    public String getOwner(int municipalityNumber, int lotNumber, int sectionNumber, Instant time)
+    {
+        String owner = null;
+        int log = this.logOf(municipalityNumber, lotNumber, sectionNumber);
+        if (log != PropertyRowIndex.NO_ROW)
+        {
+            int ownerId = this.ownerIdAt(log, time.toEpochMilli());
+            owner = ownerId == NOT_REGISTERED ? null : this.owners.stringOf(ownerId);
+        }
+        return owner;
+    }
+
+    /**
+     * Returns the number of entries recorded for the property, that is one
+     * for when it was added plus one per transfer.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @return the number of entries, or 0 if the property is not known
+     */
+    public int getNumberOfEntries(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        int log = this.logOf(municipalityNumber, lotNumber, sectionNumber);
+        return log == PropertyRowIndex.NO_ROW ? 0 : this.counts[log];
+    }
+
+    /**
+     * Returns a view of the owners of all the properties as they were at the
+     * given time. Nothing is copied; the owners are looked up in the logs
+     * as the view is used. Properties added to the register later, and
+     * entries recorded later with a time after the given time, are not seen
+     * by the view.
+     *
+     * @param time the time
+     * @return a view of the register at the time
+     */
+    public OwnershipSnapshot asOf(Instant time)
+    {
+        return new OwnershipSnapshot(this, time, this.size);
+    }
+
+    /**
+     * Returns the number of bytes used by the entries of all the logs, not
+     * counting the arrays holding them.
+     *
+     * @return the number of bytes used by the entries
+     */
+    public long getEntryBytes()
+    {
+        long bytes = 0;
+        for (int log = 0; log < this.size; log++)
+        {
+            bytes += this.lengths[log];
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the log of the property, or NO_ROW if there is none.
+     */
+    int logOf(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        int log = PropertyRowIndex.NO_ROW;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            log = this.logsByKey.get(PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+        return log;
+    }
+
+    /**
+     * Returns the property of a log.
+     */
+    Property propertyOf(int log)
+    {
+        return this.properties[log];
+    }
+
+    /**
+     * Returns the name of an owner ID returned by ownerIdAt().
+     */
+    String ownerName(int ownerId)
+    {
+        return this.owners.stringOf(ownerId);
+    }
+
+    /**
+     * Returns the ID of the owner at the given time, NO_STRING if the
+     * property had no owner, or NOT_REGISTERED if the first entry of the
+     * log is after the time.
+     */
+    int ownerIdAt(int log, long millis)
+    {
+        byte[] bytes = this.entries[log];
+        int position = 0;
+        int entry = 0;
+        long time = 0;
+        boolean fromBlockStart = false;
+        long[] times = this.blockTimes[log];
+        if (null != times)
+        {
+            // Find the last block starting at or before the time
+            int block = Arrays.binarySearch(times, 0, (this.counts[log] - 1) / BLOCK_SIZE, millis);
+            if (block < 0)
+            {
+                block = -block - 2;
+            }
+            else
+            {
+                // Several blocks may start at the same time; take the last
+                while (block + 1 < (this.counts[log] - 1) / BLOCK_SIZE && times[block + 1] == millis)
+                {
+                    block++;
+                }
+            }
+            if (block >= 0)
+            {
+                position = this.blockPositions[log][block];
+                entry = (block + 1) * BLOCK_SIZE;
+                time = times[block];
+                fromBlockStart = true;
+            }
+        }
+
+        int ownerId = NOT_REGISTERED;
+        int end = Math.min(this.counts[log], entry + BLOCK_SIZE);
+        while (entry < end)
+        {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = bytes[position];
+                position++;
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            // The time of the first entry of a block is already known, and
+            // the first entry of the log holds its time itself
+            if (entry == 0)
+            {
+                time = (delta >>> 1) ^ -(delta & 1);
+            }
+            else if (!fromBlockStart)
+            {
+                time += delta;
+            }
+            fromBlockStart = false;
+            if (time > millis)
+            {
+                break;
+            }
+            int id = 0;
+            shift = 0;
+            do
+            {
+                b = bytes[position];
+                position++;
+                id |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            // Stored plus one, so NO_STRING (-1) becomes 0
+            ownerId = id - 1;
+            entry++;
+        }
+        return ownerId;
+    }
+
+    /**
+     * Appends an entry with the owner to the log of the property, creating
+     * the log if the property is new. If the clock has gone backwards since
+     * the last entry, the entry gets the time of the last entry, so the log
+     * stays in time order.
+     */
+    private void record(Property property, String nameOfOwner, long millis)
+    {
+        int log = this.logsByKey.get(property.getPropertyKey());
+        if (log == PropertyRowIndex.NO_ROW)
+        {
+            if (this.size == this.properties.length)
+            {
+                this.grow();
+            }
+            log = this.size;
+            this.size++;
+            this.logsByKey.putIfAbsent(property.getPropertyKey(), log);
+            this.properties[log] = property;
+            this.entries[log] = new byte[8];
+            this.lastTimes[log] = Long.MIN_VALUE;
+        }
+        long time = Math.max(millis, this.lastTimes[log]);
+        int count = this.counts[log];
+        if (count > 0 && count % BLOCK_SIZE == 0)
+        {
+            this.startBlock(log, count / BLOCK_SIZE - 1, time);
+        }
+
+        byte[] bytes = this.entries[log];
+        // A time delta takes at most 10 bytes, and an owner ID at most 5
+        if (this.lengths[log] + 15 > bytes.length)
+        {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, this.lengths[log] + 15));
+            this.entries[log] = bytes;
+        }
+        int position = this.lengths[log];
+        long delta = time - this.lastTimes[log];
+        if (count == 0)
+        {
+            // Zigzag encoded, so a time before 1970 stays short
+            delta = (time << 1) ^ (time >> 63);
+        }
+        while (delta >= 0x80)
+        {
+            bytes[position] = (byte) (delta | 0x80);
+            position++;
+            delta >>>= 7;
+        }
+        bytes[position] = (byte) delta;
+        position++;
+        int id = this.owners.idOf(nameOfOwner) + 1;
+        while (id >= 0x80)
+        {
+            bytes[position] = (byte) (id | 0x80);
+            position++;
+            id >>>= 7;
+        }
+        bytes[position] = (byte) id;
+        position++;
+        this.lengths[log] = position;
+        this.lastTimes[log] = time;
+        this.counts[log] = count + 1;
+    }
+
+    /**
+     * Adds a block to the block index of the log, starting at the end of
+     * the log at the given time.
+     */
+    private void startBlock(int log, int block, long time)
+    {
+        if (null == this.blockTimes[log])
+        {
+            this.blockTimes[log] = new long[4];
+            this.blockPositions[log] = new int[4];
+        }
+        else if (block == this.blockTimes[log].length)
+        {
+            this.blockTimes[log] = Arrays.copyOf(this.blockTimes[log], block * 2);
+            this.blockPositions[log] = Arrays.copyOf(this.blockPositions[log], block * 2);
+        }
+        this.blockTimes[log][block] = time;
+        this.blockPositions[log][block] = this.lengths[log];
+    }
+
+    /**
+     * Doubles the number of logs there is room for.
+     */
+    private void grow()
+    {
+        int capacity = this.properties.length * 2;
+        this.properties = Arrays.copyOf(this.properties, capacity);
+        this.entries = Arrays.copyOf(this.entries, capacity);
+        this.lengths = Arrays.copyOf(this.lengths, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        this.lastTimes = Arrays.copyOf(this.lastTimes, capacity);
+        this.blockTimes = Arrays.copyOf(this.blockTimes, capacity);
+        this.blockPositions = Arrays.copyOf(this.blockPositions, capacity);
+    }
+}
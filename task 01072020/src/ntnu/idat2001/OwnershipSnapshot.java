@@ -0,0 +1,176 @@
+package ntnu.idat2001;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The owners of the properties in a register as they were at a given time,
+ * taken by OwnershipHistory.asOf().
+ *
+ * The snapshot does not copy anything; each owner is looked up in the
+ * ownership history when asked for. The properties returned by the
+ * iterators are copies of the properties in the register holding the owner
+ * at the time of the snapshot, created as they are returned.
+ */
+public final class OwnershipSnapshot
+{
+    private final OwnershipHistory history;
+    private final Instant time;
+    private final long millis;
+    // The number of logs when the snapshot was taken; later logs are for
+    // properties added after the snapshot
+    private final int size;
+
+    /**
+     * Creates a snapshot. Use OwnershipHistory.asOf() to take a snapshot.
+     */
+    OwnershipSnapshot(OwnershipHistory history, Instant time, int size)
+    {
+        this.history = history;
+        this.time = time;
+        this.millis = time.toEpochMilli();
+        this.size = size;
+    }
+
+    /**
+     * Returns the time of the snapshot.
+     *
+     * @return the time of the snapshot
+     */
+    public Instant getTime()
+    {
+        return this.time;
+    }
+
+    /**
+     * Returns the name of the owner of the property at the time of the
+     * snapshot.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @return the name of the owner, or <code>null</code> if the property
+     *         had no owner or was not in the register at the time
+     */
+    public String getOwner(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        String owner = null;
+        int log = this.history.logOf(municipalityNumber, lotNumber, sectionNumber);
+        if (log != PropertyRowIndex.NO_ROW && log < this.size)
+        {
+            int ownerId = this.history.ownerIdAt(log, this.millis);
+            if (ownerId != OwnershipHistory.NOT_REGISTERED)
+            {
+                owner = this.history.ownerName(ownerId);
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Returns an iterator over the properties in the register at the time
+     * of the snapshot, holding the owners they had then.
+     *
+     * @return an iterator of copies of the properties
+     */
+    public Iterator<Property> getIterator()
+    {
+        return new SnapshotIterator(null);
+    }
+
+    /**
+     * Finds all the properties owned by the owner with exactly the given
+     * name at the time of the snapshot.
+     *
+     * @param nameOfOwner the name of the owner
+     * @return an iterator of copies of the properties, holding the owner
+     */
+    public Iterator<Property> findByOwner(String nameOfOwner)
+    {
+        return new SnapshotIterator(nameOfOwner);
+    }
+
+    /**
+     * Returns the number of properties in the register at the time of the
+     * snapshot. The logs of all the properties are read to count them.
+     *
+     * @return the number of properties
+     */
+    public int getNumberOfProperties()
+    {
+        int count = 0;
+        for (int log = 0; log < this.size; log++)
+        {
+            if (this.history.ownerIdAt(log, this.millis) != OwnershipHistory.NOT_REGISTERED)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Iterates over the logs, and creates a copy of each property in the
+     * register at the time of the snapshot, optionally only those owned by
+     * the given owner.
+     */
+    private final class SnapshotIterator implements Iterator<Property>
+    {
+        private final String nameOfOwner;
+        private int nextLog;
+        private Property next;
+
+        SnapshotIterator(String nameOfOwner)
+        {
+            this.nameOfOwner = nameOfOwner;
+            this.nextLog = 0;
+            this.next = this.findNext();
+        }
+
+        private Property findNext()
+        {
+            Property found = null;
+            while (null == found && this.nextLog < size)
+            {
+                int ownerId = history.ownerIdAt(this.nextLog, millis);
+                String owner = ownerId == OwnershipHistory.NOT_REGISTERED
+                        ? null : history.ownerName(ownerId);
+                if (ownerId != OwnershipHistory.NOT_REGISTERED
+                        && (null == this.nameOfOwner || this.nameOfOwner.equals(owner)))
+                {
+                    Property property = history.propertyOf(this.nextLog);
+                    found = new Property(property.getMunicipalityNumber(),
+                            property.getMunicipalityName(), property.getLotNumber(),
+                            property.getSectionNumber(), property.getName(), property.getArea());
+                    if (null != owner)
+                    {
+                        // The owner is already shared through the
+                        // dictionary of the history
+                        found.setUnpooledNameOfOwner(owner);
+                    }
+                }
+                this.nextLog++;
+            }
+            return found;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return null != this.next;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = this.next;
+            this.next = this.findNext();
+            return property;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package ntnu.idat2001;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map from packed property keys (see PropertyKey) to
+ * properties, implemented as a hash array mapped trie (HAMT).
+ *
+ * "Changing" the map creates a new map that shares all the unchanged parts
+ * of the trie with the old one, so only the nodes on the path to the
+ * changed entry are copied (a handful of small arrays, since each node has
+ * up to 32 children). An old map is never changed, so it can be read by
+ * any number of threads without locking while a new version is built.
+ *
+ * Changes are made through an Editor. The nodes an editor creates are
+ * owned by it and are changed in place until persist() is called, so adding
+ * many properties at once does not copy the same path over and over.
+ */
+final class PersistentPropertyMap
+{
+    /** The empty map. */
+    static final PersistentPropertyMap EMPTY =
+            new PersistentPropertyMap(new Node(null, 0, new Object[0]), 0);
+
+    // Each level of the trie uses 5 bits of the hash, 32 children per node
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    // 64 bits of hash are used up after 13 levels
+    private static final int MAX_DEPTH = 13;
+
+    private final Node root;
+    private final int size;
+
+    private PersistentPropertyMap(Node root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the property stored for the given key, or <code>null</code>
+     * if there is none.
+     *
+     * @param key the packed key to look up
+     * @return the property, or <code>null</code> if not found
+     */
+    Property get(long key)
+    {
+        return get(this.root, key);
+    }
+
+    /**
+     * Returns the property stored for the key in the trie below the root.
+     */
+    private static Property get(Node root, long key)
+    {
+        long hash = hashOf(key);
+        Node node = root;
+        int shift = 0;
+        Property found = null;
+        while (null != node)
+        {
+            int bit = bitOf(hash, shift);
+            Object entry = null;
+            if ((node.bitmap & bit) != 0)
+            {
+                entry = node.entries[indexOf(node.bitmap, bit)];
+            }
+            node = null;
+            if (entry instanceof Node)
+            {
+                node = (Node) entry;
+                shift += BITS_PER_LEVEL;
+            }
+            else if (null != entry && ((Property) entry).getPropertyKey() == key)
+            {
+                found = (Property) entry;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of properties in the map.
+     *
+     * @return the number of properties in the map
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns an iterator over the properties in the map, in no particular
+     * order. Since the map never changes, the iterator never fails.
+     *
+     * @return an iterator over the properties in the map
+     */
+    Iterator<Property> iterator()
+    {
+        return new TrieIterator(this.root);
+    }
+
+    /**
+     * Returns an editor for making a new version of this map.
+     *
+     * @return an editor starting from this map
+     */
+    Editor edit()
+    {
+        return new Editor(this);
+    }
+
+    /**
+     * Spreads the key over all 64 bits. The mixing function (the finalizer
+     * of MurmurHash3) is a bijection, so two different keys never get the
+     * same hash, and the trie needs no collision handling.
+     */
+    private static long hashOf(long key)
+    {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns the bit for the hash in the bitmap of a node at the given
+     * shift (level times 5).
+     */
+    private static int bitOf(long hash, int shift)
+    {
+        return 1 << ((int) (hash >>> shift) & LEVEL_MASK);
+    }
+
+    /**
+     * Returns the index in the entries of a node of the entry for the bit.
+     * Only the children that exist are stored, in the order of their bits.
+     */
+    private static int indexOf(int bitmap, int bit)
+    {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * A node of the trie. Each entry is either a Property or a child Node.
+     * The node may only be changed by the editor that owns it.
+     */
+    private static final class Node
+    {
+        private final Object owner;
+        private int bitmap;
+        private Object[] entries;
+
+        Node(Object owner, int bitmap, Object[] entries)
+        {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Builds a new version of a map. An editor is used by one thread only,
+     * and must not be used after persist() has been called.
+     */
+    static final class Editor
+    {
+        // Identifies the nodes created by this editor
+        private final Object owner;
+        private Node root;
+        private int size;
+        private Property previous;
+
+        private Editor(PersistentPropertyMap map)
+        {
+            this.owner = new Object();
+            this.root = map.root;
+            this.size = map.size;
+        }
+
+        /**
+         * Stores the property under its key, unless the key is already in
+         * the map.
+         *
+         * @param property the property to store
+         * @return <code>true</code> if the property was stored,
+         *         <code>false</code> if the key was already in the map
+         */
+        boolean putIfAbsent(Property property)
+        {
+            return null == this.put(property, false);
+        }
+
+        /**
+         * Stores the property under its key, replacing any property already
+         * stored for the key.
+         *
+         * @param property the property to store
+         * @return the property that was replaced, or <code>null</code>
+         */
+        Property replace(Property property)
+        {
+            return this.put(property, true);
+        }
+
+        /**
+         * Returns the property stored for the given key in the version
+         * being built, or <code>null</code> if there is none.
+         *
+         * @param key the packed key to look up
+         * @return the property, or <code>null</code> if not found
+         */
+        Property get(long key)
+        {
+            return PersistentPropertyMap.get(this.root, key);
+        }
+
+        /**
+         * Returns the new version of the map.
+         *
+         * @return the new map
+         */
+        PersistentPropertyMap persist()
+        {
+            return new PersistentPropertyMap(this.root, this.size);
+        }
+
+        private Property put(Property property, boolean replace)
+        {
+            this.previous = null;
+            this.root = this.put(this.root, 0, hashOf(property.getPropertyKey()), property, replace);
+            return this.previous;
+        }
+
+        /**
+         * Stores the property in the subtrie below the node, and returns the
+         * node to use in its place: the node itself if nothing changed or it
+         * could be changed in place, otherwise a changed copy.
+         */
+        private Node put(Node node, int shift, long hash, Property property, boolean replace)
+        {
+            int bit = bitOf(hash, shift);
+            int index = indexOf(node.bitmap, bit);
+            Node result = node;
+            if ((node.bitmap & bit) == 0)
+            {
+                Object[] entries = new Object[node.entries.length + 1];
+                System.arraycopy(node.entries, 0, entries, 0, index);
+                entries[index] = property;
+                System.arraycopy(node.entries, index, entries, index + 1, node.entries.length - index);
+                result = this.editable(node);
+                result.entries = entries;
+                result.bitmap |= bit;
+                this.size++;
+            }
+            else if (node.entries[index] instanceof Node)
+            {
+                Node child = (Node) node.entries[index];
+                Node newChild = this.put(child, shift + BITS_PER_LEVEL, hash, property, replace);
+                if (newChild != child)
+                {
+                    result = this.editable(node);
+                    result.entries[index] = newChild;
+                }
+            }
+            else
+            {
+                Property existing = (Property) node.entries[index];
+                if (existing.getPropertyKey() == property.getPropertyKey())
+                {
+                    this.previous = existing;
+                    if (replace && existing != property)
+                    {
+                        result = this.editable(node);
+                        result.entries[index] = property;
+                    }
+                }
+                else
+                {
+                    result = this.editable(node);
+                    result.entries[index] = this.pairOf(shift + BITS_PER_LEVEL,
+                            existing, hashOf(existing.getPropertyKey()), property, hash);
+                    this.size++;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Creates the subtrie holding two properties whose hashes are equal
+         * up to the given shift.
+         */
+        private Node pairOf(int shift, Property first, long firstHash,
+                            Property second, long secondHash)
+        {
+            int firstBit = bitOf(firstHash, shift);
+            int secondBit = bitOf(secondHash, shift);
+            Node pair;
+            if (firstBit == secondBit)
+            {
+                pair = new Node(this.owner, firstBit, new Object[] {
+                    this.pairOf(shift + BITS_PER_LEVEL, first, firstHash, second, secondHash)
+                });
+            }
+            else if (Integer.compareUnsigned(firstBit, secondBit) < 0)
+            {
+                pair = new Node(this.owner, firstBit | secondBit, new Object[] {first, second});
+            }
+            else
+            {
+                pair = new Node(this.owner, firstBit | secondBit, new Object[] {second, first});
+            }
+            return pair;
+        }
+
+        /**
+         * Returns the node itself if this editor owns it, otherwise a copy
+         * owned by this editor.
+         */
+        private Node editable(Node node)
+        {
+            Node result = node;
+            if (node.owner != this.owner)
+            {
+                result = new Node(this.owner, node.bitmap, node.entries.clone());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Walks the trie depth first, keeping the path in two small arrays.
+     */
+    private static final class TrieIterator implements Iterator<Property>
+    {
+        private final Node[] nodes;
+        private final int[] positions;
+        private int depth;
+        private Property next;
+
+        TrieIterator(Node root)
+        {
+            this.nodes = new Node[MAX_DEPTH + 1];
+            this.positions = new int[MAX_DEPTH + 1];
+            this.nodes[0] = root;
+            this.depth = 0;
+            this.next = this.findNext();
+        }
+
+        private Property findNext()
+        {
+            Property found = null;
+            while (null == found && this.depth >= 0)
+            {
+                Node node = this.nodes[this.depth];
+                int position = this.positions[this.depth];
+                if (position == node.entries.length)
+                {
+                    this.nodes[this.depth] = null;
+                    this.depth--;
+                }
+                else
+                {
+                    this.positions[this.depth]++;
+                    Object entry = node.entries[position];
+                    if (entry instanceof Node)
+                    {
+                        this.depth++;
+                        this.nodes[this.depth] = (Node) entry;
+                        this.positions[this.depth] = 0;
+                    }
+                    else
+                    {
+                        found = (Property) entry;
+                    }
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return null != this.next;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (null == this.next)
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = this.next;
+            this.next = this.findNext();
+            return property;
+        }
+    }
+}
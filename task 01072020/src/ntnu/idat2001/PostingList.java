@@ -0,0 +1,135 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+
+/**
+ * A compressed, sorted list of IDs, used by the text index.
+ * The IDs must be added in ascending order. Each ID is stored as the
+ * difference from the previous one, in a variable number of bytes (7 bits
+ * per byte, the high bit set on all but the last byte), so a list of close
+ * IDs takes little more than a byte per ID.
+ *
+ * The list is read through a Cursor, which decodes the IDs as it goes, so
+ * a search that stops after a few results only decodes the start of the
+ * list.
+ */
+final class PostingList
+{
+    private byte[] data;
+    private int length;
+    private int count;
+    private int lastId;
+
+    /**
+     * Reads IDs in ascending order.
+     */
+    interface Cursor
+    {
+        /** Returned when there are no more IDs. */
+        int END = Integer.MAX_VALUE;
+
+        /**
+         * Moves to the first ID not less than the target, and returns it.
+         * The cursor never moves backwards, so if the cursor is already at
+         * or past the target, the current ID is returned.
+         *
+         * @param target the smallest ID to return
+         * @return the ID, or END if there are no more IDs
+         */
+        int nextAtLeast(int target);
+    }
+
+    /**
+     * Creates an empty list.
+     */
+    PostingList()
+    {
+        this.data = new byte[4];
+        this.length = 0;
+        this.count = 0;
+        this.lastId = -1;
+    }
+
+    /**
+     * Adds an ID to the end of the list. Adding the same ID as the last one
+     * again has no effect.
+     *
+     * @param id the ID, not less than the last ID added
+     */
+    void add(int id)
+    {
+        if (id != this.lastId)
+        {
+            if (this.length + 5 > this.data.length)
+            {
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.length + 5));
+            }
+            int delta = id - this.lastId;
+            while (delta >= 0x80)
+            {
+                this.data[this.length] = (byte) (delta | 0x80);
+                this.length++;
+                delta >>>= 7;
+            }
+            this.data[this.length] = (byte) delta;
+            this.length++;
+            this.lastId = id;
+            this.count++;
+        }
+    }
+
+    /**
+     * Returns the number of IDs in the list.
+     *
+     * @return the number of IDs
+     */
+    int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns a cursor positioned before the first ID. The cursor only
+     * sees the IDs in the list when it was created.
+     *
+     * @return a cursor over the IDs
+     */
+    Cursor cursor()
+    {
+        return new Cursor()
+        {
+            private final byte[] bytes = data;
+            private final int end = length;
+            private int position = 0;
+            private int current = -1;
+
+            @Override
+            public int nextAtLeast(int target)
+            {
+                while (this.current < target && this.current != END)
+                {
+                    if (this.position == this.end)
+                    {
+                        this.current = END;
+                    }
+                    else
+                    {
+                        int delta = 0;
+                        int shift = 0;
+                        byte b;
+                        do
+                        {
+                            b = this.bytes[this.position];
+                            this.position++;
+                            delta |= (b & 0x7F) << shift;
+                            shift += 7;
+                        }
+                        while (b < 0);
+                        this.current += delta;
+                    }
+                }
+                return this.current;
+            }
+        };
+    }
+}
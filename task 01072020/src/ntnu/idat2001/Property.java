@@ -17,6 +17,7 @@ public class Property
     private final int sectionNumber;
     private final String name;
     private final double area;
+    private final long propertyKey;
     private String nameOfOwner;
 
     /**
@@ -28,6 +29,8 @@ public class Property
      * @param sectionNumber the section number of the property
      * @param name the name of the property
      * @param area the area in square meters
+     * @throws IllegalArgumentException if the municipality number, lot number
+     *         or section number is out of the range given by PropertyKey
      */
     public Property(int municipalityNumber, String municipalityName, 
                     int lotNumber, int sectionNumber, 
@@ -38,11 +41,16 @@ public class Property
         // added a check for the nameOfOwner parameter in the method
         // setNameOfOwner().
         this.municipalityNumber = municipalityNumber;
-        this.municipalityName = municipalityName;
+        // Share one name instance between all properties in the municipality
+        this.municipalityName = MunicipalityRegistry.getInstance()
+                .canonicalName(municipalityNumber, municipalityName);
         this.lotNumber = lotNumber;
         this.sectionNumber = sectionNumber;
         this.name = name;
         this.area = area;
+        // The ID is packed once here, since it is used as the key
+        // every time the property is stored or compared.
+        this.propertyKey = PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber);
         this.nameOfOwner = null;
     }
     
@@ -113,7 +121,6 @@ public class Property
      */
     public String getName()
     {
-        String name = "Test";
         return name;
     }
 
@@ -140,6 +147,17 @@ public class Property
         return uniqueId;
     }
 
+    /**
+     * Returns the unique ID of the property packed into a single
+     * <code>long</code>. See {@link PropertyKey} for the layout.
+     * Unlike getPropertyIDAsString(), this method does not create any objects.
+     * @return the unique ID of the property as a packed key
+     */
+    public long getPropertyKey()
+    {
+        return propertyKey;
+    }
+
     /**
      * Returns the name of the owner of the property.
      * @return the name of the owner of the property.
@@ -155,10 +173,15 @@ public class Property
      * is already owned by someone else.
      * If the name provided is <code>null</code> or an ampty string, the
      * name of the owner is set to "INVALID OWNER".
+     * The name is stored through the owner name pool, so owners of many
+     * properties share one instance of the name.
+     * Package-private, so that the owner of a property in a register can
+     * only be changed through PropertyRegister.transferOwnership(), which
+     * keeps the owner index and the listeners of the register up to date.
      * 
      * @param nameOfOwner the name of the owner.
      */
-    public final void setNameOfOwner(String nameOfOwner)
+    final void setNameOfOwner(String nameOfOwner)
     {
         // Validate the parameter
         if (null == nameOfOwner)
@@ -173,17 +196,37 @@ public class Property
             }
             else
             {
-                this.nameOfOwner = nameOfOwner;                
+                this.nameOfOwner = StringPool.getOwnerNamePool().intern(nameOfOwner);
             }
         }
     }
+
+    /**
+     * Sets the name of the owner like setNameOfOwner(), but without storing
+     * the name in the owner name pool. Used for the short-lived views
+     * created by registers that keep their owner names elsewhere, which
+     * would otherwise add an entry to the pool for every name read.
+     *
+     * @param nameOfOwner the name of the owner.
+     */
+    final void setUnpooledNameOfOwner(String nameOfOwner)
+    {
+        if (null == nameOfOwner || nameOfOwner.isEmpty())
+        {
+            this.nameOfOwner = "INVALID OWNER";
+        }
+        else
+        {
+            this.nameOfOwner = nameOfOwner;
+        }
+    }
     
     /**
      * Compares this property to another property to check if it this property
      * is equal/the same property as the one given by the parameter 
      * <code>property</code>.
      * The properties are the same if the unique ID is the same (i.e.
-     * if the method getPropertyIDAsString() returns the same string for both
+     * if the method getPropertyKey() returns the same key for both
      * properties).
      * 
      * If the two properties are equal, <code>true</code> is returned. Otherwise
@@ -197,9 +240,9 @@ public class Property
     {
         boolean propertiesAreEqual = false;
         
-        // Check if the property of the parameter has the same ID-string
+        // Check if the property of the parameter has the same ID
         // as this obect. If so, they are equal.
-        if (this.getPropertyIDAsString().equals(property.getPropertyIDAsString()))
+        if (this.getPropertyKey() == property.getPropertyKey())
         {
             propertiesAreEqual = true;
         }
@@ -0,0 +1,172 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads properties in bulk from a cadastre CSV file into a PropertyRegister.
+ * See PropertyCsvParser for the format of the file. The first line is
+ * skipped if it is a header line.
+ *
+ * The file is memory-mapped, and the lines are parsed straight from the
+ * mapped bytes, so the file is never copied into Strings line by line.
+ * The properties are created in batches, which are then added to the
+ * register. Rows that can not be parsed are counted and skipped.
+ */
+public class PropertyCsvLoader
+{
+    /** The number of properties created before they are added to the register. */
+    static final int BATCH_SIZE = 4096;
+
+    // A single mapping can not be larger than 2 GB, so large files are
+    // mapped one window at a time.
+    private static final long MAX_WINDOW_SIZE = 1L << 28;
+
+    private final PropertyRegister register;
+
+    /**
+     * Creates a loader adding properties to the given register.
+     *
+     * @param register the register to add the properties to
+     */
+    public PropertyCsvLoader(PropertyRegister register)
+    {
+        this.register = register;
+    }
+
+    /**
+     * Loads all the properties in the file into the register.
+     *
+     * @param file the CSV file to load
+     * @return statistics about the import, including rows per second
+     * @throws IOException if the file can not be read, or has a line
+     *         longer than the mapping window
+     */
+    public ImportStatistics load(Path file) throws IOException
+    {
+        long startTime = System.nanoTime();
+        PropertyCsvParser parser = new PropertyCsvParser();
+        Property[] batch = new Property[BATCH_SIZE];
+        int batchSize = 0;
+        long rowsRead = 0;
+        long propertiesAdded = 0;
+        long malformedRows = 0;
+        boolean firstLine = true;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize)
+            {
+                long windowSize = Math.min(MAX_WINDOW_SIZE, fileSize - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, windowSize);
+                boolean lastWindow = position + windowSize == fileSize;
+                int end = lastWindow ? (int) windowSize : lastLineEnd(window, (int) windowSize);
+                if (end < 0)
+                {
+                    throw new IOException("Line longer than " + MAX_WINDOW_SIZE
+                            + " bytes at offset " + position);
+                }
+
+                int lineStart = 0;
+                while (lineStart < end)
+                {
+                    int lineEnd = nextLineEnd(window, lineStart, end);
+                    boolean header = firstLine
+                            && PropertyCsvParser.isHeader(window, lineStart, lineEnd);
+                    if (!header && lineEnd > lineStart)
+                    {
+                        rowsRead++;
+                        Property property = parser.parseLine(window, lineStart, lineEnd);
+                        if (null == property)
+                        {
+                            malformedRows++;
+                        }
+                        else
+                        {
+                            batch[batchSize] = property;
+                            batchSize++;
+                            if (batchSize == BATCH_SIZE)
+                            {
+                                propertiesAdded += this.addBatch(batch, batchSize);
+                                batchSize = 0;
+                            }
+                        }
+                    }
+                    firstLine = false;
+                    lineStart = lineEnd + 1;
+                }
+                position += end;
+            }
+        }
+        propertiesAdded += this.addBatch(batch, batchSize);
+
+        long duplicates = rowsRead - malformedRows - propertiesAdded;
+        return new ImportStatistics(rowsRead, propertiesAdded, duplicates,
+                malformedRows, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Adds a batch of properties to the register.
+     *
+     * @param batch the properties to add
+     * @param batchSize the number of properties in the batch
+     * @return the number of properties added, the rest were duplicates
+     */
+    private int addBatch(Property[] batch, int batchSize)
+    {
+        int added = 0;
+        for (int i = 0; i < batchSize; i++)
+        {
+            if (this.register.addProperty(batch[i]))
+            {
+                added++;
+            }
+            batch[i] = null;
+        }
+        return added;
+    }
+
+    /**
+     * Returns the index of the line terminator ending the line starting
+     * at <code>from</code>, or <code>end</code> if the line is not terminated.
+     *
+     * @param buffer the buffer to search
+     * @param from the start of the line
+     * @param end the index to stop searching at
+     * @return the index of the end of the line
+     */
+    static int nextLineEnd(ByteBuffer buffer, int from, int end)
+    {
+        int i = from;
+        while (i < end && buffer.get(i) != '\n')
+        {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after the last line terminator in the buffer,
+     * or -1 if there is no line terminator.
+     *
+     * @param buffer the buffer to search
+     * @param size the number of bytes in the buffer
+     * @return the index after the last complete line
+     */
+    static int lastLineEnd(ByteBuffer buffer, int size)
+    {
+        int i = size - 1;
+        while (i >= 0 && buffer.get(i) != '\n')
+        {
+            i--;
+        }
+        return i < 0 ? -1 : i + 1;
+    }
+}
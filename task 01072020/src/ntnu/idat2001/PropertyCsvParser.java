@@ -0,0 +1,299 @@
+package ntnu.idat2001;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses lines of a cadastre CSV file into properties, reading the bytes
+ * directly from a (typically memory-mapped) ByteBuffer.
+ *
+ * Each line holds the fields
+ * <code>municipalityNumber;municipalityName;lotNumber;sectionNumber;name;area;owner</code>
+ * encoded as UTF-8, for example
+ * <code>1445;Gloppen;77;131;Syningom;661.3;Nicolay Madsen</code>.
+ * The owner may be left empty. Fields can not contain the separator, since
+ * quoting is not supported.
+ *
+ * The numbers are parsed straight from the bytes, and a String is only
+ * created for the text fields the Property actually keeps. The municipality
+ * name is compared byte by byte with the name the MunicipalityRegistry has
+ * for the municipality number, and only decoded if it differs, so a name
+ * that differs from the registered one is kept, as canonicalName() does.
+ * Owner names are shared through the owner name pool by
+ * Property.setNameOfOwner().
+ *
+ * A parser keeps state between calls, so each thread needs its own parser.
+ */
+final class PropertyCsvParser
+{
+    /** The separator between the fields on a line. */
+    static final byte SEPARATOR = ';';
+
+    private static final int FIELD_COUNT = 7;
+    // The largest power of ten a double can hold exactly
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // The start and end (exclusive) of each field on the current line
+    private final int[] fieldStarts;
+    private final int[] fieldEnds;
+    // Reused when decoding a text field, since a String can not be created
+    // directly from a ByteBuffer
+    private byte[] scratch;
+    private final MunicipalityRegistry municipalities;
+    // The last registered municipality name matched, and its UTF-8 bytes,
+    // since the rows of a municipality usually come together
+    private String registeredName;
+    private byte[] registeredNameBytes;
+
+    /**
+     * Creates a new parser.
+     */
+    PropertyCsvParser()
+    {
+        this.fieldStarts = new int[FIELD_COUNT];
+        this.fieldEnds = new int[FIELD_COUNT];
+        this.scratch = new byte[128];
+        this.municipalities = MunicipalityRegistry.getInstance();
+        this.registeredName = null;
+        this.registeredNameBytes = null;
+    }
+
+    /**
+     * Parses one line into a property. The line must not include the line
+     * terminator, but a trailing carriage return is ignored.
+     *
+     * @param buffer the buffer holding the line
+     * @param lineStart the index of the first byte of the line
+     * @param lineEnd the index after the last byte of the line
+     * @return the property, or <code>null</code> if the line is malformed
+     */
+    Property parseLine(ByteBuffer buffer, int lineStart, int lineEnd)
+    {
+        if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+        {
+            lineEnd--;
+        }
+        if (!this.splitFields(buffer, lineStart, lineEnd))
+        {
+            return null;
+        }
+
+        int municipalityNumber = this.parseInt(buffer, 0);
+        int lotNumber = this.parseInt(buffer, 2);
+        int sectionNumber = this.parseInt(buffer, 3);
+        double area = this.parseDouble(buffer, 5);
+        if (!PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber)
+                || Double.isNaN(area))
+        {
+            return null;
+        }
+
+        String municipalityName = this.municipalities.getName(municipalityNumber);
+        if (null == municipalityName || !this.fieldEquals(buffer, 1, municipalityName))
+        {
+            // Property passes the name through canonicalName()
+            municipalityName = this.decode(buffer, 1);
+        }
+        String name = this.decode(buffer, 4);
+
+        Property property;
+        if (this.fieldEnds[6] > this.fieldStarts[6])
+        {
+            property = new Property(municipalityNumber, municipalityName,
+                    lotNumber, sectionNumber, name, area, this.decode(buffer, 6));
+        }
+        else
+        {
+            property = new Property(municipalityNumber, municipalityName,
+                    lotNumber, sectionNumber, name, area);
+        }
+        return property;
+    }
+
+    /**
+     * Checks if the line looks like a header line, that is if it does not
+     * start with a digit.
+     *
+     * @param buffer the buffer holding the line
+     * @param lineStart the index of the first byte of the line
+     * @param lineEnd the index after the last byte of the line
+     * @return <code>true</code> if the line is a header line
+     */
+    static boolean isHeader(ByteBuffer buffer, int lineStart, int lineEnd)
+    {
+        return lineEnd > lineStart && !isDigit(buffer.get(lineStart));
+    }
+
+    /**
+     * Finds the start and end of each field on the line.
+     *
+     * @return <code>true</code> if the line has the right number of fields
+     */
+    private boolean splitFields(ByteBuffer buffer, int lineStart, int lineEnd)
+    {
+        int field = 0;
+        this.fieldStarts[0] = lineStart;
+        for (int i = lineStart; i < lineEnd; i++)
+        {
+            if (buffer.get(i) == SEPARATOR)
+            {
+                if (field == FIELD_COUNT - 1)
+                {
+                    return false;
+                }
+                this.fieldEnds[field] = i;
+                field++;
+                this.fieldStarts[field] = i + 1;
+            }
+        }
+        this.fieldEnds[field] = lineEnd;
+        return field == FIELD_COUNT - 1;
+    }
+
+    /**
+     * Parses a field holding a non-negative whole number.
+     *
+     * @return the number, or -1 if the field is not a valid number
+     */
+    private int parseInt(ByteBuffer buffer, int field)
+    {
+        int start = this.fieldStarts[field];
+        int end = this.fieldEnds[field];
+        // More than 9 digits could overflow, and is out of range anyway
+        if (end == start || end - start > 9)
+        {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            byte b = buffer.get(i);
+            if (!isDigit(b))
+            {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a field holding a decimal number such as "661.3".
+     * Plain numbers with up to 18 digits are parsed straight from the bytes.
+     * Anything else (exponents, very long numbers) falls back to
+     * Double.parseDouble().
+     *
+     * @return the number, or NaN if the field is not a valid number
+     */
+    private double parseDouble(ByteBuffer buffer, int field)
+    {
+        int start = this.fieldStarts[field];
+        int end = this.fieldEnds[field];
+        boolean negative = start < end && buffer.get(start) == '-';
+        int i = negative ? start + 1 : start;
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean seenPoint = false;
+        boolean simple = i < end;
+        while (simple && i < end)
+        {
+            byte b = buffer.get(i);
+            if (isDigit(b))
+            {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint)
+                {
+                    decimals++;
+                }
+            }
+            else if (b == '.' && !seenPoint)
+            {
+                seenPoint = true;
+            }
+            else
+            {
+                simple = false;
+            }
+            i++;
+        }
+
+        double value;
+        if (simple && digits > 0 && digits <= 18 && decimals <= MAX_EXACT_POWER_OF_TEN)
+        {
+            // Both the mantissa and the power of ten are exact doubles,
+            // so a single division gives the correctly rounded result.
+            value = mantissa / POWERS_OF_TEN[decimals];
+            if (negative)
+            {
+                value = -value;
+            }
+        }
+        else
+        {
+            try
+            {
+                value = Double.parseDouble(this.decode(buffer, field));
+            }
+            catch (NumberFormatException e)
+            {
+                value = Double.NaN;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a text field as UTF-8.
+     */
+    private String decode(ByteBuffer buffer, int field)
+    {
+        int start = this.fieldStarts[field];
+        int length = this.fieldEnds[field] - start;
+        if (length > this.scratch.length)
+        {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++)
+        {
+            this.scratch[i] = buffer.get(start + i);
+        }
+        return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks if the field holds exactly the UTF-8 bytes of the string.
+     */
+    private boolean fieldEquals(ByteBuffer buffer, int field, String string)
+    {
+        if (string != this.registeredName)
+        {
+            this.registeredName = string;
+            this.registeredNameBytes = string.getBytes(StandardCharsets.UTF_8);
+        }
+        int start = this.fieldStarts[field];
+        boolean equal = this.fieldEnds[field] - start == this.registeredNameBytes.length;
+        for (int i = 0; equal && i < this.registeredNameBytes.length; i++)
+        {
+            equal = buffer.get(start + i) == this.registeredNameBytes[i];
+        }
+        return equal;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+}
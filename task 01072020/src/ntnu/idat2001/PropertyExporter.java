@@ -0,0 +1,274 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Writes properties in bulk to a file or channel, either as CSV in the
+ * format read by PropertyCsvLoader (see PropertyCsvParser), or as JSON
+ * lines (one JSON object per line).
+ *
+ * Each line is built in a reused StringBuilder and encoded as UTF-8
+ * into one large byte buffer, which is only written to the channel when it
+ * is full. This avoids both the per-line overhead of System.out.println()
+ * and creating a String for every line.
+ *
+ * The CSV format does not support quoting, so a separator or line break in
+ * a text field is written as a space, to keep the file readable by
+ * PropertyCsvLoader. An exporter keeps state between calls, so each thread
+ * needs its own exporter.
+ */
+public class PropertyExporter
+{
+    /**
+     * The formats the properties can be written in.
+     */
+    public enum Format
+    {
+        /** Semicolon separated values, with a header line. */
+        CSV,
+        /** One JSON object per line. */
+        JSON_LINES
+    }
+
+    private static final String CSV_HEADER =
+            "municipalityNumber;municipalityName;lotNumber;sectionNumber;name;area;owner";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Format format;
+    private final ByteBuffer bytes;
+    private final StringBuilder line;
+    // The characters of the line, copied out of the StringBuilder since an
+    // array backed buffer is much faster to encode
+    private CharBuffer chars;
+    private final CharsetEncoder encoder;
+
+    /**
+     * Creates an exporter writing the given format.
+     *
+     * @param format the format to write
+     */
+    public PropertyExporter(Format format)
+    {
+        this.format = format;
+        this.bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.line = new StringBuilder(256);
+        this.chars = CharBuffer.allocate(256);
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+    }
+
+    /**
+     * Writes the properties to a file, replacing the file if it exists.
+     *
+     * @param properties the properties to write
+     * @param file the file to write to
+     * @return the number of properties written
+     * @throws IOException if the file can not be written
+     */
+    public long export(Iterator<Property> properties, Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            return this.export(properties, channel);
+        }
+    }
+
+    /**
+     * Writes the properties to a channel. The channel is not closed.
+     *
+     * @param properties the properties to write
+     * @param channel the channel to write to
+     * @return the number of properties written
+     * @throws IOException if the channel can not be written to
+     */
+    public long export(Iterator<Property> properties, WritableByteChannel channel)
+            throws IOException
+    {
+        long count = 0;
+        this.bytes.clear();
+        if (this.format == Format.CSV)
+        {
+            this.line.setLength(0);
+            this.line.append(CSV_HEADER);
+            this.writeLine(channel);
+        }
+        while (properties.hasNext())
+        {
+            Property property = properties.next();
+            this.line.setLength(0);
+            if (this.format == Format.CSV)
+            {
+                appendCsv(this.line, property);
+            }
+            else
+            {
+                appendJson(this.line, property);
+            }
+            this.writeLine(channel);
+            count++;
+        }
+        this.flush(channel);
+        return count;
+    }
+
+    /**
+     * Appends the property as a CSV line, without the line break, in the
+     * format read by PropertyCsvParser.
+     *
+     * @param text the text to append to
+     * @param property the property to append
+     */
+    static void appendCsv(StringBuilder text, Property property)
+    {
+        char separator = (char) PropertyCsvParser.SEPARATOR;
+        text.append(property.getMunicipalityNumber()).append(separator);
+        appendCsvText(text, property.getMunicipalityName());
+        text.append(separator).append(property.getLotNumber());
+        text.append(separator).append(property.getSectionNumber()).append(separator);
+        appendCsvText(text, property.getName());
+        text.append(separator).append(property.getArea()).append(separator);
+        appendCsvText(text, property.getNameOfOwner());
+    }
+
+    /**
+     * Appends the property as a JSON object.
+     *
+     * @param text the text to append to
+     * @param property the property to append
+     */
+    static void appendJson(StringBuilder text, Property property)
+    {
+        text.append("{\"municipalityNumber\":").append(property.getMunicipalityNumber());
+        text.append(",\"municipalityName\":");
+        appendJsonText(text, property.getMunicipalityName());
+        text.append(",\"lotNumber\":").append(property.getLotNumber());
+        text.append(",\"sectionNumber\":").append(property.getSectionNumber());
+        text.append(",\"name\":");
+        appendJsonText(text, property.getName());
+        text.append(",\"area\":");
+        appendJsonNumber(text, property.getArea());
+        text.append(",\"nameOfOwner\":");
+        appendJsonText(text, property.getNameOfOwner());
+        text.append('}');
+    }
+
+    /**
+     * Appends a number as JSON. JSON has no NaN or infinity, so those are
+     * written as <code>null</code>.
+     *
+     * @param text the text to append to
+     * @param number the number to append
+     */
+    static void appendJsonNumber(StringBuilder text, double number)
+    {
+        if (Double.isFinite(number))
+        {
+            text.append(number);
+        }
+        else
+        {
+            text.append("null");
+        }
+    }
+
+    /**
+     * Appends a CSV text field, writing <code>null</code> as an empty field.
+     */
+    private static void appendCsvText(StringBuilder text, String value)
+    {
+        if (null != value)
+        {
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                if (c == PropertyCsvParser.SEPARATOR || c == '\n' || c == '\r')
+                {
+                    c = ' ';
+                }
+                text.append(c);
+            }
+        }
+    }
+
+    /**
+     * Appends a JSON string, escaping the characters JSON requires.
+     */
+    private static void appendJsonText(StringBuilder text, String value)
+    {
+        if (null == value)
+        {
+            text.append("null");
+        }
+        else
+        {
+            text.append('"');
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\')
+                {
+                    text.append('\\').append(c);
+                }
+                else if (c < 0x20)
+                {
+                    text.append(String.format("\\u%04x", (int) c));
+                }
+                else
+                {
+                    text.append(c);
+                }
+            }
+            text.append('"');
+        }
+    }
+
+    /**
+     * Ends the line being built, and encodes it into the byte buffer,
+     * writing the byte buffer to the channel whenever it is full.
+     */
+    private void writeLine(WritableByteChannel channel) throws IOException
+    {
+        this.line.append('\n');
+        int length = this.line.length();
+        if (length > this.chars.capacity())
+        {
+            this.chars = CharBuffer.allocate(Math.max(length, this.chars.capacity() * 2));
+        }
+        this.line.getChars(0, length, this.chars.array(), 0);
+        this.chars.clear().limit(length);
+        this.encoder.reset();
+        CoderResult result = this.encoder.encode(this.chars, this.bytes, true);
+        while (result.isOverflow())
+        {
+            this.flush(channel);
+            result = this.encoder.encode(this.chars, this.bytes, true);
+        }
+        if (result.isError())
+        {
+            result.throwException();
+        }
+    }
+
+    /**
+     * Writes everything in the byte buffer to the channel.
+     */
+    private void flush(WritableByteChannel channel) throws IOException
+    {
+        this.bytes.flip();
+        while (this.bytes.hasRemaining())
+        {
+            channel.write(this.bytes);
+        }
+        this.bytes.clear();
+    }
+}
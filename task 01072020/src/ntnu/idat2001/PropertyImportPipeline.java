@@ -0,0 +1,431 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports a cadastre CSV file into a PropertyRegister using all the cores.
+ * See PropertyCsvParser for the format of the file.
+ *
+ * The file is split into chunks on line boundaries. The chunks are
+ * memory-mapped and parsed by a pool of worker threads, which put batches
+ * of properties on a bounded queue per chunk. The thread calling
+ * <code>importFile()</code> takes the batches off the queues and adds them
+ * to the register, so the register is only ever changed by one thread.
+ * The batches are added chunk by chunk, in the order of the chunks in the
+ * file, so when two rows have the same ID the first one in the file is
+ * kept, just as when the file is loaded by PropertyCsvLoader. When the
+ * register can not keep up, the queues fill up and the workers wait, so
+ * memory use stays bounded.
+ *
+ * The workers start on the chunks in file order, so the chunk whose
+ * batches are being added is always being parsed, and the workers parsing
+ * later chunks can get at most a full queue ahead of it.
+ *
+ * The counters can be read from any thread while the import is running,
+ * for example to show progress.
+ */
+public class PropertyImportPipeline
+{
+    // Chunks are at least this large, so small files are not split up
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    // ... and at most this large, since a single mapping is limited to 2 GB
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+    // The number of bytes read at a time when looking for a line boundary
+    private static final int BOUNDARY_SEARCH_SIZE = 1 << 16;
+    // Put on the queue by a worker when it has finished its chunk
+    private static final Property[] END_OF_CHUNK = new Property[0];
+
+    private final PropertyRegister register;
+    private final int workerThreads;
+    // The room on the queue of each chunk, so all the chunks being parsed
+    // at once have room for queueCapacity batches together
+    private final int chunkQueueCapacity;
+    private final AtomicInteger queueDepth;
+
+    private final AtomicLong rowsRead;
+    private final AtomicLong malformedRows;
+    private final AtomicLong propertiesAdded;
+    private final AtomicLong duplicates;
+    private final AtomicLong maxQueueDepth;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * Creates a pipeline adding properties to the given register.
+     *
+     * @param register the register to add the properties to
+     * @param workerThreads the number of threads parsing the file
+     * @param queueCapacity the maximum number of batches waiting to be
+     *        added to the register, shared by the chunks being parsed,
+     *        though each chunk being parsed has room for at least one
+     */
+    public PropertyImportPipeline(PropertyRegister register, int workerThreads, int queueCapacity)
+    {
+        if (workerThreads < 1 || queueCapacity < 1)
+        {
+            throw new IllegalArgumentException("There must be at least one worker "
+                    + "thread and room for at least one batch on the queue");
+        }
+        this.register = register;
+        this.workerThreads = workerThreads;
+        this.chunkQueueCapacity = Math.max(1, queueCapacity / workerThreads);
+        this.queueDepth = new AtomicInteger();
+        this.rowsRead = new AtomicLong();
+        this.malformedRows = new AtomicLong();
+        this.propertiesAdded = new AtomicLong();
+        this.duplicates = new AtomicLong();
+        this.maxQueueDepth = new AtomicLong();
+    }
+
+    /**
+     * Imports all the properties in the file into the register, and waits
+     * until the import has finished. A pipeline should only be used for
+     * one import, since the counters are not reset.
+     *
+     * @param file the CSV file to import
+     * @return statistics about the import
+     * @throws IOException if the file can not be read
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *         for the workers. The workers are then stopped.
+     */
+    public ImportStatistics importFile(Path file) throws IOException, InterruptedException
+    {
+        this.startTime = System.nanoTime();
+        this.endTime = 0;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(this.workerThreads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            List<long[]> chunks = splitIntoChunks(channel, this.workerThreads);
+            List<BlockingQueue<Property[]>> chunkQueues = new ArrayList<>(chunks.size());
+            for (long[] chunk : chunks)
+            {
+                boolean firstChunk = chunk[0] == 0;
+                BlockingQueue<Property[]> chunkQueue = new ArrayBlockingQueue<>(this.chunkQueueCapacity);
+                chunkQueues.add(chunkQueue);
+                workers.execute(() -> this.parseChunk(channel, chunk[0], chunk[1],
+                        firstChunk, chunkQueue, failure));
+            }
+
+            // Add the batches to the register chunk by chunk, in file order
+            for (int i = 0; i < chunkQueues.size(); i++)
+            {
+                BlockingQueue<Property[]> chunkQueue = chunkQueues.get(i);
+                Property[] batch = chunkQueue.take();
+                while (batch != END_OF_CHUNK)
+                {
+                    this.queueDepth.decrementAndGet();
+                    this.addBatch(batch);
+                    batch = chunkQueue.take();
+                }
+                chunkQueues.set(i, null);
+            }
+        }
+        finally
+        {
+            workers.shutdownNow();
+            this.endTime = System.nanoTime();
+        }
+
+        Throwable exception = failure.get();
+        if (exception instanceof IOException)
+        {
+            throw (IOException) exception;
+        }
+        else if (exception instanceof RuntimeException)
+        {
+            throw (RuntimeException) exception;
+        }
+        else if (exception instanceof Error)
+        {
+            throw (Error) exception;
+        }
+        return new ImportStatistics(this.getRowsRead(), this.getPropertiesAdded(),
+                this.getDuplicates(), this.getMalformedRows(),
+                this.endTime - this.startTime);
+    }
+
+    /**
+     * Returns the number of data rows parsed so far.
+     * @return the number of data rows parsed so far
+     */
+    public long getRowsRead()
+    {
+        return this.rowsRead.get();
+    }
+
+    /**
+     * Returns the number of properties added to the register so far.
+     * @return the number of properties added to the register so far
+     */
+    public long getPropertiesAdded()
+    {
+        return this.propertiesAdded.get();
+    }
+
+    /**
+     * Returns the number of properties that were not added so far, since
+     * addProperty() returned <code>false</code> (the ID was already in the
+     * register).
+     * @return the number of duplicates so far
+     */
+    public long getDuplicates()
+    {
+        return this.duplicates.get();
+    }
+
+    /**
+     * Returns the number of rows that could not be parsed so far.
+     * @return the number of malformed rows so far
+     */
+    public long getMalformedRows()
+    {
+        return this.malformedRows.get();
+    }
+
+    /**
+     * Returns the number of batches currently waiting on the queues.
+     * @return the current queue depth
+     */
+    public int getQueueDepth()
+    {
+        // A batch is counted just after it is put on a queue, so it may
+        // be taken off before it is counted
+        return Math.max(0, this.queueDepth.get());
+    }
+
+    /**
+     * Returns the largest number of batches that have been waiting on the
+     * queues at the same time.
+     * @return the maximum queue depth
+     */
+    public long getMaxQueueDepth()
+    {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of rows parsed per second, so far.
+     * @return the number of rows parsed per second
+     */
+    public double getRowsPerSecond()
+    {
+        double rowsPerSecond = 0;
+        long start = this.startTime;
+        long end = this.endTime != 0 ? this.endTime : System.nanoTime();
+        if (start != 0 && end > start)
+        {
+            rowsPerSecond = this.getRowsRead() * 1e9 / (end - start);
+        }
+        return rowsPerSecond;
+    }
+
+    /**
+     * Parses one chunk of the file, putting the properties on the queue of
+     * the chunk in batches. Runs on a worker thread.
+     *
+     * @param channel the file
+     * @param start the offset of the first byte of the chunk
+     * @param end the offset after the last byte of the chunk
+     * @param firstChunk if the chunk may start with a header line
+     * @param chunkQueue the queue to put the batches of the chunk on
+     * @param failure where to store the exception or error, if parsing fails
+     */
+    private void parseChunk(FileChannel channel, long start, long end, boolean firstChunk,
+                            BlockingQueue<Property[]> chunkQueue,
+                            AtomicReference<Throwable> failure)
+    {
+        boolean interrupted = false;
+        try
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, end - start);
+            int size = (int) (end - start);
+            PropertyCsvParser parser = new PropertyCsvParser();
+            Property[] batch = new Property[PropertyCsvLoader.BATCH_SIZE];
+            int batchSize = 0;
+            long rows = 0;
+            long malformed = 0;
+
+            int lineStart = 0;
+            if (firstChunk && PropertyCsvParser.isHeader(buffer, 0,
+                    PropertyCsvLoader.nextLineEnd(buffer, 0, size)))
+            {
+                lineStart = PropertyCsvLoader.nextLineEnd(buffer, 0, size) + 1;
+            }
+            while (lineStart < size)
+            {
+                int lineEnd = PropertyCsvLoader.nextLineEnd(buffer, lineStart, size);
+                if (lineEnd > lineStart)
+                {
+                    rows++;
+                    Property property = parser.parseLine(buffer, lineStart, lineEnd);
+                    if (null == property)
+                    {
+                        malformed++;
+                    }
+                    else
+                    {
+                        batch[batchSize] = property;
+                        batchSize++;
+                        if (batchSize == batch.length)
+                        {
+                            this.rowsRead.addAndGet(rows);
+                            this.malformedRows.addAndGet(malformed);
+                            rows = 0;
+                            malformed = 0;
+                            this.enqueue(chunkQueue, batch);
+                            batch = new Property[PropertyCsvLoader.BATCH_SIZE];
+                            batchSize = 0;
+                        }
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            this.rowsRead.addAndGet(rows);
+            this.malformedRows.addAndGet(malformed);
+            if (batchSize > 0)
+            {
+                this.enqueue(chunkQueue, Arrays.copyOf(batch, batchSize));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // The import has been stopped
+            interrupted = true;
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable e)
+        {
+            // Errors such as OutOfMemoryError are recorded too, so that
+            // importFile() reports them instead of waiting for this chunk
+            failure.compareAndSet(null, e);
+        }
+        finally
+        {
+            if (!interrupted)
+            {
+                try
+                {
+                    chunkQueue.put(END_OF_CHUNK);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a batch on the queue of a chunk, waiting for room if the queue
+     * is full.
+     *
+     * @param chunkQueue the queue of the chunk
+     * @param batch the batch to put on the queue
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void enqueue(BlockingQueue<Property[]> chunkQueue, Property[] batch)
+            throws InterruptedException
+    {
+        chunkQueue.put(batch);
+        this.maxQueueDepth.accumulateAndGet(this.queueDepth.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * Adds a batch of properties to the register, counting duplicates.
+     *
+     * @param batch the properties to add
+     */
+    private void addBatch(Property[] batch)
+    {
+        long added = 0;
+        for (Property property : batch)
+        {
+            if (this.register.addProperty(property))
+            {
+                added++;
+            }
+        }
+        this.propertiesAdded.addAndGet(added);
+        this.duplicates.addAndGet(batch.length - added);
+    }
+
+    /**
+     * Splits the file into chunks that all end on a line boundary.
+     *
+     * @param channel the file
+     * @param workerThreads the number of worker threads
+     * @return the start and end offset of each chunk
+     * @throws IOException if the file can not be read
+     */
+    private static List<long[]> splitIntoChunks(FileChannel channel, int workerThreads)
+            throws IOException
+    {
+        long fileSize = channel.size();
+        // A few chunks per worker evens out the work if some chunks are slower
+        long chunkSize = Math.min(MAX_CHUNK_SIZE,
+                Math.max(MIN_CHUNK_SIZE, fileSize / (workerThreads * 4L)));
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer searchBuffer = ByteBuffer.allocate(BOUNDARY_SEARCH_SIZE);
+        long start = 0;
+        while (start < fileSize)
+        {
+            long end = Math.min(fileSize, start + chunkSize);
+            if (end < fileSize)
+            {
+                end = findNextLineStart(channel, end, searchBuffer);
+                if (end - start > MAX_CHUNK_SIZE)
+                {
+                    throw new IOException("Line longer than " + MAX_CHUNK_SIZE
+                            + " bytes near offset " + start);
+                }
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the offset of the first line starting at or after the
+     * given offset, or the size of the file if there is none.
+     */
+    private static long findNextLineStart(FileChannel channel, long from, ByteBuffer searchBuffer)
+            throws IOException
+    {
+        long position = from;
+        while (true)
+        {
+            searchBuffer.clear();
+            int bytesRead = channel.read(searchBuffer, position);
+            if (bytesRead <= 0)
+            {
+                return channel.size();
+            }
+            for (int i = 0; i < bytesRead; i++)
+            {
+                if (searchBuffer.get(i) == '\n')
+                {
+                    return position + i + 1;
+                }
+            }
+            position += bytesRead;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package ntnu.idat2001;
+
+/**
+ * Packs the unique ID of a property (municipality number, lot number and
+ * section number) into a single <code>long</code>, so the ID can be stored,
+ * hashed and compared without building a String.
+ *
+ * The layout is, from the most significant bit:
+ * <ul>
+ * <li>16 bits municipality number (0 - 9999)</li>
+ * <li>24 bits lot number (0 - 16777215)</li>
+ * <li>24 bits section number (0 - 16777215)</li>
+ * </ul>
+ * Since the municipality number never uses the sign bit, a packed key is
+ * never negative, and sorting the keys as numbers sorts the properties
+ * by municipality, then lot, then section.
+ */
+public final class PropertyKey
+{
+    /** The largest municipality number that can be packed. */
+    public static final int MAX_MUNICIPALITY_NUMBER = 9999;
+
+    /** The largest lot or section number that can be packed. */
+    public static final int MAX_LOT_OR_SECTION_NUMBER = (1 << 24) - 1;
+
+    private static final int SECTION_BITS = 24;
+    private static final int LOT_BITS = 24;
+    private static final int LOT_SHIFT = SECTION_BITS;
+    private static final int MUNICIPALITY_SHIFT = SECTION_BITS + LOT_BITS;
+    private static final long FIELD_MASK = (1L << 24) - 1;
+
+    /**
+     * This class only holds static helper methods, hence no instances.
+     */
+    private PropertyKey()
+    {
+    }
+
+    /**
+     * Checks if the given numbers are within the range that can be packed
+     * into a key.
+     *
+     * @param municipalityNumber the municipality number
+     * @param lotNumber the lot number
+     * @param sectionNumber the section number
+     * @return <code>true</code> if the numbers can be packed,
+     *         <code>false</code> otherwise.
+     */
+    public static boolean isValid(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        return municipalityNumber >= 0 && municipalityNumber <= MAX_MUNICIPALITY_NUMBER
+                && lotNumber >= 0 && lotNumber <= MAX_LOT_OR_SECTION_NUMBER
+                && sectionNumber >= 0 && sectionNumber <= MAX_LOT_OR_SECTION_NUMBER;
+    }
+
+    /**
+     * Packs the municipality number, lot number and section number into
+     * a single key.
+     *
+     * @param municipalityNumber the municipality number
+     * @param lotNumber the lot number
+     * @param sectionNumber the section number
+     * @return the packed key
+     * @throws IllegalArgumentException if any of the numbers are out of range
+     */
+    public static long pack(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        if (!isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            throw new IllegalArgumentException("Property ID out of range: "
+                    + municipalityNumber + "-" + lotNumber + "/" + sectionNumber);
+        }
+        return ((long) municipalityNumber << MUNICIPALITY_SHIFT)
+                | ((long) lotNumber << LOT_SHIFT)
+                | sectionNumber;
+    }
+
+    /**
+     * Returns the municipality number of a packed key.
+     *
+     * @param key the packed key
+     * @return the municipality number
+     */
+    public static int municipalityNumberOf(long key)
+    {
+        return (int) (key >>> MUNICIPALITY_SHIFT);
+    }
+
+    /**
+     * Returns the lot number of a packed key.
+     *
+     * @param key the packed key
+     * @return the lot number
+     */
+    public static int lotNumberOf(long key)
+    {
+        return (int) ((key >>> LOT_SHIFT) & FIELD_MASK);
+    }
+
+    /**
+     * Returns the section number of a packed key.
+     *
+     * @param key the packed key
+     * @return the section number
+     */
+    public static int sectionNumberOf(long key)
+    {
+        return (int) (key & FIELD_MASK);
+    }
+
+    /**
+     * Returns the key on the display form
+     * "municipalitynumber-lotNumber/sectionNumber", for example "1445-77/130".
+     * Only meant for display, since it builds a new String on every call.
+     *
+     * @param key the packed key
+     * @return the key as a String
+     */
+    public static String toString(long key)
+    {
+        return municipalityNumberOf(key)
+                + "-" + lotNumberOf(key)
+                + "/" + sectionNumberOf(key);
+    }
+}
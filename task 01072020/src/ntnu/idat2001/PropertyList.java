@@ -0,0 +1,88 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, append-only list of properties, used by the indexes of the
+ * register. The properties are kept in a single array that grows as
+ * needed, with no per-element node objects.
+ *
+ * Since properties are only ever appended, an iterator simply walks the
+ * properties that were in the list when the iterator was created.
+ */
+final class PropertyList
+{
+    private static final int INITIAL_CAPACITY = 4;
+
+    private Property[] elements;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     */
+    PropertyList()
+    {
+        this.elements = new Property[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a property to the end of the list.
+     *
+     * @param property the property to append
+     */
+    void add(Property property)
+    {
+        if (this.size == this.elements.length)
+        {
+            this.elements = Arrays.copyOf(this.elements, this.size * 2);
+        }
+        this.elements[this.size] = property;
+        this.size++;
+    }
+
+    /**
+     * Returns the number of properties in the list.
+     *
+     * @return the number of properties in the list
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns an iterator over the properties in the list, without copying
+     * them. Properties appended after the iterator was created are not
+     * included.
+     *
+     * @return an iterator over the properties in the list
+     */
+    Iterator<Property> iterator()
+    {
+        final Property[] snapshot = this.elements;
+        final int end = this.size;
+        return new Iterator<Property>()
+        {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.next < end;
+            }
+
+            @Override
+            public Property next()
+            {
+                if (!this.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return snapshot[this.next++];
+            }
+        };
+    }
+}
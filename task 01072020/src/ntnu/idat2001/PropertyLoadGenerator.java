@@ -0,0 +1,227 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates load against a PropertyServer, for testing the server on
+ * localhost. A number of client threads send requests as fast as they can
+ * for a given time, and the number of requests per second and the latency
+ * percentiles are reported at the end.
+ *
+ * First the generator adds a number of properties through the server. Then
+ * each request is a search for one of those properties (80 %), a lot search
+ * (10 %), the average area (5 %) or adding a new property (5 %).
+ *
+ * Usage: <code>java ntnu.idat2001.PropertyLoadGenerator [host] [port] [threads] [seconds]</code>
+ */
+public class PropertyLoadGenerator
+{
+    private static final int PRELOADED_PROPERTIES = 10000;
+    // The municipality used for the generated properties
+    private static final int MUNICIPALITY_NUMBER = 9001;
+    // The latency of the first requests of each thread is kept for the
+    // percentiles, up to this many per thread
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 18;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final AtomicLong nextSectionNumber;
+    private final AtomicLong failures;
+
+    /**
+     * Creates a load generator sending requests to the server at the given
+     * host and port.
+     *
+     * @param host the host of the server
+     * @param port the port of the server
+     */
+    public PropertyLoadGenerator(String host, int port)
+    {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.baseUrl = "http://" + host + ":" + port;
+        this.nextSectionNumber = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Adds the properties the searches will look for, and then runs the
+     * client threads for the given time, printing the results.
+     *
+     * @param threads the number of client threads
+     * @param seconds how long to send requests for
+     * @throws IOException if the server can not be reached
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void run(int threads, int seconds) throws IOException, InterruptedException
+    {
+        for (int i = 0; i < PRELOADED_PROPERTIES; i++)
+        {
+            this.addProperty();
+        }
+
+        long endTime = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> clients = new ArrayList<>();
+        long[][] latencies = new long[threads][];
+        int[] counts = new int[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            latencies[thread] = new long[MAX_SAMPLES_PER_THREAD];
+            Thread client = new Thread(() -> counts[thread] = this.sendRequests(
+                    new Random(thread), endTime, latencies[thread]));
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients)
+        {
+            client.join();
+        }
+
+        int total = Arrays.stream(counts).sum();
+        int samples = 0;
+        for (int t = 0; t < threads; t++)
+        {
+            samples += Math.min(counts[t], MAX_SAMPLES_PER_THREAD);
+        }
+        long[] all = new long[samples];
+        int position = 0;
+        for (int t = 0; t < threads; t++)
+        {
+            int threadSamples = Math.min(counts[t], MAX_SAMPLES_PER_THREAD);
+            System.arraycopy(latencies[t], 0, all, position, threadSamples);
+            position += threadSamples;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests in %d s with %d threads: %.0f requests/s, %d failed%n",
+                total, seconds, threads, (double) total / seconds, this.failures.get());
+        if (samples > 0)
+        {
+            System.out.printf("Latency: median %.3f ms, 99th percentile %.3f ms, max %.3f ms%n",
+                    percentile(all, 50) / 1e6, percentile(all, 99) / 1e6, all[samples - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Sends random requests until the end time, recording the latency of
+     * each one.
+     *
+     * @return the number of requests sent
+     */
+    private int sendRequests(Random random, long endTime, long[] latencies)
+    {
+        int count = 0;
+        while (System.nanoTime() < endTime)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                int choice = random.nextInt(100);
+                if (choice < 80)
+                {
+                    int section = random.nextInt(PRELOADED_PROPERTIES);
+                    this.get("/property?municipality=" + MUNICIPALITY_NUMBER
+                            + "&lot=" + lotOf(section) + "&section=" + section);
+                }
+                else if (choice < 90)
+                {
+                    this.get("/lot?municipality=" + MUNICIPALITY_NUMBER
+                            + "&lot=" + random.nextInt(100));
+                }
+                else if (choice < 95)
+                {
+                    this.get("/average");
+                }
+                else
+                {
+                    this.addProperty();
+                }
+            }
+            catch (IOException e)
+            {
+                this.failures.incrementAndGet();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return count;
+            }
+            if (count < latencies.length)
+            {
+                latencies[count] = System.nanoTime() - start;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void get(String path) throws IOException, InterruptedException
+    {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.baseUrl + path)).GET().build();
+        HttpResponse<byte[]> response = this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200)
+        {
+            this.failures.incrementAndGet();
+        }
+    }
+
+    private void addProperty() throws IOException, InterruptedException
+    {
+        long section = this.nextSectionNumber.getAndIncrement();
+        String line = MUNICIPALITY_NUMBER + ";Loadtest;" + lotOf(section) + ";" + section
+                + ";Generated;" + (100 + section % 5000) + ";Owner " + (section % 100);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.baseUrl + "/property"))
+                .POST(HttpRequest.BodyPublishers.ofString(line)).build();
+        HttpResponse<byte[]> response = this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        // 409 means an earlier run already added the property
+        if (response.statusCode() != 201 && response.statusCode() != 409)
+        {
+            this.failures.incrementAndGet();
+        }
+    }
+
+    private static long lotOf(long section)
+    {
+        return section % 100;
+    }
+
+    private static long percentile(long[] sorted, double percentile)
+    {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args optionally the host, port, number of threads and number
+     *             of seconds, by default localhost, 8080, 16 and 10
+     */
+    public static void main(String[] args)
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        try
+        {
+            new PropertyLoadGenerator(host, port).run(threads, seconds);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not reach the server: " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash map from packed property keys (see {@link PropertyKey}) to
+ * properties. The keys are stored in a plain <code>long[]</code> using open
+ * addressing with linear probing, so neither storing nor looking up a
+ * property allocates any objects.
+ *
+ * Properties can not be removed from the register, hence the map
+ * does not support removal either.
+ */
+final class PropertyMap
+{
+    // Packed keys are never negative, so -1 marks a free slot.
+    private static final long FREE = -1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private Property[] values;
+    private int size;
+    private int resizeThreshold;
+    private int modificationCount;
+
+    /**
+     * Creates an empty map.
+     */
+    PropertyMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map with room for the given number of properties
+     * before it needs to grow.
+     *
+     * @param expectedSize the expected number of properties
+     */
+    PropertyMap(int expectedSize)
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity / 2 < expectedSize)
+        {
+            capacity *= 2;
+        }
+        this.allocate(capacity);
+    }
+
+    /**
+     * Returns the property stored for the given key, or <code>null</code>
+     * if there is none.
+     *
+     * @param key the packed key to look up
+     * @return the property, or <code>null</code> if not found
+     */
+    Property get(long key)
+    {
+        int mask = this.keys.length - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys[slot];
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return this.values[slot];
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the keys from <code>from</code> (inclusive) to <code>to</code>
+     * (exclusive), and stores the property found for each key, or
+     * <code>null</code>, at the same index in <code>results</code>.
+     *
+     * The lookups do not depend on each other, so the CPU can have several
+     * cache misses in flight at once. Sorting the keys by slot first was
+     * measured to be slower, since the sort costs more than it saves.
+     *
+     * @param keys the packed keys to look up
+     * @param from the index of the first key to look up
+     * @param to the index after the last key to look up
+     * @param results where to store the properties found
+     */
+    void getAll(long[] keys, int from, int to, Property[] results)
+    {
+        for (int i = from; i < to; i++)
+        {
+            results[i] = this.get(keys[i]);
+        }
+    }
+
+    /**
+     * Stores the property for the given key, unless the key is already
+     * in the map.
+     *
+     * @param key the packed key of the property
+     * @param property the property to store
+     * @return <code>true</code> if the property was stored,
+     *         <code>false</code> if the key was already in the map.
+     */
+    boolean putIfAbsent(long key, Property property)
+    {
+        int mask = this.keys.length - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys[slot];
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys[slot];
+        }
+        this.keys[slot] = key;
+        this.values[slot] = property;
+        this.size++;
+        this.modificationCount++;
+        if (this.size > this.resizeThreshold)
+        {
+            this.grow();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of properties in the map.
+     *
+     * @return the number of properties in the map
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of slots in the map. Together with valueAt(), this
+     * lets the slots be split into ranges that are processed in parallel.
+     *
+     * @return the number of slots
+     */
+    int capacity()
+    {
+        return this.values.length;
+    }
+
+    /**
+     * Returns the property stored in the given slot, or <code>null</code>
+     * if the slot is free.
+     *
+     * @param slot the slot, from 0 to capacity() - 1
+     * @return the property in the slot, or <code>null</code>
+     */
+    Property valueAt(int slot)
+    {
+        return this.values[slot];
+    }
+
+    /**
+     * Returns a number that changes every time a property is stored, so a
+     * caller can detect that the map was changed while it was reading it.
+     *
+     * @return the modification count
+     */
+    int modificationCount()
+    {
+        return this.modificationCount;
+    }
+
+    /**
+     * Returns an iterator over the properties in the map. The iterator
+     * fails with a ConcurrentModificationException if the map is changed
+     * while iterating, in the same way as the iterators of java.util.HashMap.
+     *
+     * @return an iterator over the properties in the map
+     */
+    Iterator<Property> iterator()
+    {
+        return new Iterator<Property>()
+        {
+            private final int expectedModificationCount = modificationCount;
+            private int nextSlot = this.findSlot(0);
+
+            private int findSlot(int from)
+            {
+                int slot = from;
+                while (slot < values.length && values[slot] == null)
+                {
+                    slot++;
+                }
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.nextSlot < values.length;
+            }
+
+            @Override
+            public Property next()
+            {
+                if (modificationCount != this.expectedModificationCount)
+                {
+                    throw new ConcurrentModificationException();
+                }
+                if (!this.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                Property property = values[this.nextSlot];
+                this.nextSlot = this.findSlot(this.nextSlot + 1);
+                return property;
+            }
+        };
+    }
+
+    /**
+     * Doubles the capacity of the map, and re-inserts all the properties.
+     */
+    private void grow()
+    {
+        long[] oldKeys = this.keys;
+        Property[] oldValues = this.values;
+        this.allocate(oldKeys.length * 2);
+        int mask = this.keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != FREE)
+            {
+                int slot = slotOf(oldKeys[i], mask);
+                while (this.keys[slot] != FREE)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocates empty key and value arrays of the given capacity.
+     *
+     * @param capacity the capacity, must be a power of two
+     */
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.values = new Property[capacity];
+        // Keep the load factor at 0.5 or lower, so probe sequences stay short
+        this.resizeThreshold = capacity / 2;
+    }
+
+    /**
+     * Returns the first slot to probe for a key. The key is spread with a
+     * multiplicative (Fibonacci) hash, since keys that only differ in the
+     * section number would otherwise cluster in neighbouring slots.
+     *
+     * @param key the packed key
+     * @param mask the capacity minus one
+     * @return the slot to start probing at
+     */
+    private static int slotOf(long key, int mask)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,72 @@
+package ntnu.idat2001;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of properties from a paged listing of a PropertyRegister (see
+ * PropertyRegister.getPage()). The properties are listed in the order of
+ * their ID: municipality number, lot number and section number.
+ *
+ * The continuation token is the packed key of the last property on the
+ * page, so the next page starts right after it. Since the listing does not
+ * depend on positions, the token stays valid while properties are added:
+ * a property added before the cursor is simply not included, and one added
+ * after it shows up on a later page.
+ */
+public final class PropertyPage
+{
+    /** The continuation token to use to get the first page. */
+    public static final long FIRST_PAGE = -1;
+
+    private final List<Property> properties;
+    private final long continuationToken;
+    private final boolean hasNextPage;
+
+    /**
+     * Creates a page.
+     *
+     * @param properties the properties on the page, not to be changed later
+     * @param continuationToken the token to use to get the next page
+     * @param hasNextPage <code>true</code> if there are more properties
+     *        after this page
+     */
+    PropertyPage(List<Property> properties, long continuationToken, boolean hasNextPage)
+    {
+        this.properties = Collections.unmodifiableList(properties);
+        this.continuationToken = continuationToken;
+        this.hasNextPage = hasNextPage;
+    }
+
+    /**
+     * Returns the properties on the page. The list can not be changed.
+     *
+     * @return the properties on the page
+     */
+    public List<Property> getProperties()
+    {
+        return this.properties;
+    }
+
+    /**
+     * Returns the token to pass to PropertyRegister.getPage() to get the
+     * next page.
+     *
+     * @return the continuation token
+     */
+    public long getContinuationToken()
+    {
+        return this.continuationToken;
+    }
+
+    /**
+     * Returns <code>true</code> if there were more properties after this page
+     * when the page was created.
+     *
+     * @return <code>true</code> if there is a next page
+     */
+    public boolean hasNextPage()
+    {
+        return this.hasNextPage;
+    }
+}
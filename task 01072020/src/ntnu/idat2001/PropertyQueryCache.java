@@ -0,0 +1,377 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A cache of the results of the searches on a PropertyRegister that are
+ * repeated over and over, such as finding all the properties of a lot or a
+ * municipality. The first search copies the properties found into an array,
+ * and later equal searches are answered from the array, until a change to
+ * the register affects the result.
+ *
+ * The cache listens to the register, and drops exactly the results that a
+ * change affects: adding a property drops the results for its lot number,
+ * its municipality, its lot in the municipality and its owner, and a
+ * transfer of ownership drops the results for the previous and the new
+ * owner. All other results stay cached.
+ *
+ * The size of the cache is bounded by a memory budget, estimated from the
+ * number of properties held by each result. When a new result would exceed
+ * the budget, the least recently used results are evicted first. A result
+ * larger than the whole budget is not cached.
+ *
+ * Like PropertyRegister, the cache is not thread-safe.
+ */
+public class PropertyQueryCache implements PropertyRegisterListener
+{
+    // Estimated size of a cached result apart from the properties: the
+    // map entry, the key, and the header of the array
+    private static final int ENTRY_OVERHEAD_BYTES = 40 + 32 + 16;
+    // Estimated size of a reference, with compressed references
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final int LOT = 1;
+    private static final int MUNICIPALITY = 2;
+    private static final int MUNICIPALITY_LOT = 3;
+    private static final int OWNER = 4;
+
+    private final PropertyRegister register;
+    private final long memoryBudget;
+    // In access order, so the first entry is the least recently used
+    private final LinkedHashMap<QueryKey, Property[]> results;
+    private long estimatedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates an empty cache. Use attach() to create a cache.
+     */
+    private PropertyQueryCache(PropertyRegister register, long memoryBudget)
+    {
+        this.register = register;
+        this.memoryBudget = memoryBudget;
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+        this.estimatedBytes = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+        this.invalidations = 0;
+    }
+
+    /**
+     * Creates a cache in front of the register.
+     *
+     * @param register the register to cache the search results of
+     * @param memoryBudget the largest number of bytes the cached results
+     *        should use, estimated
+     * @return the cache
+     * @throws IllegalArgumentException if the memory budget is not positive
+     */
+    public static PropertyQueryCache attach(PropertyRegister register, long memoryBudget)
+    {
+        if (memoryBudget <= 0)
+        {
+            throw new IllegalArgumentException("The memory budget must be positive");
+        }
+        PropertyQueryCache cache = new PropertyQueryCache(register, memoryBudget);
+        register.addListener(cache);
+        return cache;
+    }
+
+    /**
+     * Stops following the register, and empties the cache.
+     */
+    public void detach()
+    {
+        this.register.removeListener(this);
+        this.results.clear();
+        this.estimatedBytes = 0;
+    }
+
+    /**
+     * Finds all the properties that has the given lot number, see
+     * PropertyRegister.findAllPropertiesWithLotNumber().
+     *
+     * @param lotNumber the lot number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
+    {
+        return this.find(new QueryKey(LOT, lotNumber, null),
+                () -> this.register.findAllPropertiesWithLotNumber(lotNumber));
+    }
+
+    /**
+     * Finds all the properties in the municipality, see
+     * PropertyRegister.findByMunicipality().
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        return this.find(new QueryKey(MUNICIPALITY, municipalityNumber, null),
+                () -> this.register.findByMunicipality(municipalityNumber));
+    }
+
+    /**
+     * Finds all the properties of the given lot in the given municipality,
+     * see PropertyRegister.findByLot().
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByLot(int municipalityNumber, int lotNumber)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        // Out of range numbers can not be packed, and never match anything
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, 0))
+        {
+            foundProperties = this.find(
+                    new QueryKey(MUNICIPALITY_LOT, PropertyKey.pack(municipalityNumber, lotNumber, 0), null),
+                    () -> this.register.findByLot(municipalityNumber, lotNumber));
+        }
+        return foundProperties;
+    }
+
+    /**
+     * Finds all the properties owned by the owner with exactly the given
+     * name, see PropertyRegister.findByOwner().
+     *
+     * @param nameOfOwner the name of the owner
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByOwner(String nameOfOwner)
+    {
+        return this.find(new QueryKey(OWNER, 0, nameOfOwner),
+                () -> this.register.findByOwner(nameOfOwner));
+    }
+
+    @Override
+    public void propertyAdded(Property property)
+    {
+        this.invalidate(new QueryKey(LOT, property.getLotNumber(), null));
+        this.invalidate(new QueryKey(MUNICIPALITY, property.getMunicipalityNumber(), null));
+        this.invalidate(new QueryKey(MUNICIPALITY_LOT, PropertyKey.pack(
+                property.getMunicipalityNumber(), property.getLotNumber(), 0), null));
+        this.invalidate(new QueryKey(OWNER, 0, property.getNameOfOwner()));
+    }
+
+    @Override
+    public void ownerChanged(Property property, String previousOwner)
+    {
+        // The other results hold the same Property objects, which already
+        // have the new owner, so only the owner searches change
+        this.invalidate(new QueryKey(OWNER, 0, previousOwner));
+        this.invalidate(new QueryKey(OWNER, 0, property.getNameOfOwner()));
+    }
+
+    /**
+     * Returns the number of searches answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of searches that had to be made on the register.
+     *
+     * @return the number of misses
+     */
+    public long getMisses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the share of the searches answered from the cache, between
+     * 0 and 1.
+     *
+     * @return the hit rate
+     */
+    public double getHitRate()
+    {
+        double hitRate = 0;
+        long searches = this.hits + this.misses;
+        if (searches > 0)
+        {
+            hitRate = (double) this.hits / searches;
+        }
+        return hitRate;
+    }
+
+    /**
+     * Returns the number of results evicted to stay within the memory budget.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions()
+    {
+        return this.evictions;
+    }
+
+    /**
+     * Returns the number of results dropped because a change to the
+     * register affected them.
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidations()
+    {
+        return this.invalidations;
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     *
+     * @return the number of cached results
+     */
+    public int getSize()
+    {
+        return this.results.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the cached results,
+     * not counting the properties themselves, which belong to the register.
+     *
+     * @return the estimated number of bytes used
+     */
+    public long getEstimatedBytes()
+    {
+        return this.estimatedBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d results, ~%d KB of %d KB, %d hits, %d misses (%.1f %% hits), "
+                        + "%d evictions, %d invalidations",
+                this.getSize(), this.estimatedBytes / 1024, this.memoryBudget / 1024,
+                this.hits, this.misses, this.getHitRate() * 100, this.evictions, this.invalidations);
+    }
+
+    /**
+     * Returns the cached result of the search, or makes the search and
+     * caches the result.
+     */
+    private Iterator<Property> find(QueryKey key, Supplier<Iterator<Property>> search)
+    {
+        Property[] found = this.results.get(key);
+        if (null != found)
+        {
+            this.hits++;
+        }
+        else
+        {
+            this.misses++;
+            found = toArray(search.get());
+            long size = sizeOf(found);
+            if (size <= this.memoryBudget)
+            {
+                this.evictUntilFree(size);
+                this.results.put(key, found);
+                this.estimatedBytes += size;
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(found)).iterator();
+    }
+
+    /**
+     * Evicts the least recently used results until there is room for a
+     * result of the given size.
+     */
+    private void evictUntilFree(long size)
+    {
+        Iterator<Map.Entry<QueryKey, Property[]>> it = this.results.entrySet().iterator();
+        while (this.estimatedBytes + size > this.memoryBudget && it.hasNext())
+        {
+            this.estimatedBytes -= sizeOf(it.next().getValue());
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Drops the result of the search, if it is cached.
+     */
+    private void invalidate(QueryKey key)
+    {
+        Property[] removed = this.results.remove(key);
+        if (null != removed)
+        {
+            this.estimatedBytes -= sizeOf(removed);
+            this.invalidations++;
+        }
+    }
+
+    private static Property[] toArray(Iterator<Property> it)
+    {
+        Property[] found = new Property[8];
+        int count = 0;
+        while (it.hasNext())
+        {
+            if (count == found.length)
+            {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count] = it.next();
+            count++;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static long sizeOf(Property[] found)
+    {
+        return ENTRY_OVERHEAD_BYTES + (long) found.length * REFERENCE_BYTES;
+    }
+
+    /**
+     * Identifies a search: the kind of search and its parameters, either a
+     * number or an owner name.
+     */
+    private static final class QueryKey
+    {
+        private final int type;
+        private final long number;
+        private final String name;
+
+        QueryKey(int type, long number, String name)
+        {
+            this.type = type;
+            this.number = number;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            boolean equal = false;
+            if (other instanceof QueryKey)
+            {
+                QueryKey key = (QueryKey) other;
+                equal = this.type == key.type && this.number == key.number
+                        && Objects.equals(this.name, key.name);
+            }
+            return equal;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (31 * this.type + Long.hashCode(this.number)) * 31 + Objects.hashCode(this.name);
+        }
+    }
+}
@@ -1,7 +1,17 @@
 package ntnu.idat2001;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 
 /**
@@ -11,15 +21,78 @@ import java.util.Iterator;
  * @author arne
  */
 public class PropertyRegister {
-    // I choose to use a HashMap since all the properties
-    // have a unique single key identifying a property.
-    private final HashMap<String, Property> properties;
+    // I choose to use a hash map since all the properties
+    // have a unique single key identifying a property. The key is packed
+    // into a long (see PropertyKey), so no Strings are built to store
+    // or look up a property.
+    private final PropertyMap properties;
+    // Index from lot number to all the properties with that lot number,
+    // kept up to date by addProperty().
+    private final HashMap<Integer, PropertyList> propertiesByLotNumber;
+    // Sorted index on the packed key. Since the key is packed with the
+    // municipality number first, then the lot number and then the section
+    // number, all the properties of a municipality, or of a lot within a
+    // municipality, are found next to each other in this index.
+    private final KeyIndex propertiesInKeyOrder;
+    // Running area statistics for the whole register and per municipality,
+    // updated by addProperty() so they never have to be recalculated.
+    private final AreaStatistics areaStatistics;
+    private final HashMap<Integer, AreaStatistics> areaStatisticsByMunicipality;
+    // Index from the owner name in lower case to the properties of the
+    // owners with that name, sorted so a prefix of the name finds all the
+    // owners starting with it. Kept up to date by addProperty() and
+    // transferOwnership().
+    private final TreeMap<String, LinkedHashSet<Property>> propertiesByOwner;
+    // Index from municipality number to the properties of the municipality
+    // sorted by area, kept up to date by addProperty().
+    private final HashMap<Integer, AreaIndex> areaIndexByMunicipality;
+    // Notified about every change to the register
+    private final ArrayList<PropertyRegisterListener> listeners;
+    // Counts and times the calls to the hot methods, see getMetrics()
+    private final RegisterMetrics metrics;
+    // The number of transfers of ownership, so a report grouped by owner
+    // can detect a transfer made while it was calculated. Kept apart from
+    // the modification count of the map, since a transfer does not change
+    // the map, and must not fail its iterators.
+    private int ownerChangeCount;
+    
+    // The number of keys each core looks up in a parallel batch lookup
+    private static final int PARALLEL_BATCH_CHUNK_SIZE = 1 << 16;
 
     /**
      * Creates a new instance of the PropertyRegister.
      */
     public PropertyRegister() {
-        this.properties = new HashMap<>();
+        this.properties = new PropertyMap();
+        this.propertiesByLotNumber = new HashMap<>();
+        this.propertiesInKeyOrder = new KeyIndex();
+        this.areaStatistics = new AreaStatistics();
+        this.areaStatisticsByMunicipality = new HashMap<>();
+        this.propertiesByOwner = new TreeMap<>();
+        this.areaIndexByMunicipality = new HashMap<>();
+        this.listeners = new ArrayList<>();
+        this.metrics = new RegisterMetrics();
+        this.ownerChangeCount = 0;
+    }
+    
+    /**
+     * Adds a listener to be notified about changes to the register.
+     * 
+     * @param listener the listener to add
+     */
+    public void addListener(PropertyRegisterListener listener)
+    {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added by addListener().
+     * 
+     * @param listener the listener to remove
+     */
+    public void removeListener(PropertyRegisterListener listener)
+    {
+        this.listeners.remove(listener);
     }
     
     /**
@@ -33,11 +106,62 @@ public class PropertyRegister {
      *         <code>false</code> otherwise.
      */
     public boolean addProperty(Property property)
+    {
+        long start = this.metrics.start();
+        boolean success = this.properties.putIfAbsent(property.getPropertyKey(), property);
+        if (success)
+        {
+            this.propertiesByLotNumber
+                    .computeIfAbsent(property.getLotNumber(), lot -> new PropertyList())
+                    .add(property);
+            this.propertiesInKeyOrder.add(property);
+            this.areaStatistics.add(property.getArea());
+            this.areaStatisticsByMunicipality
+                    .computeIfAbsent(property.getMunicipalityNumber(), m -> new AreaStatistics())
+                    .add(property.getArea());
+            this.addToOwnerIndex(property);
+            this.areaIndexByMunicipality
+                    .computeIfAbsent(property.getMunicipalityNumber(), m -> new AreaIndex())
+                    .add(property);
+            for (PropertyRegisterListener listener : this.listeners)
+            {
+                listener.propertyAdded(property);
+            }
+        }
+        this.metrics.recordAdd(start, success);
+        return success;
+    }
+    
+    /**
+     * Transfers the ownership of the property matching the municipality
+     * number, lot number and section number to a new owner.
+     * This is the only way to change the owner of a property in the
+     * register, so that the change is seen by the owner index and the
+     * listeners of the register.
+     * 
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param nameOfNewOwner the name of the new owner
+     * @return <code>true</code> if the property was found and the ownership
+     *         transferred, <code>false</code> if no property was found.
+     */
+    public boolean transferOwnership(int municipalityNumber, int lotNumber, int sectionNumber,
+                                     String nameOfNewOwner)
     {
         boolean success = false;
-        if (!this.properties.containsKey(property.getPropertyIDAsString()))
+        Property property = this.findProperty(municipalityNumber, lotNumber, sectionNumber);
+        if (null != property)
         {
-            this.properties.put(property.getPropertyIDAsString(), property);
+            String previousOwner = property.getNameOfOwner();
+            this.removeFromOwnerIndex(property);
+            property.setNameOfOwner(nameOfNewOwner);
+            this.ownerChangeCount++;
+            this.addToOwnerIndex(property);
+            for (PropertyRegisterListener listener : this.listeners)
+            {
+                listener.ownerChanged(property, previousOwner);
+            }
             success = true;
         }
         return success;
@@ -51,54 +175,401 @@ public class PropertyRegister {
      * @param municipalityNumber the municipality number to be matched
      * @param lotNumber the lot number to be matched
      * @param sectionNumber the section number to be matched
-     * @return 
+     * @return the property found, or <code>null</code> if no property was found
      */
     public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
     {
+        long start = this.metrics.start();
         Property foundProperty = null;
 
-        String uniqueId = "" + municipalityNumber
-                + "-" + lotNumber
-                + "/" + sectionNumber;
-        
-        
-        foundProperty = this.properties.get(uniqueId);
-              
+        // Numbers out of range can never have been added to the register
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            foundProperty = this.properties.get(
+                    PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+
+        this.metrics.recordFind(start);
         return foundProperty;
     }
     
+    /**
+     * Looks up many properties at once. For each index i, the property
+     * matching <code>municipalityNumbers[i]</code>, <code>lotNumbers[i]</code>
+     * and <code>sectionNumbers[i]</code> is stored in <code>results[i]</code>,
+     * or <code>null</code> if no property was found.
+     * See findProperties(long[], Property[], boolean) for how the lookups
+     * are made.
+     * 
+     * @param municipalityNumbers the municipality numbers to be matched
+     * @param lotNumbers the lot numbers to be matched
+     * @param sectionNumbers the section numbers to be matched
+     * @param results where to store the properties found, at least as
+     *        long as the other arrays
+     * @param parallel if large batches should be split across the cores
+     * @throws IllegalArgumentException if the arrays are not of the same length
+     */
+    public void findProperties(int[] municipalityNumbers, int[] lotNumbers,
+                               int[] sectionNumbers, Property[] results, boolean parallel)
+    {
+        int count = municipalityNumbers.length;
+        if (lotNumbers.length != count || sectionNumbers.length != count)
+        {
+            throw new IllegalArgumentException("The number arrays must be of the same length");
+        }
+        long[] propertyKeys = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            // Out of range numbers are given a key that is never found
+            propertyKeys[i] = -1;
+            if (PropertyKey.isValid(municipalityNumbers[i], lotNumbers[i], sectionNumbers[i]))
+            {
+                propertyKeys[i] = PropertyKey.pack(municipalityNumbers[i],
+                        lotNumbers[i], sectionNumbers[i]);
+            }
+        }
+        this.findProperties(propertyKeys, results, parallel);
+    }
+    
+    /**
+     * Looks up many properties at once by their packed keys (see
+     * PropertyKey). For each index i, the property with the key
+     * <code>propertyKeys[i]</code> is stored in <code>results[i]</code>,
+     * or <code>null</code> if no property was found.
+     * 
+     * No objects are created per key, so this is cheaper than calling
+     * findProperty() in a loop. If <code>parallel</code> is <code>true</code>,
+     * large batches are split into chunks that are looked up on all the
+     * cores. The register must not be changed while the lookup is running.
+     * 
+     * @param propertyKeys the packed keys to look up
+     * @param results where to store the properties found, at least as long
+     *        as propertyKeys
+     * @param parallel if large batches should be split across the cores
+     * @throws IllegalArgumentException if results is shorter than propertyKeys
+     */
+    public void findProperties(long[] propertyKeys, Property[] results, boolean parallel)
+    {
+        int count = propertyKeys.length;
+        if (results.length < count)
+        {
+            throw new IllegalArgumentException("The results array is too short");
+        }
+        int chunks = (count + PARALLEL_BATCH_CHUNK_SIZE - 1) / PARALLEL_BATCH_CHUNK_SIZE;
+        if (parallel && chunks > 1)
+        {
+            // Only reads are made, so the chunks can safely run in parallel
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int from = chunk * PARALLEL_BATCH_CHUNK_SIZE;
+                int to = Math.min(count, from + PARALLEL_BATCH_CHUNK_SIZE);
+                this.properties.getAll(propertyKeys, from, to, results);
+            });
+        }
+        else
+        {
+            this.properties.getAll(propertyKeys, 0, count, results);
+        }
+    }
+    
     /**
      * Findes all the properties that has a lot number matching the lotnumber
      * provided as parameter.
-     * An iterator of the collection of found properties is returned.
+     * An iterator of the found properties is returned. The properties are
+     * read directly from the lot number index, so no collection is created.
+     * The metrics of the register (see getMetrics()) time finding the
+     * properties of the lot, not iterating over them, which is up to the
+     * caller.
      * 
      * @param lotNumber the lotNumber to search for
-     * @return an iterator of a collection of found properties. If no
+     * @return an iterator of the found properties. If no
      *         properties was found matching the parameter lotNumber, an
-     *         empty collection is returned.
+     *         empty iterator is returned.
      */
     public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
     {
-        /*
-        // Create a temperarely collection to store the found properties in
-        HashSet<Property> foundProperties = new HashSet<>();
-        for (Property property : this.properties.values())
+        long start = this.metrics.start();
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        PropertyList propertiesWithLotNumber = this.propertiesByLotNumber.get(lotNumber);
+        if (null != propertiesWithLotNumber)
+        {
+            foundProperties = propertiesWithLotNumber.iterator();
+        }
+        this.metrics.recordLotSearch(start);
+        return foundProperties;
+    }
+    
+    /**
+     * Finds all the properties in the municipality given by the parameter,
+     * sorted by lot number and section number.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @return an iterator of the found properties. If no properties were
+     *         found, an empty iterator is returned.
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        return this.findSectionRange(municipalityNumber,
+                0, PropertyKey.MAX_LOT_OR_SECTION_NUMBER,
+                0, PropertyKey.MAX_LOT_OR_SECTION_NUMBER);
+    }
+    
+    /**
+     * Finds all the properties (sections) of the given lot in the given
+     * municipality, sorted by section number.
+     * For example all sections of lot 77 in Gloppen (1445).
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @return an iterator of the found properties. If no properties were
+     *         found, an empty iterator is returned.
+     */
+    public Iterator<Property> findByLot(int municipalityNumber, int lotNumber)
+    {
+        return this.findSectionRange(municipalityNumber, lotNumber,
+                0, PropertyKey.MAX_LOT_OR_SECTION_NUMBER);
+    }
+    
+    /**
+     * Finds the properties of the given lot in the given municipality with
+     * a section number between <code>fromSectionNumber</code> and
+     * <code>toSectionNumber</code>, both inclusive, sorted by section number.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param lotNumber the lot number to search for
+     * @param fromSectionNumber the lowest section number to include
+     * @param toSectionNumber the highest section number to include
+     * @return an iterator of the found properties. If no properties were
+     *         found, an empty iterator is returned.
+     */
+    public Iterator<Property> findSectionRange(int municipalityNumber, int lotNumber,
+                                               int fromSectionNumber, int toSectionNumber)
+    {
+        return this.findSectionRange(municipalityNumber,
+                lotNumber, lotNumber,
+                fromSectionNumber, toSectionNumber);
+    }
+    
+    /**
+     * Returns an iterator over the sorted index, from the key given by the
+     * lowest lot and section number to the key given by the highest,
+     * both inclusive. The iterator reads directly from the index, so no
+     * collection is created.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param fromLotNumber the lowest lot number to include
+     * @param toLotNumber the highest lot number to include
+     * @param fromSectionNumber the lowest section number to include
+     * @param toSectionNumber the highest section number to include
+     * @return an iterator of the found properties
+     */
+    private Iterator<Property> findSectionRange(int municipalityNumber,
+                                                int fromLotNumber, int toLotNumber,
+                                                int fromSectionNumber, int toSectionNumber)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        int fromSection = Math.max(0, fromSectionNumber);
+        int toSection = Math.min(PropertyKey.MAX_LOT_OR_SECTION_NUMBER, toSectionNumber);
+        if (PropertyKey.isValid(municipalityNumber, fromLotNumber, fromSection)
+                && PropertyKey.isValid(municipalityNumber, toLotNumber, toSection)
+                && fromSection <= toSection)
         {
-            if (property.getLotNumber() != lotNumber)
+            long fromKey = PropertyKey.pack(municipalityNumber, fromLotNumber, fromSection);
+            long toKey = PropertyKey.pack(municipalityNumber, toLotNumber, toSection);
+            foundProperties = this.propertiesInKeyOrder.between(fromKey, toKey);
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Finds all the properties in the municipality with an area between
+     * <code>minArea</code> and <code>maxArea</code> square meters, both
+     * inclusive. The properties are returned in ascending order of area.
+     * The properties are found through a sorted area index, so only the
+     * properties in the range are looked at.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param minArea the smallest area to include, in square meters
+     * @param maxArea the largest area to include, in square meters
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByArea(int municipalityNumber, double minArea, double maxArea)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        AreaIndex areaIndex = this.areaIndexByMunicipality.get(municipalityNumber);
+        if (null != areaIndex)
+        {
+            foundProperties = areaIndex.between(minArea, maxArea);
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Returns the number of properties in the municipality with an area
+     * between <code>minArea</code> and <code>maxArea</code> square meters,
+     * both inclusive, without going through the properties.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param minArea the smallest area to include, in square meters
+     * @param maxArea the largest area to include, in square meters
+     * @return the number of properties in the area range
+     */
+    public int countByArea(int municipalityNumber, double minArea, double maxArea)
+    {
+        int count = 0;
+        AreaIndex areaIndex = this.areaIndexByMunicipality.get(municipalityNumber);
+        if (null != areaIndex)
+        {
+            count = areaIndex.countBetween(minArea, maxArea);
+        }
+        return count;
+    }
+    
+    /**
+     * Finds the <code>count</code> largest properties in the municipality,
+     * largest first. If the municipality has fewer properties, all of them
+     * are returned.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param count the largest number of properties to return
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findLargest(int municipalityNumber, int count)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        AreaIndex areaIndex = this.areaIndexByMunicipality.get(municipalityNumber);
+        if (null != areaIndex && count > 0)
+        {
+            foundProperties = areaIndex.largest(count);
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Finds the <code>count</code> smallest properties in the municipality,
+     * smallest first. If the municipality has fewer properties, all of them
+     * are returned.
+     * 
+     * @param municipalityNumber the municipality number to search for
+     * @param count the largest number of properties to return
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findSmallest(int municipalityNumber, int count)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        AreaIndex areaIndex = this.areaIndexByMunicipality.get(municipalityNumber);
+        if (null != areaIndex && count > 0)
+        {
+            foundProperties = areaIndex.smallest(count);
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Finds all the properties owned by the owner with exactly the given
+     * name. The properties are found through the owner index, so no scan
+     * of the register is needed.
+     * 
+     * @param nameOfOwner the name of the owner
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByOwner(String nameOfOwner)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        if (null != nameOfOwner)
+        {
+            LinkedHashSet<Property> ownerProperties =
+                    this.propertiesByOwner.get(ownerKeyOf(nameOfOwner));
+            if (null != ownerProperties)
             {
-                foundProperties.add(property);
+                // Owners whose names only differ in case share the set
+                foundProperties = new OwnerIterator(
+                        Collections.singleton(ownerProperties).iterator(), nameOfOwner);
+            }
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Finds all the properties owned by an owner whose name starts with the
+     * given prefix, ignoring case. The properties are returned owner by
+     * owner, in alphabetical order of the owner names.
+     * 
+     * @param prefix the start of the owner names to search for
+     * @return an iterator of the found properties, empty if the prefix is
+     *         <code>null</code>
+     */
+    public Iterator<Property> findByOwnerPrefix(String prefix)
+    {
+        Iterator<Property> foundProperties = Collections.emptyIterator();
+        if (null != prefix)
+        {
+            String keyPrefix = ownerKeyOf(prefix);
+            Iterator<LinkedHashSet<Property>> owners;
+            if (keyPrefix.isEmpty())
+            {
+                owners = this.propertiesByOwner.values().iterator();
+            }
+            else
+            {
+                // Every key starting with the prefix sorts before the prefix
+                // followed by the highest possible character
+                owners = this.propertiesByOwner
+                        .subMap(keyPrefix, true, keyPrefix + Character.MAX_VALUE, false)
+                        .values().iterator();
+            }
+            foundProperties = new OwnerIterator(owners, null);
+        }
+        return foundProperties;
+    }
+    
+    /**
+     * Adds the property to the owner index, if it has an owner.
+     * 
+     * @param property the property to add
+     */
+    private void addToOwnerIndex(Property property)
+    {
+        String nameOfOwner = property.getNameOfOwner();
+        if (null != nameOfOwner)
+        {
+            this.propertiesByOwner
+                    .computeIfAbsent(ownerKeyOf(nameOfOwner), owner -> new LinkedHashSet<>())
+                    .add(property);
+        }
+    }
+    
+    /**
+     * Removes the property from the owner index, if it has an owner.
+     * 
+     * @param property the property to remove
+     */
+    private void removeFromOwnerIndex(Property property)
+    {
+        String nameOfOwner = property.getNameOfOwner();
+        if (null != nameOfOwner)
+        {
+            String key = ownerKeyOf(nameOfOwner);
+            LinkedHashSet<Property> ownerProperties = this.propertiesByOwner.get(key);
+            if (null != ownerProperties)
+            {
+                ownerProperties.remove(property);
+                if (ownerProperties.isEmpty())
+                {
+                    this.propertiesByOwner.remove(key);
+                }
             }
         }
-        return foundProperties.iterator();
-
-         */
-        HashSet<Property> foundProperties = new HashSet<>();
-        this.properties.values()
-                .stream()
-                .filter(s -> s.getLotNumber() != lotNumber)
-                .forEach(s -> foundProperties.add(s));
-
-        return foundProperties.iterator();
+    }
+    
+    /**
+     * Returns the key of the owner name in the owner index.
+     * 
+     * @param nameOfOwner the name of the owner
+     * @return the name in lower case
+     */
+    private static String ownerKeyOf(String nameOfOwner)
+    {
+        return nameOfOwner.toLowerCase(Locale.ROOT);
     }
     
     /**
@@ -109,7 +580,38 @@ public class PropertyRegister {
      */
     public Iterator<Property> getIterator()
     {
-        return this.properties.values().iterator();
+        return this.properties.iterator();
+    }
+    
+    /**
+     * Returns one page of the properties in the register, in the order of
+     * their ID (municipality number, lot number, section number).
+     * Pass PropertyPage.FIRST_PAGE to get the first page, and the
+     * continuation token of a page to get the page after it. The token
+     * stays valid while properties are added, see PropertyPage.
+     * 
+     * @param continuationToken PropertyPage.FIRST_PAGE, or the continuation
+     *        token of the previous page
+     * @param pageSize the largest number of properties on the page
+     * @return the page
+     * @throws IllegalArgumentException if pageSize is less than 1
+     */
+    public PropertyPage getPage(long continuationToken, int pageSize)
+    {
+        if (pageSize < 1)
+        {
+            throw new IllegalArgumentException("The page size must be at least 1");
+        }
+        Iterator<Property> it = this.propertiesInKeyOrder.after(continuationToken);
+        List<Property> pageProperties = new ArrayList<>(Math.min(pageSize, 1024));
+        long lastKey = continuationToken;
+        while (it.hasNext() && pageProperties.size() < pageSize)
+        {
+            Property property = it.next();
+            pageProperties.add(property);
+            lastKey = property.getPropertyKey();
+        }
+        return new PropertyPage(pageProperties, lastKey, it.hasNext());
     }
     
     /**
@@ -121,11 +623,13 @@ public class PropertyRegister {
      */
     public double getAverageAreaOfProperties()
     {
+        long start = this.metrics.start();
         double averageArea = 0;
         if (this.properties.size() > 0)
         {
             averageArea = getSumOfAreas()/getNumberOfProperties();
         }
+        this.metrics.recordAggregation(start);
         return averageArea;
     }
     
@@ -136,19 +640,102 @@ public class PropertyRegister {
      */
     private double getSumOfAreas()
     {
-        /*
-        double sumOfAreas = 0;
-        for (Property property: this.properties.values())
+        return this.areaStatistics.getSum();
+    }
+    
+    /**
+     * Returns the area statistics (number of properties, and sum, minimum
+     * and maximum area) of all the properties in the given municipality.
+     * The statistics returned is a copy, and will not change when more
+     * properties are added to the register.
+     * If the municipality has no properties, empty statistics are returned.
+     * 
+     * @param municipalityNumber the municipality number
+     * @return the area statistics of the municipality
+     */
+    public AreaStatistics getAreaStatistics(int municipalityNumber)
+    {
+        long start = this.metrics.start();
+        AreaStatistics statistics = this.areaStatisticsByMunicipality.get(municipalityNumber);
+        if (null == statistics)
         {
-            sumOfAreas += property.getArea();
+            statistics = new AreaStatistics();
         }
-
-        return sumOfAreas;
-
-         */
-        this.properties.values()
-                .stream()
-                .reduce(0, (sumOfAreas, area)-> return sumOfAreas + area);
+        AreaStatistics copy = new AreaStatistics(statistics);
+        this.metrics.recordAggregation(start);
+        return copy;
+    }
+    
+    /**
+     * Returns a report of the areas of all the properties, grouped by
+     * municipality number. See AreaSummary for what each summary holds.
+     * The report is calculated on all the cores, and the register must
+     * not be changed while it is calculated.
+     * 
+     * @return the area report, grouped by municipality number
+     * @throws ConcurrentModificationException if the register was changed
+     *         while the report was calculated
+     */
+    public AreaReport<Integer> getAreaReportByMunicipality()
+    {
+        return this.getAreaReport(Property::getMunicipalityNumber, false);
+    }
+    
+    /**
+     * Returns a report of the areas of all the properties, grouped by lot
+     * (municipality number and lot number). The key of each group is the
+     * packed key of section 0 of the lot, see PropertyKey.municipalityNumberOf()
+     * and PropertyKey.lotNumberOf(). The register must not be changed while
+     * the report is calculated.
+     * 
+     * @return the area report, grouped by lot
+     * @throws ConcurrentModificationException if the register was changed
+     *         while the report was calculated
+     */
+    public AreaReport<Long> getAreaReportByLot()
+    {
+        return this.getAreaReport(property -> PropertyKey.pack(
+                property.getMunicipalityNumber(), property.getLotNumber(), 0), false);
+    }
+    
+    /**
+     * Returns a report of the areas of all the properties, grouped by the
+     * name of the owner. Properties without an owner are only included in
+     * the total. The register must not be changed while the report is
+     * calculated.
+     * 
+     * @return the area report, grouped by owner
+     * @throws ConcurrentModificationException if the register was changed
+     *         while the report was calculated
+     */
+    public AreaReport<String> getAreaReportByOwner()
+    {
+        return this.getAreaReport(Property::getNameOfOwner, true);
+    }
+    
+    /**
+     * Calculates an area report on the common fork/join pool.
+     * 
+     * @param grouping returns the group key of a property
+     * @param byOwner <code>true</code> if the properties are grouped by
+     *        owner, so a transfer of ownership changes the report
+     * @return the area report
+     */
+    private <K> AreaReport<K> getAreaReport(Function<Property, K> grouping, boolean byOwner)
+    {
+        long start = this.metrics.start();
+        int expectedModificationCount = this.properties.modificationCount();
+        int expectedOwnerChangeCount = this.ownerChangeCount;
+        AreaReportTask.PartialReport<K> result = ForkJoinPool.commonPool().invoke(
+                new AreaReportTask<>(this.properties, 0, this.properties.capacity(), grouping));
+        if (this.properties.modificationCount() != expectedModificationCount
+                || (byOwner && this.ownerChangeCount != expectedOwnerChangeCount))
+        {
+            throw new ConcurrentModificationException();
+        }
+        AreaReport<K> report = result.toReport();
+        this.metrics.recordAggregation(start);
+        return report;
     }
     
     /**
@@ -160,4 +747,109 @@ public class PropertyRegister {
     {
         return this.properties.size();
     }
+    
+    /**
+     * Returns a snapshot of the metrics of the register: the number of
+     * calls to and the times taken by addProperty(), findProperty(),
+     * findAllPropertiesWithLotNumber() and the area calculations, the number
+     * of duplicates rejected, and the number of properties.
+     * 
+     * @return the metrics of the register
+     */
+    public MetricsSnapshot getMetrics()
+    {
+        return this.metrics.snapshot(this.getNumberOfProperties());
+    }
+    
+    /**
+     * Turns the recording of the metrics on or off. The metrics are on when
+     * the register is created. Timing the calls costs two reads of the
+     * clock per call, which is noticeable next to the fastest methods, such
+     * as findProperty(), so turn the metrics off where every call counts,
+     * such as in benchmarks. While the metrics are off, nothing is recorded,
+     * and getMetrics() returns the metrics recorded so far.
+     * 
+     * @param enabled <code>true</code> to record the metrics
+     */
+    public void setMetricsEnabled(boolean enabled)
+    {
+        this.metrics.setEnabled(enabled);
+    }
+    
+    /**
+     * Returns whether the metrics of the register are recorded.
+     * 
+     * @return <code>true</code> if the metrics are recorded
+     */
+    public boolean isMetricsEnabled()
+    {
+        return this.metrics.isEnabled();
+    }
+    
+    /**
+     * Iterates over the properties of a sequence of owner sets from the
+     * owner index, optionally only those with an exact owner name.
+     * Like the iterators of java.util.HashMap, it fails if the register is
+     * changed while iterating.
+     */
+    private static final class OwnerIterator implements Iterator<Property>
+    {
+        private final Iterator<LinkedHashSet<Property>> owners;
+        private final String exactOwner;
+        private Iterator<Property> current;
+        private Property next;
+
+        /**
+         * @param owners the owner sets to iterate over
+         * @param exactOwner the owner name to match exactly, or
+         *        <code>null</code> to return all the properties
+         */
+        OwnerIterator(Iterator<LinkedHashSet<Property>> owners, String exactOwner)
+        {
+            this.owners = owners;
+            this.exactOwner = exactOwner;
+            this.current = Collections.emptyIterator();
+            this.next = this.findNext();
+        }
+
+        private Property findNext()
+        {
+            Property found = null;
+            while (null == found && (this.current.hasNext() || this.owners.hasNext()))
+            {
+                if (!this.current.hasNext())
+                {
+                    this.current = this.owners.next().iterator();
+                }
+                else
+                {
+                    Property property = this.current.next();
+                    if (null == this.exactOwner
+                            || this.exactOwner.equals(property.getNameOfOwner()))
+                    {
+                        found = property;
+                    }
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return null != this.next;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (null == this.next)
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = this.next;
+            this.next = this.findNext();
+            return property;
+        }
+    }
 }
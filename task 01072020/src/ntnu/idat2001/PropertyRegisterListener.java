@@ -0,0 +1,29 @@
+package ntnu.idat2001;
+
+/**
+ * Is notified about changes to a PropertyRegister. Used by the parts of the
+ * application that need to follow the register as it changes, such as the
+ * write-ahead log.
+ *
+ * The methods are called by the thread changing the register, after the
+ * change has been made, so they should return quickly.
+ */
+public interface PropertyRegisterListener
+{
+    /**
+     * Called when a property has been added to the register.
+     *
+     * @param property the property that was added
+     */
+    void propertyAdded(Property property);
+
+    /**
+     * Called when the owner of a property in the register has changed
+     * through <code>PropertyRegister.transferOwnership()</code>.
+     *
+     * @param property the property, already holding the new owner
+     * @param previousOwner the name of the previous owner, or
+     *        <code>null</code> if the property had no owner
+     */
+    void ownerChanged(Property property, String previousOwner);
+}
@@ -0,0 +1,200 @@
+package ntnu.idat2001;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, point-in-time view of a VersionedPropertyRegister.
+ * A snapshot never changes, even while properties are added to or
+ * transferred in the register, so a long-running report can iterate over
+ * a snapshot while the register is being loaded, without locking and
+ * without ConcurrentModificationException.
+ *
+ * The Property objects in a snapshot must not be changed; change the
+ * owner through VersionedPropertyRegister.transferOwnership() instead.
+ */
+public final class PropertyRegisterSnapshot
+{
+    private final long version;
+    private final PersistentPropertyMap properties;
+    private final AreaStatistics areaStatistics;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param version the version number of the snapshot
+     * @param properties the properties in the snapshot
+     * @param areaStatistics the area statistics of the properties,
+     *        not to be changed later
+     */
+    PropertyRegisterSnapshot(long version, PersistentPropertyMap properties,
+                             AreaStatistics areaStatistics)
+    {
+        this.version = version;
+        this.properties = properties;
+        this.areaStatistics = areaStatistics;
+    }
+
+    /**
+     * Returns the version number of the snapshot. The number increases by
+     * one for every change made to the register (or batch of properties
+     * added), so a higher number means a newer snapshot.
+     *
+     * @return the version number
+     */
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Searches the snapshot for the property matching the municipality number,
+     * lot number and section number provided by the parameters.
+     * If no property found, <code>null</code> is returned.
+     *
+     * @param municipalityNumber the municipality number to be matched
+     * @param lotNumber the lot number to be matched
+     * @param sectionNumber the section number to be matched
+     * @return the property found, or <code>null</code> if no property was found
+     */
+    public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        Property foundProperty = null;
+        if (PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber))
+        {
+            foundProperty = this.properties.get(
+                    PropertyKey.pack(municipalityNumber, lotNumber, sectionNumber));
+        }
+        return foundProperty;
+    }
+
+    /**
+     * Findes all the properties that has a lot number matching the lotnumber
+     * provided as parameter. The snapshot has no lot index, so the
+     * properties are scanned as the iterator is used.
+     *
+     * @param lotNumber the lotNumber to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findAllPropertiesWithLotNumber(int lotNumber)
+    {
+        return new FilterIterator(this.properties.iterator(),
+                property -> property.getLotNumber() == lotNumber);
+    }
+
+    /**
+     * Finds all the properties in the municipality given by the parameter.
+     * The properties are scanned as the iterator is used.
+     *
+     * @param municipalityNumber the municipality number to search for
+     * @return an iterator of the found properties
+     */
+    public Iterator<Property> findByMunicipality(int municipalityNumber)
+    {
+        return new FilterIterator(this.properties.iterator(),
+                property -> property.getMunicipalityNumber() == municipalityNumber);
+    }
+
+    /**
+     * Returns an iterator over all the properties in the snapshot,
+     * in no particular order.
+     *
+     * @return an iterator to iterate over the properties in the snapshot.
+     */
+    public Iterator<Property> getIterator()
+    {
+        return this.properties.iterator();
+    }
+
+    /**
+     * Returns the average area of all the properties in the snapshot.
+     * The average area is given in square meters.
+     * If the snapshot does not contain any properties, 0 is returned.
+     *
+     * @return the average area in square meters
+     */
+    public double getAverageAreaOfProperties()
+    {
+        return this.areaStatistics.getAverage();
+    }
+
+    /**
+     * Returns the area statistics of all the properties in the snapshot.
+     *
+     * @return a copy of the area statistics
+     */
+    public AreaStatistics getAreaStatistics()
+    {
+        return new AreaStatistics(this.areaStatistics);
+    }
+
+    /**
+     * Returns the number of properties in the snapshot.
+     *
+     * @return the number of properties in the snapshot.
+     */
+    public int getNumberOfProperties()
+    {
+        return this.properties.size();
+    }
+
+    /**
+     * Returns the map holding the properties, for building the next version.
+     *
+     * @return the properties in the snapshot
+     */
+    PersistentPropertyMap getProperties()
+    {
+        return this.properties;
+    }
+
+    /**
+     * Returns the properties of an iterator that match a condition.
+     */
+    private static final class FilterIterator implements Iterator<Property>
+    {
+        private final Iterator<Property> properties;
+        private final Predicate<Property> condition;
+        private Property next;
+
+        FilterIterator(Iterator<Property> properties, Predicate<Property> condition)
+        {
+            this.properties = properties;
+            this.condition = condition;
+            this.next = this.findNext();
+        }
+
+        private Property findNext()
+        {
+            Property found = null;
+            while (null == found && this.properties.hasNext())
+            {
+                Property property = this.properties.next();
+                if (this.condition.test(property))
+                {
+                    found = property;
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return null != this.next;
+        }
+
+        @Override
+        public Property next()
+        {
+            if (null == this.next)
+            {
+                throw new NoSuchElementException();
+            }
+            Property property = this.next;
+            this.next = this.findNext();
+            return property;
+        }
+    }
+}
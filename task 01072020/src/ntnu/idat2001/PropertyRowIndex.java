@@ -0,0 +1,125 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from packed property keys (see {@link PropertyKey}) to row
+ * numbers, used by the column oriented register to find the row holding
+ * a property. Works like PropertyMap, with open addressing over primitive
+ * arrays, but stores an <code>int</code> row instead of a Property.
+ */
+final class PropertyRowIndex
+{
+    /** Returned by get() when the key is not in the index. */
+    static final int NO_ROW = -1;
+
+    // Packed keys are never negative, so -1 marks a free slot.
+    private static final long FREE = -1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] rows;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Creates an empty index.
+     */
+    PropertyRowIndex()
+    {
+        this.allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the row stored for the given key.
+     *
+     * @param key the packed key to look up
+     * @return the row, or NO_ROW if the key is not in the index
+     */
+    int get(long key)
+    {
+        int mask = this.keys.length - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys[slot];
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return this.rows[slot];
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys[slot];
+        }
+        return NO_ROW;
+    }
+
+    /**
+     * Stores the row for the given key, unless the key is already in the index.
+     *
+     * @param key the packed key
+     * @param row the row holding the property
+     * @return <code>true</code> if the row was stored,
+     *         <code>false</code> if the key was already in the index.
+     */
+    boolean putIfAbsent(long key, int row)
+    {
+        int mask = this.keys.length - 1;
+        int slot = slotOf(key, mask);
+        long slotKey = this.keys[slot];
+        while (slotKey != FREE)
+        {
+            if (slotKey == key)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+            slotKey = this.keys[slot];
+        }
+        this.keys[slot] = key;
+        this.rows[slot] = row;
+        this.size++;
+        if (this.size > this.resizeThreshold)
+        {
+            this.grow();
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the capacity of the index, and re-inserts all the keys.
+     */
+    private void grow()
+    {
+        long[] oldKeys = this.keys;
+        int[] oldRows = this.rows;
+        this.allocate(oldKeys.length * 2);
+        int mask = this.keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != FREE)
+            {
+                int slot = slotOf(oldKeys[i], mask);
+                while (this.keys[slot] != FREE)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.rows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.rows = new int[capacity];
+        this.resizeThreshold = capacity / 2;
+    }
+
+    private static int slotOf(long key, int mask)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
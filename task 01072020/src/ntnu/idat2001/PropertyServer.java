@@ -0,0 +1,318 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server answering queries against a ConcurrentPropertyRegister,
+ * so other programs on the host can use the register without the console UI.
+ * All the responses are compact JSON, using the same property objects as
+ * the JSON lines export (see PropertyExporter).
+ *
+ * The server handles these requests:
+ * <ul>
+ * <li><code>GET /property?municipality=1445&amp;lot=77&amp;section=131</code>
+ * - the property, or 404 if not found</li>
+ * <li><code>GET /lot?lot=77</code> - all the properties with the lot number,
+ * or only those in one municipality with <code>&amp;municipality=1445</code></li>
+ * <li><code>GET /average</code> - the average area and the number of properties</li>
+ * <li><code>POST /property</code> with a CSV line as the body (see
+ * PropertyCsvParser) - adds the property, answering 201 if it was added,
+ * 409 if it was already in the register, or 400 if the line is malformed</li>
+ * <li><code>POST /owner?municipality=1445&amp;lot=77&amp;section=131</code>
+ * with the name of the new owner as the body - transfers the ownership of
+ * the property, answering with the property, or 404 if not found</li>
+ * </ul>
+ *
+ * The connections are accepted by the HTTP server's own thread, and the
+ * requests are handled by a fixed pool of worker threads. The register is
+ * thread-safe and searches take no locks, so the workers never wait for
+ * each other.
+ */
+public class PropertyServer
+{
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    // The number of connections waiting to be accepted before new ones
+    // are refused
+    private static final int BACKLOG = 1024;
+
+    static
+    {
+        // Without TCP_NODELAY, small responses wait for the client's delayed
+        // ACK, which limits each connection to about 25 requests a second.
+        // The JDK server reads this property when the first server is created.
+        if (null == System.getProperty("sun.net.httpserver.nodelay"))
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ConcurrentPropertyRegister register;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    // Each worker thread parses posted properties with its own parser
+    private final ThreadLocal<PropertyCsvParser> parsers;
+
+    /**
+     * Creates a server for the register, listening on the given address.
+     * The server does not answer requests until start() is called.
+     *
+     * @param register the register to query
+     * @param address the address to listen on; port 0 picks a free port
+     * @param workerThreads the number of threads handling requests
+     * @throws IOException if the server can not listen on the address
+     */
+    public PropertyServer(ConcurrentPropertyRegister register, InetSocketAddress address,
+                          int workerThreads) throws IOException
+    {
+        this.register = register;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        this.parsers = ThreadLocal.withInitial(PropertyCsvParser::new);
+        this.server.setExecutor(this.workers);
+        this.server.createContext("/property", this::handleProperty);
+        this.server.createContext("/lot", this::handleLot);
+        this.server.createContext("/average", this::handleAverage);
+        this.server.createContext("/owner", this::handleOwner);
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start()
+    {
+        this.server.start();
+    }
+
+    /**
+     * Stops the server, giving the requests being handled up to a second
+     * to finish.
+     */
+    public void stop()
+    {
+        this.server.stop(1);
+        this.workers.shutdown();
+        try
+        {
+            this.workers.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the address the server listens on.
+     *
+     * @return the address of the server
+     */
+    public InetSocketAddress getAddress()
+    {
+        return this.server.getAddress();
+    }
+
+    private void handleProperty(HttpExchange exchange) throws IOException
+    {
+        if (exchange.getRequestMethod().equals("POST"))
+        {
+            this.addProperty(exchange);
+        }
+        else
+        {
+            HashMap<String, Integer> parameters = parseQuery(exchange);
+            Integer municipalityNumber = parameters.get("municipality");
+            Integer lotNumber = parameters.get("lot");
+            Integer sectionNumber = parameters.get("section");
+            if (null == municipalityNumber || null == lotNumber || null == sectionNumber)
+            {
+                sendError(exchange, 400, "municipality, lot and section must be numbers");
+            }
+            else
+            {
+                Property property = this.register.findProperty(municipalityNumber,
+                        lotNumber, sectionNumber);
+                if (null == property)
+                {
+                    sendError(exchange, 404, "No property found");
+                }
+                else
+                {
+                    StringBuilder json = new StringBuilder(256);
+                    PropertyExporter.appendJson(json, property);
+                    send(exchange, 200, json);
+                }
+            }
+        }
+    }
+
+    private void addProperty(HttpExchange exchange) throws IOException
+    {
+        byte[] body;
+        try (InputStream input = exchange.getRequestBody())
+        {
+            body = input.readAllBytes();
+        }
+        int length = body.length;
+        while (length > 0 && (body[length - 1] == '\n' || body[length - 1] == '\r'))
+        {
+            length--;
+        }
+        Property property = this.parsers.get().parseLine(ByteBuffer.wrap(body), 0, length);
+        if (null == property)
+        {
+            sendError(exchange, 400, "Malformed property");
+        }
+        else if (this.register.addProperty(property))
+        {
+            send(exchange, 201, new StringBuilder("{\"added\":true}"));
+        }
+        else
+        {
+            sendError(exchange, 409, "The property is already in the register");
+        }
+    }
+
+    private void handleLot(HttpExchange exchange) throws IOException
+    {
+        HashMap<String, Integer> parameters = parseQuery(exchange);
+        Integer lotNumber = parameters.get("lot");
+        Integer municipalityNumber = parameters.get("municipality");
+        if (null == lotNumber)
+        {
+            sendError(exchange, 400, "lot must be a number");
+        }
+        else
+        {
+            Iterator<Property> it;
+            if (null == municipalityNumber)
+            {
+                it = this.register.findAllPropertiesWithLotNumber(lotNumber);
+            }
+            else
+            {
+                it = this.register.findByLot(municipalityNumber, lotNumber);
+            }
+            StringBuilder json = new StringBuilder(1024);
+            json.append('[');
+            while (it.hasNext())
+            {
+                PropertyExporter.appendJson(json, it.next());
+                if (it.hasNext())
+                {
+                    json.append(',');
+                }
+            }
+            json.append(']');
+            send(exchange, 200, json);
+        }
+    }
+
+    private void handleOwner(HttpExchange exchange) throws IOException
+    {
+        HashMap<String, Integer> parameters = parseQuery(exchange);
+        Integer municipalityNumber = parameters.get("municipality");
+        Integer lotNumber = parameters.get("lot");
+        Integer sectionNumber = parameters.get("section");
+        String nameOfNewOwner;
+        try (InputStream input = exchange.getRequestBody())
+        {
+            nameOfNewOwner = new String(input.readAllBytes(), StandardCharsets.UTF_8).strip();
+        }
+        if (!exchange.getRequestMethod().equals("POST"))
+        {
+            sendError(exchange, 405, "Use POST to transfer the ownership");
+        }
+        else if (null == municipalityNumber || null == lotNumber || null == sectionNumber)
+        {
+            sendError(exchange, 400, "municipality, lot and section must be numbers");
+        }
+        else if (nameOfNewOwner.isEmpty())
+        {
+            sendError(exchange, 400, "The name of the new owner is missing");
+        }
+        else if (this.register.transferOwnership(municipalityNumber, lotNumber, sectionNumber,
+                nameOfNewOwner))
+        {
+            StringBuilder json = new StringBuilder(256);
+            PropertyExporter.appendJson(json, this.register.findProperty(municipalityNumber,
+                    lotNumber, sectionNumber));
+            send(exchange, 200, json);
+        }
+        else
+        {
+            sendError(exchange, 404, "No property found");
+        }
+    }
+
+    private void handleAverage(HttpExchange exchange) throws IOException
+    {
+        StringBuilder json = new StringBuilder(64);
+        json.append("{\"averageArea\":");
+        PropertyExporter.appendJsonNumber(json, this.register.getAverageAreaOfProperties());
+        json.append(",\"numberOfProperties\":")
+                .append(this.register.getNumberOfProperties()).append('}');
+        send(exchange, 200, json);
+    }
+
+    /**
+     * Parses the parameters of the query string. Only whole number values
+     * are kept, since those are the only parameters the server uses.
+     */
+    private static HashMap<String, Integer> parseQuery(HttpExchange exchange)
+    {
+        HashMap<String, Integer> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (null != query)
+        {
+            for (String parameter : query.split("&"))
+            {
+                int equals = parameter.indexOf('=');
+                if (equals > 0)
+                {
+                    try
+                    {
+                        parameters.put(parameter.substring(0, equals),
+                                Integer.parseInt(parameter.substring(equals + 1)));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        // Left out, so the handler reports it as missing
+                    }
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException
+    {
+        // The messages are constants without characters that need escaping
+        send(exchange, status, new StringBuilder("{\"error\":\"").append(message).append("\"}"));
+    }
+
+    private static void send(HttpExchange exchange, int status, StringBuilder json)
+            throws IOException
+    {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody())
+        {
+            output.write(body);
+        }
+    }
+}
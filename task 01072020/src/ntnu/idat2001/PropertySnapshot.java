@@ -0,0 +1,361 @@
+package ntnu.idat2001;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Saves a PropertyRegister to, and loads it from, a compact binary
+ * snapshot file, so a large register does not have to be re-imported
+ * on every start.
+ *
+ * The file is column oriented. After the header comes a string table
+ * holding every distinct string (municipality names, property names and
+ * owners) once, followed by one column per field: the municipality, lot
+ * and section numbers and the area as primitive columns, and the strings
+ * as indexes into the string table. All values are little-endian.
+ * <pre>
+ * int magic, int version, int propertyCount, int stringCount
+ * stringCount x (int byteLength, UTF-8 bytes)
+ * int[propertyCount] municipalityNumber
+ * int[propertyCount] lotNumber
+ * int[propertyCount] sectionNumber
+ * double[propertyCount] area
+ * int[propertyCount] municipalityName (string index, or -1 if none)
+ * int[propertyCount] name (string index, or -1 if none)
+ * int[propertyCount] nameOfOwner (string index, or -1 if no owner)
+ * </pre>
+ */
+public final class PropertySnapshot
+{
+    private static final int MAGIC = 0x50524547; // "PREG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    // The largest part of a snapshot file mapped into memory at a time
+    private static final int MAP_WINDOW_SIZE = 1 << 28;
+
+    /**
+     * This class only holds static methods, hence no instances.
+     */
+    private PropertySnapshot()
+    {
+    }
+
+    /**
+     * Saves all the properties in the register to a snapshot file.
+     * The snapshot is first written to a temporary file, which then replaces
+     * the file, so an existing snapshot is never left half written.
+     *
+     * @param register the register to save
+     * @param file the snapshot file to write
+     * @throws IOException if the file can not be written
+     */
+    public static void save(PropertyRegister register, Path file) throws IOException
+    {
+        int count = register.getNumberOfProperties();
+        int[] municipalityNumbers = new int[count];
+        int[] lotNumbers = new int[count];
+        int[] sectionNumbers = new int[count];
+        double[] areas = new double[count];
+        int[] municipalityNames = new int[count];
+        int[] names = new int[count];
+        int[] owners = new int[count];
+        StringDictionary strings = new StringDictionary();
+
+        Iterator<Property> it = register.getIterator();
+        int row = 0;
+        while (it.hasNext())
+        {
+            Property property = it.next();
+            municipalityNumbers[row] = property.getMunicipalityNumber();
+            lotNumbers[row] = property.getLotNumber();
+            sectionNumbers[row] = property.getSectionNumber();
+            areas[row] = property.getArea();
+            municipalityNames[row] = strings.idOf(property.getMunicipalityName());
+            names[row] = strings.idOf(property.getName());
+            owners[row] = strings.idOf(property.getNameOfOwner());
+            row++;
+        }
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE))
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(strings.size());
+            for (int id = 0; id < strings.size(); id++)
+            {
+                byte[] string = strings.stringOf(id).getBytes(StandardCharsets.UTF_8);
+                ensureRoom(channel, buffer, Integer.BYTES);
+                buffer.putInt(string.length);
+                int offset = 0;
+                while (offset < string.length)
+                {
+                    ensureRoom(channel, buffer, 1);
+                    int length = Math.min(buffer.remaining(), string.length - offset);
+                    buffer.put(string, offset, length);
+                    offset += length;
+                }
+            }
+            writeColumn(channel, buffer, municipalityNumbers);
+            writeColumn(channel, buffer, lotNumbers);
+            writeColumn(channel, buffer, sectionNumbers);
+            writeColumn(channel, buffer, areas);
+            writeColumn(channel, buffer, municipalityNames);
+            writeColumn(channel, buffer, names);
+            writeColumn(channel, buffer, owners);
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporaryFile, file,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a register from a snapshot file.
+     *
+     * @param file the snapshot file to read
+     * @return a new register holding all the properties in the snapshot
+     * @throws IOException if the file can not be read, or is not a
+     *         snapshot of a supported version
+     */
+    public static PropertyRegister load(Path file) throws IOException
+    {
+        PropertyRegister register = new PropertyRegister();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+            {
+                throw new IOException(file + " is not a property snapshot");
+            }
+            MappedReader reader = new MappedReader(channel);
+            if (reader.getInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a property snapshot");
+            }
+            int version = reader.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            int count = reader.getInt();
+            int stringCount = reader.getInt();
+
+            String[] strings = new String[stringCount];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < stringCount; i++)
+            {
+                int length = reader.getInt();
+                if (length > bytes.length)
+                {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                reader.get(bytes, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int[] municipalityNumbers = reader.getInts(count);
+            int[] lotNumbers = reader.getInts(count);
+            int[] sectionNumbers = reader.getInts(count);
+            double[] areas = reader.getDoubles(count);
+            int[] municipalityNames = reader.getInts(count);
+            int[] names = reader.getInts(count);
+            int[] owners = reader.getInts(count);
+
+            for (int row = 0; row < count; row++)
+            {
+                Property property = new Property(municipalityNumbers[row],
+                        stringOf(strings, municipalityNames[row]),
+                        lotNumbers[row], sectionNumbers[row],
+                        stringOf(strings, names[row]), areas[row]);
+                if (owners[row] != StringDictionary.NO_STRING)
+                {
+                    property.setNameOfOwner(strings[owners[row]]);
+                }
+                register.addProperty(property);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // A truncated or corrupt file shows up as buffer underflows or
+            // string indexes out of range
+            throw new IOException("Corrupt property snapshot " + file, e);
+        }
+        return register;
+    }
+
+    /**
+     * Returns the string with the given index in the string table, or
+     * <code>null</code> if the index is -1.
+     */
+    private static String stringOf(String[] strings, int id)
+    {
+        return id == StringDictionary.NO_STRING ? null : strings[id];
+    }
+
+    /**
+     * Writes a column of ints through the buffer.
+     */
+    private static void writeColumn(FileChannel channel, ByteBuffer buffer, int[] column)
+            throws IOException
+    {
+        int offset = 0;
+        while (offset < column.length)
+        {
+            ensureRoom(channel, buffer, Integer.BYTES);
+            int length = Math.min(buffer.remaining() / Integer.BYTES, column.length - offset);
+            buffer.asIntBuffer().put(column, offset, length);
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes a column of doubles through the buffer.
+     */
+    private static void writeColumn(FileChannel channel, ByteBuffer buffer, double[] column)
+            throws IOException
+    {
+        int offset = 0;
+        while (offset < column.length)
+        {
+            ensureRoom(channel, buffer, Double.BYTES);
+            int length = Math.min(buffer.remaining() / Double.BYTES, column.length - offset);
+            buffer.asDoubleBuffer().put(column, offset, length);
+            buffer.position(buffer.position() + length * Double.BYTES);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes the buffer to the channel if it has less than the given
+     * number of bytes left.
+     */
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException
+    {
+        if (buffer.remaining() < bytes)
+        {
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the channel, and clears the buffer.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads a snapshot file through a window mapped into memory, which is
+     * moved along the file as it is read, so files larger than a single
+     * mapping (2 GB) can be read.
+     */
+    private static final class MappedReader
+    {
+        private final FileChannel channel;
+        // The position in the file of the start of the window
+        private long windowStart;
+        private ByteBuffer window;
+
+        MappedReader(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.windowStart = 0;
+            this.window = this.map(0);
+        }
+
+        int getInt() throws IOException
+        {
+            this.ensureAvailable(Integer.BYTES);
+            return this.window.getInt();
+        }
+
+        void get(byte[] bytes, int length) throws IOException
+        {
+            int offset = 0;
+            while (offset < length)
+            {
+                this.ensureAvailable(1);
+                int chunk = Math.min(this.window.remaining(), length - offset);
+                this.window.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        int[] getInts(int count) throws IOException
+        {
+            int[] column = new int[count];
+            int offset = 0;
+            while (offset < count)
+            {
+                this.ensureAvailable(Integer.BYTES);
+                int chunk = Math.min(this.window.remaining() / Integer.BYTES, count - offset);
+                this.window.asIntBuffer().get(column, offset, chunk);
+                this.window.position(this.window.position() + chunk * Integer.BYTES);
+                offset += chunk;
+            }
+            return column;
+        }
+
+        double[] getDoubles(int count) throws IOException
+        {
+            double[] column = new double[count];
+            int offset = 0;
+            while (offset < count)
+            {
+                this.ensureAvailable(Double.BYTES);
+                int chunk = Math.min(this.window.remaining() / Double.BYTES, count - offset);
+                this.window.asDoubleBuffer().get(column, offset, chunk);
+                this.window.position(this.window.position() + chunk * Double.BYTES);
+                offset += chunk;
+            }
+            return column;
+        }
+
+        /**
+         * Moves the window to start at the current position if it has less
+         * than the given number of bytes left.
+         *
+         * @throws BufferUnderflowException if the file ends before that
+         */
+        private void ensureAvailable(int bytes) throws IOException
+        {
+            if (this.window.remaining() < bytes)
+            {
+                this.windowStart += this.window.position();
+                this.window = this.map(this.windowStart);
+                if (this.window.remaining() < bytes)
+                {
+                    throw new BufferUnderflowException();
+                }
+            }
+        }
+
+        private ByteBuffer map(long start) throws IOException
+        {
+            long size = Math.min(MAP_WINDOW_SIZE, this.channel.size() - start);
+            MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            return mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package ntnu.idat2001;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * An inverted index over the names and municipality names of the
+ * properties of a PropertyRegister, for searching by whole or partial
+ * names. Building the index costs time and memory on every add, so a
+ * register has no text index unless one is attached with attach(); the
+ * index then listens to the register and indexes each property added.
+ *
+ * The properties are numbered in the order they are added. The names are
+ * split into words, and each distinct word has a compressed list of the
+ * numbers of the properties with the word in their name (see PostingList).
+ * The words themselves are indexed by their trigrams (the three-letter
+ * pieces of the word) plus the first two letters marked as the start of the
+ * word. A search term of three or more letters finds the words containing
+ * all its trigrams, so it matches anywhere in a word; a term of two letters
+ * matches the start of a word.
+ *
+ * Municipality names are shared by thousands of properties, so instead of
+ * indexing them per property, the few hundred distinct names are searched
+ * directly, and each municipality keeps a list of its properties.
+ *
+ * Every term of a search must match, either the name or the municipality
+ * name. The results are ranked: a term equal to a word of the name scores
+ * highest, then a term starting a word, then a term inside a word, and a
+ * term only matching the municipality name scores lowest. The lists are
+ * merged lazily, best scores first, so a search stops as soon as it has
+ * enough results, however many properties match.
+ *
+ * Each term can match with one of four scores, so the combinations of
+ * scores grow exponentially with the number of terms. They are therefore
+ * generated one at a time, best total first, only as long as more results
+ * are wanted, and only the first MAX_TERMS terms of a query are used.
+ */
+public final class PropertyTextIndex implements PropertyRegisterListener
+{
+    // Marks the start of a word in a trigram
+    private static final char WORD_START = '^';
+    // The scores of the kinds of match, as whole numbers so they add up
+    // exactly: an exact word, the start of a word, inside a word, and the
+    // municipality name
+    private static final int EXACT_WORD_SCORE = 6;
+    private static final int WORD_PREFIX_SCORE = 4;
+    private static final int SUBSTRING_SCORE = 2;
+    private static final int MUNICIPALITY_SCORE = 1;
+    // The largest number of terms of a query that are searched for
+    static final int MAX_TERMS = 8;
+
+    private final PropertyRegister register;
+    private Property[] properties;
+    private int size;
+    // The distinct words of the names, and the properties having each word
+    private final HashMap<String, Integer> wordIds;
+    private final ArrayList<String> words;
+    private final ArrayList<PostingList> propertiesByWord;
+    // From trigram (packed into a long, see gramOf()) to the index of the
+    // list of words having it. The keys are never negative, as
+    // PropertyRowIndex needs.
+    private final PropertyRowIndex gramIndex;
+    private final ArrayList<PostingList> wordsByGram;
+    // The municipality names in lower case, and the properties of each
+    // municipality
+    private final HashMap<Integer, String> municipalityNames;
+    private final HashMap<Integer, PostingList> propertiesByMunicipality;
+
+    /**
+     * Creates an empty index. Use attach() to create an index.
+     */
+    private PropertyTextIndex(PropertyRegister register)
+    {
+        this.register = register;
+        this.properties = new Property[1024];
+        this.size = 0;
+        this.wordIds = new HashMap<>();
+        this.words = new ArrayList<>();
+        this.propertiesByWord = new ArrayList<>();
+        this.gramIndex = new PropertyRowIndex();
+        this.wordsByGram = new ArrayList<>();
+        this.municipalityNames = new HashMap<>();
+        this.propertiesByMunicipality = new HashMap<>();
+    }
+
+    /**
+     * Creates a text index of the register. The properties already in the
+     * register are indexed, and the properties added later are indexed as
+     * they are added.
+     *
+     * @param register the register to index
+     * @return the index
+     */
+    public static PropertyTextIndex attach(PropertyRegister register)
+    {
+        PropertyTextIndex index = new PropertyTextIndex(register);
+        Iterator<Property> it = register.getIterator();
+        while (it.hasNext())
+        {
+            index.propertyAdded(it.next());
+        }
+        register.addListener(index);
+        return index;
+    }
+
+    /**
+     * Stops indexing the properties added to the register. The properties
+     * indexed so far can still be searched.
+     */
+    public void detach()
+    {
+        this.register.removeListener(this);
+    }
+
+    @Override
+    public void ownerChanged(Property property, String previousOwner)
+    {
+        // The owner is not indexed
+    }
+
+    @Override
+    public void propertyAdded(Property property)
+    {
+        if (this.size == this.properties.length)
+        {
+            this.properties = Arrays.copyOf(this.properties, this.size * 2);
+        }
+        int id = this.size;
+        this.properties[id] = property;
+        this.size++;
+
+        if (null != property.getName())
+        {
+            for (String word : wordsOf(property.getName()))
+            {
+                this.propertiesByWord.get(this.idOf(word)).add(id);
+            }
+        }
+        int municipalityNumber = property.getMunicipalityNumber();
+        if (null != property.getMunicipalityName())
+        {
+            this.municipalityNames.putIfAbsent(municipalityNumber,
+                    property.getMunicipalityName().toLowerCase(Locale.ROOT));
+        }
+        this.propertiesByMunicipality
+                .computeIfAbsent(municipalityNumber, m -> new PostingList())
+                .add(id);
+    }
+
+    /**
+     * Searches for properties by their name and municipality name. Every
+     * word of the query must be found in the name or the municipality name
+     * of a property, either as a whole word, the start of a word, or (for
+     * words of three letters or more) anywhere in a word. Case is ignored.
+     * The best matches are returned first, and matches with the same score
+     * in the order the properties were added.
+     *
+     * @param query the words to search for, such as "Fugletun" or "glop";
+     *        words of one letter, and words after the first MAX_TERMS
+     *        longer ones, are ignored
+     * @param maxResults the largest number of properties to return
+     * @return an iterator of the found properties, best match first
+     */
+    public Iterator<Property> search(String query, int maxResults)
+    {
+        // For each term, the lists of properties matching it, by score
+        List<TreeMap<Integer, List<PostingList>>> termMatches = new ArrayList<>();
+        boolean allTermsMatch = true;
+        for (String term : wordsOf(query))
+        {
+            if (term.length() >= 2 && termMatches.size() < MAX_TERMS)
+            {
+                TreeMap<Integer, List<PostingList>> matches = this.find(term);
+                termMatches.add(matches);
+                allTermsMatch = allTermsMatch && !matches.isEmpty();
+            }
+        }
+
+        List<Property> results = new ArrayList<>();
+        if (!termMatches.isEmpty() && allTermsMatch)
+        {
+            // The number of results there will be, so the search can stop
+            // once all the matching properties are found
+            int expected = this.count(termMatches, maxResults);
+            // Try the combinations of one score per term, highest total
+            // first. A property is found first by the combination of its
+            // best score for every term, so later finds are skipped.
+            PriorityQueue<Combination> combinations = new PriorityQueue<>(
+                    (first, second) -> Integer.compare(second.total, first.total));
+            combinations.add(Combination.best(termMatches));
+            HashSet<Integer> found = new HashSet<>();
+            while (results.size() < expected && !combinations.isEmpty())
+            {
+                int wanted = expected - results.size();
+                int total = combinations.peek().total;
+                HashSet<Integer> sameScoreIds = new HashSet<>();
+                while (!combinations.isEmpty() && combinations.peek().total == total)
+                {
+                    Combination combination = combinations.poll();
+                    this.collect(termMatches, combination.scores, found, wanted, sameScoreIds);
+                    combination.addNext(termMatches, combinations);
+                }
+                List<Integer> ids = new ArrayList<>(sameScoreIds);
+                ids.sort(null);
+                for (int i = 0; i < Math.min(wanted, ids.size()); i++)
+                {
+                    results.add(this.properties[ids.get(i)]);
+                    found.add(ids.get(i));
+                }
+            }
+        }
+        return results.iterator();
+    }
+
+    /**
+     * Finds the lists of properties matching a term, grouped by score: the
+     * lists of the words containing the term, and of the municipalities
+     * whose names contain it.
+     */
+    private TreeMap<Integer, List<PostingList>> find(String term)
+    {
+        TreeMap<Integer, List<PostingList>> matches = new TreeMap<>();
+        long[] grams = gramsOf(term);
+        PostingList.Cursor[] cursors = new PostingList.Cursor[grams.length];
+        boolean allGramsFound = true;
+        for (int i = 0; i < grams.length; i++)
+        {
+            int list = this.gramIndex.get(grams[i]);
+            allGramsFound = allGramsFound && list != PropertyRowIndex.NO_ROW;
+            cursors[i] = allGramsFound ? this.wordsByGram.get(list).cursor() : null;
+        }
+        if (allGramsFound)
+        {
+            // The trigrams only tell that the word may contain the term, so
+            // check each word found
+            PostingList.Cursor wordCursor = new IntersectionCursor(cursors);
+            int wordId = wordCursor.nextAtLeast(0);
+            while (wordId != PostingList.Cursor.END)
+            {
+                String word = this.words.get(wordId);
+                int score = 0;
+                if (word.equals(term))
+                {
+                    score = EXACT_WORD_SCORE;
+                }
+                else if (word.startsWith(term))
+                {
+                    score = WORD_PREFIX_SCORE;
+                }
+                else if (word.contains(term))
+                {
+                    score = SUBSTRING_SCORE;
+                }
+                if (score > 0)
+                {
+                    matches.computeIfAbsent(score, s -> new ArrayList<>())
+                            .add(this.propertiesByWord.get(wordId));
+                }
+                wordId = wordCursor.nextAtLeast(wordId + 1);
+            }
+        }
+        for (Map.Entry<Integer, String> municipality : this.municipalityNames.entrySet())
+        {
+            if (municipality.getValue().contains(term))
+            {
+                matches.computeIfAbsent(MUNICIPALITY_SCORE, s -> new ArrayList<>())
+                        .add(this.propertiesByMunicipality.get(municipality.getKey()));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Counts the properties matching every term with any score, up to
+     * <code>limit</code>.
+     */
+    private int count(List<TreeMap<Integer, List<PostingList>>> termMatches, int limit)
+    {
+        PostingList.Cursor[] cursors = new PostingList.Cursor[termMatches.size()];
+        for (int term = 0; term < cursors.length; term++)
+        {
+            cursors[term] = unionOf(termMatches.get(term).values());
+        }
+        PostingList.Cursor cursor = cursors.length == 1 ? cursors[0] : new IntersectionCursor(cursors);
+        int count = 0;
+        int id = cursor.nextAtLeast(0);
+        while (id != PostingList.Cursor.END && count < limit)
+        {
+            count++;
+            id = cursor.nextAtLeast(id + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Adds to <code>ids</code> up to <code>wanted</code> IDs of the
+     * properties matching every term with the given scores, skipping the
+     * properties already found.
+     */
+    private void collect(List<TreeMap<Integer, List<PostingList>>> termMatches, int[] scores,
+                         HashSet<Integer> found, int wanted, HashSet<Integer> ids)
+    {
+        PostingList.Cursor[] cursors = new PostingList.Cursor[scores.length];
+        for (int term = 0; term < scores.length; term++)
+        {
+            cursors[term] = unionOf(List.of(termMatches.get(term).get(scores[term])));
+        }
+        PostingList.Cursor cursor = cursors.length == 1 ? cursors[0] : new IntersectionCursor(cursors);
+        int collected = 0;
+        int id = cursor.nextAtLeast(0);
+        while (id != PostingList.Cursor.END && collected < wanted)
+        {
+            if (!found.contains(id) && ids.add(id))
+            {
+                collected++;
+            }
+            id = cursor.nextAtLeast(id + 1);
+        }
+    }
+
+    /**
+     * Returns the ID of the word, adding the word and its trigrams to the
+     * index if it is new.
+     */
+    private int idOf(String word)
+    {
+        Integer id = this.wordIds.get(word);
+        if (null == id)
+        {
+            id = this.words.size();
+            this.wordIds.put(word, id);
+            this.words.add(word);
+            this.propertiesByWord.add(new PostingList());
+            String marked = WORD_START + word;
+            for (int i = 0; i + 3 <= marked.length(); i++)
+            {
+                long gram = gramOf(marked, i);
+                int list = this.gramIndex.get(gram);
+                if (list == PropertyRowIndex.NO_ROW)
+                {
+                    list = this.wordsByGram.size();
+                    this.wordsByGram.add(new PostingList());
+                    this.gramIndex.putIfAbsent(gram, list);
+                }
+                this.wordsByGram.get(list).add(id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the trigrams to look up for a search term: the start of the
+     * word for a two letter term, otherwise every trigram of the term.
+     */
+    private static long[] gramsOf(String term)
+    {
+        long[] grams;
+        if (term.length() == 2)
+        {
+            grams = new long[] {gramOf(WORD_START + term, 0)};
+        }
+        else
+        {
+            grams = new long[term.length() - 2];
+            for (int i = 0; i < grams.length; i++)
+            {
+                grams[i] = gramOf(term, i);
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * Packs the three characters starting at <code>start</code> into a long.
+     */
+    private static long gramOf(String text, int start)
+    {
+        return ((long) text.charAt(start) << 32)
+                | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+    }
+
+    /**
+     * Splits the text into words of letters and digits, in lower case.
+     */
+    private static String[] wordsOf(String text)
+    {
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        if (words.length > 0 && words[0].isEmpty())
+        {
+            words = Arrays.copyOfRange(words, 1, words.length);
+        }
+        return words;
+    }
+
+    /**
+     * Returns a cursor over the IDs in any of the lists in the groups.
+     */
+    private static PostingList.Cursor unionOf(Iterable<List<PostingList>> groups)
+    {
+        List<PostingList.Cursor> cursors = new ArrayList<>();
+        for (List<PostingList> lists : groups)
+        {
+            for (PostingList list : lists)
+            {
+                cursors.add(list.cursor());
+            }
+        }
+        return cursors.size() == 1
+                ? cursors.get(0) : new UnionCursor(cursors.toArray(new PostingList.Cursor[0]));
+    }
+
+    /**
+     * A combination of one score per term.
+     *
+     * The combinations are generated best first: from the combination of
+     * the highest scores, each combination leads to those with the score
+     * of one term lowered one step, for the terms from the last one
+     * lowered onwards. That way every combination is reached exactly once,
+     * and always after a combination with at least the same total.
+     */
+    private static final class Combination
+    {
+        private final int[] scores;
+        private final int total;
+        // The first term whose score may be lowered
+        private final int firstTerm;
+
+        private Combination(int[] scores, int total, int firstTerm)
+        {
+            this.scores = scores;
+            this.total = total;
+            this.firstTerm = firstTerm;
+        }
+
+        /**
+         * Returns the combination of the highest score of every term.
+         */
+        static Combination best(List<TreeMap<Integer, List<PostingList>>> termMatches)
+        {
+            int[] scores = new int[termMatches.size()];
+            int total = 0;
+            for (int term = 0; term < scores.length; term++)
+            {
+                scores[term] = termMatches.get(term).lastKey();
+                total += scores[term];
+            }
+            return new Combination(scores, total, 0);
+        }
+
+        /**
+         * Adds the combinations that follow this one to the queue.
+         */
+        void addNext(List<TreeMap<Integer, List<PostingList>>> termMatches,
+                     PriorityQueue<Combination> queue)
+        {
+            for (int term = this.firstTerm; term < this.scores.length; term++)
+            {
+                Integer lower = termMatches.get(term).lowerKey(this.scores[term]);
+                if (null != lower)
+                {
+                    int[] scores = this.scores.clone();
+                    scores[term] = lower;
+                    queue.add(new Combination(scores, this.total - this.scores[term] + lower, term));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the IDs found by all of the given cursors, by moving each
+     * cursor in turn up to the largest ID seen so far.
+     */
+    private static final class IntersectionCursor implements PostingList.Cursor
+    {
+        private final PostingList.Cursor[] cursors;
+
+        IntersectionCursor(PostingList.Cursor[] cursors)
+        {
+            this.cursors = cursors;
+        }
+
+        @Override
+        public int nextAtLeast(int target)
+        {
+            int candidate = target;
+            int agreeing = 0;
+            int i = 0;
+            while (agreeing < this.cursors.length && candidate != END)
+            {
+                int id = this.cursors[i].nextAtLeast(candidate);
+                if (id == candidate)
+                {
+                    agreeing++;
+                }
+                else
+                {
+                    candidate = id;
+                    agreeing = 1;
+                }
+                i = (i + 1) % this.cursors.length;
+            }
+            return candidate;
+        }
+    }
+
+    /**
+     * Reads the IDs found by any of the given cursors. The cursors are kept
+     * in a binary heap ordered by their current ID.
+     */
+    private static final class UnionCursor implements PostingList.Cursor
+    {
+        private final PostingList.Cursor[] heap;
+        private final int[] heads;
+
+        UnionCursor(PostingList.Cursor[] cursors)
+        {
+            this.heap = cursors.clone();
+            this.heads = new int[cursors.length];
+            for (int i = this.heap.length - 1; i >= 0; i--)
+            {
+                this.heads[i] = this.heap[i].nextAtLeast(0);
+                this.siftDown(i);
+            }
+        }
+
+        @Override
+        public int nextAtLeast(int target)
+        {
+            while (this.heads[0] < target)
+            {
+                this.heads[0] = this.heap[0].nextAtLeast(target);
+                this.siftDown(0);
+            }
+            return this.heads[0];
+        }
+
+        private void siftDown(int index)
+        {
+            int parent = index;
+            int child = 2 * parent + 1;
+            while (child < this.heap.length)
+            {
+                if (child + 1 < this.heap.length && this.heads[child + 1] < this.heads[child])
+                {
+                    child++;
+                }
+                if (this.heads[child] >= this.heads[parent])
+                {
+                    break;
+                }
+                PostingList.Cursor cursor = this.heap[parent];
+                this.heap[parent] = this.heap[child];
+                this.heap[child] = cursor;
+                int head = this.heads[parent];
+                this.heads[parent] = this.heads[child];
+                this.heads[child] = head;
+                parent = child;
+                child = 2 * parent + 1;
+            }
+        }
+    }
+}
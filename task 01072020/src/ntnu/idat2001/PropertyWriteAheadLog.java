@@ -0,0 +1,608 @@
+package ntnu.idat2001;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a PropertyRegister, so that
+ * properties added and ownership transfers made since the last snapshot
+ * survive a crash.
+ *
+ * The log listens to the register, and appends a compact binary record for
+ * every property added and every ownership transfer. The records are
+ * collected in memory and written to the file in groups, so that a single
+ * fsync covers many changes (group commit). A group is written when
+ * <code>commit()</code> is called, when enough records are waiting, and
+ * at a fixed interval by a background thread. Changes that have not been
+ * committed yet may be lost in a crash.
+ *
+ * On startup, <code>open()</code> replays the log on top of the register,
+ * which is typically loaded from the latest snapshot. A record that was
+ * only partly written when the application crashed is detected by its
+ * checksum, and is cut off the end of the log. <code>checkpoint()</code>
+ * saves a new snapshot and empties the log.
+ *
+ * Each record is stored as
+ * <code>int bodyLength, int crc32(body), body</code>, where the body is
+ * <code>byte type, long propertyKey</code> followed by, for an added
+ * property, <code>double area</code> and the municipality name, name and
+ * owner, and for an ownership transfer, the new owner. Strings are stored
+ * as <code>int byteLength</code> (-1 for <code>null</code>) and UTF-8 bytes.
+ */
+public class PropertyWriteAheadLog implements PropertyRegisterListener, Closeable
+{
+    private static final int MAGIC = 0x5052574C; // "PRWL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte PROPERTY_ADDED = 1;
+    private static final byte OWNER_CHANGED = 2;
+    // Commit when this many bytes are waiting, even before the interval
+    private static final int GROUP_COMMIT_BYTES = 1 << 20;
+
+    private final Path file;
+    private final PropertyRegister register;
+    private final FileChannel channel;
+    private final ScheduledExecutorService committer;
+    private final CRC32 checksum;
+    // Held while writing and syncing a group, so only one thread at a
+    // time writes to the file
+    private final Object commitLock;
+
+    // The records waiting to be written, guarded by this
+    private ByteBuffer pending;
+    // The buffer being written to the file, guarded by commitLock
+    private ByteBuffer writing;
+    // Sequence number of the last record appended, guarded by this
+    private long lastSequence;
+    // How many bytes must be waiting before an append commits, raised
+    // after a failed commit so the appends do not retry on every record;
+    // guarded by the lock on this
+    private int commitThreshold;
+    // Sequence number of the last record written and synced
+    private volatile long durableSequence;
+    // The end of the last group written and synced, guarded by commitLock.
+    // Groups are written at this position, so a group that was only partly
+    // written before a failure is overwritten by the next commit.
+    private long durableEnd;
+    private volatile long syncCount;
+    private volatile long failedCommitCount;
+
+    /**
+     * Creates a log appending to an open channel. Use open() to create a log.
+     */
+    private PropertyWriteAheadLog(Path file, PropertyRegister register, FileChannel channel,
+                                  long commitIntervalMillis) throws IOException
+    {
+        this.file = file;
+        this.register = register;
+        this.channel = channel;
+        this.checksum = new CRC32();
+        this.commitLock = new Object();
+        this.pending = ByteBuffer.allocate(GROUP_COMMIT_BYTES + 4096);
+        this.writing = ByteBuffer.allocate(GROUP_COMMIT_BYTES + 4096);
+        this.lastSequence = 0;
+        this.commitThreshold = GROUP_COMMIT_BYTES;
+        this.durableSequence = 0;
+        this.durableEnd = channel.position();
+        this.syncCount = 0;
+        this.failedCommitCount = 0;
+        if (commitIntervalMillis > 0)
+        {
+            this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "property-log-committer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.committer.scheduleWithFixedDelay(this::commitQuietly,
+                    commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            this.committer = null;
+        }
+    }
+
+    /**
+     * Opens the log file, creating it if it does not exist. All the changes
+     * in the log are first replayed on top of the register, and the log is
+     * then added as a listener to the register to record new changes.
+     *
+     * @param file the log file
+     * @param register the register, typically loaded from the latest snapshot
+     * @param commitIntervalMillis how often the background thread commits
+     *        waiting records, in milliseconds. If 0, records are only
+     *        committed by commit() or when enough records are waiting.
+     * @return the opened log
+     * @throws IOException if the log can not be read or written
+     */
+    public static PropertyWriteAheadLog open(Path file, PropertyRegister register,
+                                             long commitIntervalMillis) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            if (channel.size() == 0)
+            {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                writeFully(channel, header, 0);
+                channel.force(true);
+            }
+            long validEnd = replay(file, channel, register);
+            if (validEnd < channel.size())
+            {
+                // Cut off a record that was only partly written before a crash
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+            channel.position(validEnd);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+        PropertyWriteAheadLog log = new PropertyWriteAheadLog(file, register, channel,
+                commitIntervalMillis);
+        register.addListener(log);
+        return log;
+    }
+
+    @Override
+    public void propertyAdded(Property property)
+    {
+        byte[] municipalityName = encode(property.getMunicipalityName());
+        byte[] name = encode(property.getName());
+        byte[] owner = encode(property.getNameOfOwner());
+        int bodyLength = 1 + Long.BYTES + Double.BYTES
+                + stringSize(municipalityName) + stringSize(name) + stringSize(owner);
+        synchronized (this)
+        {
+            ByteBuffer buffer = this.startRecord(bodyLength);
+            int bodyStart = buffer.position();
+            buffer.put(PROPERTY_ADDED);
+            buffer.putLong(property.getPropertyKey());
+            buffer.putDouble(property.getArea());
+            putString(buffer, municipalityName);
+            putString(buffer, name);
+            putString(buffer, owner);
+            this.endRecord(bodyStart);
+        }
+        this.commitIfFull();
+    }
+
+    @Override
+    public void ownerChanged(Property property, String previousOwner)
+    {
+        byte[] owner = encode(property.getNameOfOwner());
+        int bodyLength = 1 + Long.BYTES + stringSize(owner);
+        synchronized (this)
+        {
+            ByteBuffer buffer = this.startRecord(bodyLength);
+            int bodyStart = buffer.position();
+            buffer.put(OWNER_CHANGED);
+            buffer.putLong(property.getPropertyKey());
+            putString(buffer, owner);
+            this.endRecord(bodyStart);
+        }
+        this.commitIfFull();
+    }
+
+    /**
+     * Writes all the records appended so far to the file, and syncs the file.
+     * If several threads commit at the same time, the first one writes the
+     * records of all of them with a single sync, and the others return as
+     * soon as their records are covered.
+     *
+     * If the records can not be written, the log is cut back to the end of
+     * the last group committed, and the records are kept in memory, in
+     * front of any records appended since, so the next commit tries them
+     * again.
+     *
+     * @throws IOException if the log can not be written
+     */
+    public void commit() throws IOException
+    {
+        long sequence;
+        synchronized (this)
+        {
+            sequence = this.lastSequence;
+        }
+        synchronized (this.commitLock)
+        {
+            if (this.durableSequence >= sequence)
+            {
+                // Another thread synced our records while we waited
+                return;
+            }
+            long groupEnd;
+            synchronized (this)
+            {
+                ByteBuffer group = this.pending;
+                this.pending = this.writing;
+                this.writing = group;
+                groupEnd = this.lastSequence;
+                this.commitThreshold = GROUP_COMMIT_BYTES;
+            }
+            this.writing.flip();
+            int groupLength = this.writing.remaining();
+            try
+            {
+                writeFully(this.channel, this.writing, this.durableEnd);
+                this.channel.force(false);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                this.failedCommitCount++;
+                this.restoreGroup(e);
+                throw e;
+            }
+            finally
+            {
+                this.writing.clear();
+            }
+            this.durableEnd += groupLength;
+            this.syncCount++;
+            this.durableSequence = groupEnd;
+        }
+    }
+
+    /**
+     * Saves a snapshot of the register, and then empties the log, since all
+     * the changes in it are now in the snapshot. If the application crashes
+     * before the log is emptied, replaying the log on top of the new
+     * snapshot gives the same register, so no changes are lost.
+     * The register must not be changed while the checkpoint is taken.
+     *
+     * @param snapshotFile the snapshot file to write
+     * @throws IOException if the snapshot or the log can not be written
+     */
+    public void checkpoint(Path snapshotFile) throws IOException
+    {
+        // Hold the commit lock throughout, so the background thread can not
+        // write records to the log between saving the snapshot and emptying
+        // the log. Records appended meanwhile stay in memory until the next
+        // commit, and end up in the emptied log.
+        synchronized (this.commitLock)
+        {
+            this.commit();
+            PropertySnapshot.save(this.register, snapshotFile);
+            this.channel.truncate(HEADER_SIZE);
+            this.channel.position(HEADER_SIZE);
+            this.durableEnd = HEADER_SIZE;
+            this.channel.force(true);
+        }
+    }
+
+    /**
+     * Returns the number of records appended to the log since it was opened.
+     *
+     * @return the number of records appended
+     */
+    public synchronized long getRecordsAppended()
+    {
+        return this.lastSequence;
+    }
+
+    /**
+     * Returns the number of commits that failed since the log was opened.
+     * The records of a failed commit are kept, and written by the next
+     * commit.
+     *
+     * @return the number of failed commits
+     */
+    public long getFailedCommitCount()
+    {
+        return this.failedCommitCount;
+    }
+
+    /**
+     * Returns the number of times the log file has been synced since it was
+     * opened. Compared to getRecordsAppended(), this shows how many records
+     * each sync covers on average.
+     *
+     * @return the number of syncs
+     */
+    public long getSyncCount()
+    {
+        return this.syncCount;
+    }
+
+    /**
+     * Commits all the records, stops recording changes to the register,
+     * and closes the file.
+     *
+     * @throws IOException if the log can not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        this.register.removeListener(this);
+        if (null != this.committer)
+        {
+            this.committer.shutdownNow();
+        }
+        try
+        {
+            this.commit();
+        }
+        finally
+        {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Makes room for a record with the given body length at the end of the
+     * pending buffer, and writes the length. Must hold the lock on this.
+     *
+     * @return the pending buffer, positioned where the checksum goes
+     */
+    private ByteBuffer startRecord(int bodyLength)
+    {
+        int recordLength = RECORD_HEADER_SIZE + bodyLength;
+        if (this.pending.remaining() < recordLength)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(
+                    Math.max(this.pending.capacity() * 2, this.pending.position() + recordLength));
+            this.pending.flip();
+            larger.put(this.pending);
+            this.pending = larger;
+        }
+        this.pending.putInt(bodyLength);
+        // Room for the checksum, filled in by endRecord()
+        this.pending.putInt(0);
+        return this.pending;
+    }
+
+    /**
+     * Fills in the checksum of the record whose body starts at the given
+     * position. Must hold the lock on this.
+     */
+    private void endRecord(int bodyStart)
+    {
+        this.checksum.reset();
+        this.checksum.update(this.pending.array(), this.pending.arrayOffset() + bodyStart,
+                this.pending.position() - bodyStart);
+        this.pending.putInt(bodyStart - Integer.BYTES, (int) this.checksum.getValue());
+        this.lastSequence++;
+    }
+
+    /**
+     * Cuts the log back to the end of the last group committed, and puts
+     * the group that failed back in front of the records appended since.
+     * Must hold the commit lock.
+     */
+    private void restoreGroup(Exception failure)
+    {
+        try
+        {
+            this.channel.truncate(this.durableEnd);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // The next group is written at durableEnd anyway, over the
+            // partly written group
+            failure.addSuppressed(e);
+        }
+        this.writing.rewind();
+        synchronized (this)
+        {
+            ByteBuffer restored = this.writing;
+            this.pending.flip();
+            if (restored.capacity() - restored.limit() < this.pending.remaining())
+            {
+                restored = ByteBuffer.allocate(this.writing.limit() + this.pending.remaining() + 4096);
+                restored.put(this.writing);
+            }
+            else
+            {
+                restored.position(restored.limit());
+                restored.limit(restored.capacity());
+            }
+            restored.put(this.pending);
+            this.pending.clear();
+            // The buffer appended to since the swap becomes the spare one
+            this.writing = this.pending;
+            this.pending = restored;
+            this.commitThreshold = restored.position() + GROUP_COMMIT_BYTES;
+        }
+    }
+
+    /**
+     * Commits if enough records are waiting.
+     */
+    private void commitIfFull()
+    {
+        boolean full;
+        synchronized (this)
+        {
+            full = this.pending.position() >= this.commitThreshold;
+        }
+        if (full)
+        {
+            // The register has already been changed, so a failure is only
+            // reported; the records stay waiting for the next commit
+            this.commitQuietly();
+        }
+    }
+
+    /**
+     * Commits from the background thread or after an append. An exception
+     * would stop the scheduled commits, or fail a change that has already
+     * been made to the register, so it is printed and the next commit tries
+     * again.
+     */
+    private void commitQuietly()
+    {
+        try
+        {
+            this.commit();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.err.println("Could not write to " + this.file + ": " + e);
+        }
+    }
+
+    /**
+     * Replays the records in the log on the register.
+     *
+     * @return the end of the last complete and valid record
+     */
+    private static long replay(Path file, FileChannel channel, PropertyRegister register)
+            throws IOException
+    {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+        {
+            throw new IOException(file + " is not a property log");
+        }
+        int version = header.getInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported log version " + version + " in " + file);
+        }
+
+        CRC32 crc = new CRC32();
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocate(256);
+        long position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= size)
+        {
+            recordHeader.clear();
+            readFully(channel, recordHeader, position);
+            recordHeader.flip();
+            int bodyLength = recordHeader.getInt();
+            int expectedChecksum = recordHeader.getInt();
+            if (bodyLength <= 0 || position + RECORD_HEADER_SIZE + bodyLength > size)
+            {
+                break;
+            }
+            if (body.capacity() < bodyLength)
+            {
+                body = ByteBuffer.allocate(Math.max(bodyLength, body.capacity() * 2));
+            }
+            body.clear().limit(bodyLength);
+            readFully(channel, body, position + RECORD_HEADER_SIZE);
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if ((int) crc.getValue() != expectedChecksum)
+            {
+                break;
+            }
+            body.flip();
+            applyRecord(body, register);
+            position += RECORD_HEADER_SIZE + bodyLength;
+        }
+        return position;
+    }
+
+    /**
+     * Applies one record to the register.
+     */
+    private static void applyRecord(ByteBuffer body, PropertyRegister register)
+    {
+        byte type = body.get();
+        long key = body.getLong();
+        int municipalityNumber = PropertyKey.municipalityNumberOf(key);
+        int lotNumber = PropertyKey.lotNumberOf(key);
+        int sectionNumber = PropertyKey.sectionNumberOf(key);
+        if (type == PROPERTY_ADDED)
+        {
+            double area = body.getDouble();
+            String municipalityName = getString(body);
+            String name = getString(body);
+            String owner = getString(body);
+            Property property = new Property(municipalityNumber, municipalityName,
+                    lotNumber, sectionNumber, name, area);
+            if (null != owner)
+            {
+                property.setNameOfOwner(owner);
+            }
+            // Already in the register if the log was replayed on top of
+            // a snapshot taken after the record was written
+            register.addProperty(property);
+        }
+        else if (type == OWNER_CHANGED)
+        {
+            register.transferOwnership(municipalityNumber, lotNumber, sectionNumber,
+                    getString(body));
+        }
+    }
+
+    private static byte[] encode(String string)
+    {
+        return null == string ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] encoded)
+    {
+        return Integer.BYTES + (null == encoded ? 0 : encoded.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] encoded)
+    {
+        if (null == encoded)
+        {
+            buffer.putInt(-1);
+        }
+        else
+        {
+            buffer.putInt(encoded.length);
+            buffer.put(encoded);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer)
+    {
+        String string = null;
+        int length = buffer.getInt();
+        if (length >= 0)
+        {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        return string;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        long offset = position;
+        while (buffer.hasRemaining())
+        {
+            int bytesRead = channel.read(buffer, offset);
+            if (bytesRead < 0)
+            {
+                return;
+            }
+            offset += bytesRead;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        long offset = position;
+        while (buffer.hasRemaining())
+        {
+            offset += channel.write(buffer, offset);
+        }
+    }
+}
@@ -1,6 +1,19 @@
 package ntnu.idat2001;
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Iterator;
+import java.util.Scanner;
 
 
 /**
@@ -13,7 +26,8 @@ import java.util.Iterator;
  * <ul>
  * <li><code>init()</code> - Is responsible for initialising the app-object, by
  * creating the internal PropertyRegister-instance, and filling the phone book
- * with dummies (for debug)
+ * with dummies (for debug), or with the properties in the CSV files given
+ * on the command line
  * </li>
  * <li><code>start()</code> - Is the starting point of the application object.
  * After an instance of the RealestateApp-class have been created, this method
@@ -29,29 +43,109 @@ public class RealestateApp {
     
     private static final String VERSION = "1.1-WITH-BUGS";
 
+    // The number of property batches that may wait to be added to the
+    // register while importing a file
+    private static final int IMPORT_QUEUE_CAPACITY = 64;
+
+    // The files kept in the data directory, and how often changes to the
+    // register are committed to the log
+    private static final String SNAPSHOT_FILE_NAME = "register.snapshot";
+    private static final String LOG_FILE_NAME = "register.log";
+    private static final long LOG_COMMIT_INTERVAL_MILLIS = 200;
+
+    // The number of properties shown at a time when listing the register
+    private static final int LIST_PAGE_SIZE = 20;
+
     // The Property register holding the properties
     private final PropertyRegister properties;
+
+    // Reads all the input from the user. Only one reader is created, since
+    // a Scanner reads ahead and would lose input meant for the next one.
+    private final Scanner reader;
+
+    // The log recording changes to the register, and the snapshot it is
+    // checkpointed to. Both are null if no data directory is used.
+    private final PropertyWriteAheadLog log;
+    private final Path snapshotFile;
     
     // Constants representing the diferent menu choices
     private final int ADD_PROPERTY = 1;   
     private final int LIST_ALL_PROPERTIES = 2;
     private final int FIND_PROPERTY = 3;
     private final int CALCULATE_AVERAGE_AREA = 4;
+    private final int TRANSFER_OWNERSHIP = 5;
+    private final int EXPORT_PROPERTIES = 6;
+    private final int SHOW_METRICS = 7;
     private final int EXIT = 9;
 
     /**
      * Creates an instance of the RealestateApp.
      */
     public RealestateApp() {
-        this.properties = new PropertyRegister();
+        this(new PropertyRegister(), null, null);
+    }
+
+    /**
+     * Creates an instance of the RealestateApp using the given register.
+     *
+     * @param properties the register
+     * @param log the log recording changes to the register, or
+     *            <code>null</code> if changes are only kept in memory
+     * @param snapshotFile the snapshot file the log is checkpointed to
+     */
+    private RealestateApp(PropertyRegister properties, PropertyWriteAheadLog log,
+                          Path snapshotFile) {
+        this.properties = properties;
+        this.reader = new Scanner(System.in);
+        this.log = log;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Creates an instance of the RealestateApp keeping the register in a data
+     * directory. The register is restored from the latest snapshot in the
+     * directory, and all the changes recorded in the log since then are
+     * replayed. New changes are recorded in the log.
+     *
+     * @param dataDirectory the directory holding the snapshot and the log
+     * @return the app
+     * @throws IOException if the snapshot or the log can not be read
+     */
+    public static RealestateApp openDataDirectory(Path dataDirectory) throws IOException {
+        Files.createDirectories(dataDirectory);
+        Path snapshotFile = dataDirectory.resolve(SNAPSHOT_FILE_NAME);
+        PropertyRegister register = new PropertyRegister();
+        if (Files.exists(snapshotFile)) {
+            register = PropertySnapshot.load(snapshotFile);
+        }
+        PropertyWriteAheadLog log = PropertyWriteAheadLog.open(
+                dataDirectory.resolve(LOG_FILE_NAME), register, LOG_COMMIT_INTERVAL_MILLIS);
+        return new RealestateApp(register, log, snapshotFile);
     }
 
     /**
      * Called to initialise the instance after having been created. Must be
      * called prior to calling <code>start()</code>
+     * If no import files are given, and the register is empty, the register
+     * is filled with dummies, unless <code>fillWithDummies</code> is false.
+     * A register kept in a data directory is never filled with dummies,
+     * since they would be written to the log and the snapshot and become
+     * part of the data.
+     *
+     * @param importFiles the names of the CSV files to import properties from
+     * @param fillWithDummies if an empty register should be filled with dummies
      */
-    private void init() {
-        this.fillRegisterWithProperties();
+    private void init(List<String> importFiles, boolean fillWithDummies) {
+        if (importFiles.isEmpty()) {
+            if (fillWithDummies && null == this.log
+                    && this.properties.getNumberOfProperties() == 0) {
+                this.fillRegisterWithProperties();
+            }
+        } else {
+            for (String fileName : importFiles) {
+                this.importProperties(fileName);
+            }
+        }
     }
 
     /**
@@ -69,16 +163,21 @@ public class RealestateApp {
         System.out.println("2. List all properties");
         System.out.println("3. Search property");
         System.out.println("4. Calculate average area");
+        System.out.println("5. Transfer ownership");
+        System.out.println("6. Export properties to file");
+        System.out.println("7. Show performance metrics");
         //TODO: Add more menus
         System.out.println("9. Quit");
         System.out.println("\nPlease enter a number between 1 and 9.\n");
-        Scanner sc = new Scanner(System.in);
-
-        if (sc.hasNextInt()) {
-            menuChoice = sc.nextInt();
+        if (this.reader.hasNextInt()) {
+            menuChoice = this.reader.nextInt();
         } else {
             System.out.println("You must enter a number, not text");
         }
+        // Skip the rest of the line, so the next question starts on a new line
+        if (this.reader.hasNextLine()) {
+            this.reader.nextLine();
+        }
         return menuChoice;
     }
 
@@ -112,7 +211,20 @@ public class RealestateApp {
                     this.calculateAverageRealestateArea();
                     break;
                     
+                case TRANSFER_OWNERSHIP:
+                    this.transferOwnership();
+                    break;
+                    
+                case EXPORT_PROPERTIES:
+                    this.exportProperties();
+                    break;
+                    
+                case SHOW_METRICS:
+                    this.showMetrics();
+                    break;
+                    
                 case EXIT:
+                    this.closeDataDirectory();
                     System.out.println("Thank you for using the Properties app!\n");
                     finished = true;
                     break;
@@ -145,7 +257,6 @@ public class RealestateApp {
         String name = "";
         String owner = "";
 
-        Scanner reader = new Scanner(System.in);
         boolean userInputValidSoFar = true; // Flag used to indicate that all 
                                             // input from the user is OK so far.
 
@@ -153,9 +264,9 @@ public class RealestateApp {
 
         // Municipality number
         System.out.print("Municipality number (0101 - 5444): ");
-        if (reader.hasNextInt()) {
-            municipalityNumber = reader.nextInt();
-            reader.nextLine();
+        if (this.reader.hasNextInt()) {
+            municipalityNumber = this.reader.nextInt();
+            this.reader.nextLine();
         } else {
             System.out.println("The Municipality number must be a number");
             userInputValidSoFar = false;
@@ -164,12 +275,12 @@ public class RealestateApp {
         // Municipality name
         if (userInputValidSoFar) {
             System.out.print("Municipality name : ");
-            municipalityName = reader.nextLine();
+            municipalityName = this.reader.nextLine();
 
             System.out.print("Lot number (gardsnummer): ");
-            if (reader.hasNextInt()) {
-                lotNumber = reader.nextInt();
-                reader.nextLine();
+            if (this.reader.hasNextInt()) {
+                lotNumber = this.reader.nextInt();
+                this.reader.nextLine();
             } else {
                 System.out.println("The Lot-number number must be a number");
                 userInputValidSoFar = false;
@@ -179,24 +290,31 @@ public class RealestateApp {
         // Section number
         if (userInputValidSoFar) {
             System.out.print("Section number (bruksnummer): ");
-            if (reader.hasNextInt()) {
-                sectionNumber = reader.nextInt();
-                reader.nextLine();
+            if (this.reader.hasNextInt()) {
+                sectionNumber = this.reader.nextInt();
+                this.reader.nextLine();
             } else {
                 System.out.println("The Section-number number must be a number");
                 userInputValidSoFar = false;
             }
         }
 
+        // The property ID must fit in a PropertyKey to be stored in the register
+        if (userInputValidSoFar
+                && !PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber)) {
+            System.out.println("The municipality, lot or section number is out of range");
+            userInputValidSoFar = false;
+        }
+
         // Name of property
         if (userInputValidSoFar) {
             System.out.print("Name of the property: ");
-            name = reader.nextLine();
+            name = this.reader.nextLine();
 
             System.out.print("Total area of the property, in square meters: ");
-            if (reader.hasNextDouble()) {
-                area = reader.nextDouble();
-                reader.nextLine();
+            if (this.reader.hasNextDouble()) {
+                area = this.reader.nextDouble();
+                this.reader.nextLine();
             } else {
                 System.out.println("The Area must be a number");
                 userInputValidSoFar = false;
@@ -206,7 +324,7 @@ public class RealestateApp {
         // Name of the owner
         if (userInputValidSoFar) {
             System.out.print("Name of the owner: ");
-            owner = reader.nextLine();
+            owner = this.reader.nextLine();
 
             Property property = new Property(municipalityNumber, municipalityName,
                     lotNumber, sectionNumber, name, area);
@@ -214,6 +332,7 @@ public class RealestateApp {
             property.setNameOfOwner(owner);
 
             this.properties.addProperty(property);
+            this.commitLog();
 
             System.out.println("Property " + property.getMunicipalityNumber()
                     + "/" + property.getLotNumber() + "/" + property.getSectionNumber()
@@ -225,7 +344,9 @@ public class RealestateApp {
     }
 
     /**
-     * Displays a list of all the properties in the register.
+     * Displays a list of all the properties in the register, one page at a
+     * time, in the order of their ID. After each page the user can choose
+     * to see the next page or stop.
      */
     public void listAllRealestates() {
         if (this.properties.getNumberOfProperties() == 0 ) {
@@ -233,15 +354,64 @@ public class RealestateApp {
         } else {
             System.out.println("List of all properties in the register");
             System.out.println("======================================\n");
-            Iterator<Property> it = this.properties.getIterator();
-            while (it.hasNext()) {
-                Property property = it.next();
-                displayProperty(property);
-                System.out.println();
+            PropertyPage page = this.properties.getPage(PropertyPage.FIRST_PAGE, LIST_PAGE_SIZE);
+            boolean finished = false;
+            while (!finished) {
+                // Build the whole page first, and print it in one go
+                StringBuilder text = new StringBuilder();
+                for (Property property : page.getProperties()) {
+                    appendProperty(text, property);
+                    text.append('\n');
+                }
+                System.out.print(text);
+                if (page.hasNextPage()) {
+                    System.out.print("Press Enter to see more properties, or q to stop: ");
+                    String answer = this.reader.hasNextLine() ? this.reader.nextLine() : "q";
+                    if (answer.trim().equalsIgnoreCase("q")) {
+                        finished = true;
+                    } else {
+                        page = this.properties.getPage(page.getContinuationToken(), LIST_PAGE_SIZE);
+                    }
+                } else {
+                    finished = true;
+                }
             }
         }
     }
 
+    /**
+     * Exports all the properties in the register to a file, as CSV (which can
+     * be imported again) or as JSON lines. The user is asked for the name of
+     * the file and the format.
+     */
+    public void exportProperties() {
+        System.out.print("Name of the file to export to: ");
+        String fileName = this.reader.nextLine();
+
+        System.out.print("Format, csv or json: ");
+        String formatName = this.reader.nextLine().trim();
+        PropertyExporter.Format format = PropertyExporter.Format.CSV;
+        if (formatName.equalsIgnoreCase("json")) {
+            format = PropertyExporter.Format.JSON_LINES;
+        }
+
+        try {
+            long count = new PropertyExporter(format)
+                    .export(this.properties.getIterator(), Paths.get(fileName));
+            System.out.println("Exported " + count + " properties to " + fileName);
+        } catch (IOException e) {
+            System.out.println("Could not export to " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Displays the metrics of the register: how many properties have been
+     * added, looked up and so on, and how long it took.
+     */
+    public void showMetrics() {
+        System.out.println(this.properties.getMetrics());
+    }
+
     /**
      * Search for a property with a given municipalitynumber, lot- and section
      * number. The user is asked to provide this information in order to perform
@@ -250,22 +420,20 @@ public class RealestateApp {
      * to the user informing the user about the failed search.
      */
     public void findRealestate() {
-        Scanner reader = new Scanner(System.in);
-
         System.out.println("Search for realestate by municipality number, lot number and section number.");
         System.out.println("");
 
         System.out.print("Municipality number (0101 - 5444): ");
-        int municipalityNumber = reader.nextInt();
-        reader.nextLine();
+        int municipalityNumber = this.reader.nextInt();
+        this.reader.nextLine();
 
         System.out.print("Lot number (gardsnummer): ");
-        int lotNumber = reader.nextInt();
-        reader.nextLine();
+        int lotNumber = this.reader.nextInt();
+        this.reader.nextLine();
 
         System.out.print("Section number (bruksnummer): ");
-        int sectionNumber = reader.nextInt();
-        reader.nextLine();
+        int sectionNumber = this.reader.nextInt();
+        this.reader.nextLine();
 
         Property property = this.properties.findProperty(municipalityNumber, lotNumber, sectionNumber);
 
@@ -277,6 +445,169 @@ public class RealestateApp {
         }
     }
 
+    /**
+     * Transfers the ownership of a property to a new owner. The user is asked
+     * for the municipality number, lot- and section number of the property,
+     * and the name of the new owner. If the register is kept in a data
+     * directory, the transfer is committed to the log before the user is
+     * told it is done.
+     */
+    public void transferOwnership() {
+        System.out.println("Transfer the ownership of a property.");
+        System.out.println("");
+
+        int municipalityNumber = 0;
+        int lotNumber = 0;
+        int sectionNumber = 0;
+        boolean userInputValidSoFar = true;
+
+        System.out.print("Municipality number (0101 - 5444): ");
+        if (this.reader.hasNextInt()) {
+            municipalityNumber = this.reader.nextInt();
+            this.reader.nextLine();
+        } else {
+            System.out.println("The Municipality number must be a number");
+            userInputValidSoFar = false;
+        }
+
+        if (userInputValidSoFar) {
+            System.out.print("Lot number (gardsnummer): ");
+            if (this.reader.hasNextInt()) {
+                lotNumber = this.reader.nextInt();
+                this.reader.nextLine();
+            } else {
+                System.out.println("The Lot-number number must be a number");
+                userInputValidSoFar = false;
+            }
+        }
+
+        if (userInputValidSoFar) {
+            System.out.print("Section number (bruksnummer): ");
+            if (this.reader.hasNextInt()) {
+                sectionNumber = this.reader.nextInt();
+                this.reader.nextLine();
+            } else {
+                System.out.println("The Section-number number must be a number");
+                userInputValidSoFar = false;
+            }
+        }
+
+        if (userInputValidSoFar
+                && !PropertyKey.isValid(municipalityNumber, lotNumber, sectionNumber)) {
+            System.out.println("The municipality, lot or section number is out of range");
+            userInputValidSoFar = false;
+        }
+
+        if (userInputValidSoFar) {
+            System.out.print("Name of the new owner: ");
+            String owner = this.reader.nextLine();
+
+            if (this.properties.transferOwnership(municipalityNumber, lotNumber, sectionNumber, owner)) {
+                this.commitLog();
+                System.out.println("\nThe ownership was transferred to " + owner);
+            } else {
+                System.out.println("\nNo property was found matching the search criterias..");
+            }
+        } else {
+            System.out.println("The transfer was terminated due to a false entry."
+                    + " Please start over.");
+        }
+    }
+
+    /**
+     * Runs the commands in a file (or read from standard input) against the
+     * register without any user interaction, writing the results to standard
+     * output. See BatchCommandRunner for the commands and the result format.
+     * The number of commands per second is reported on standard error when
+     * all the commands have run.
+     *
+     * @param fileName the name of the file holding the commands, or
+     *                 <code>-</code> to read the commands from standard input
+     */
+    public void runBatch(String fileName) {
+        BatchCommandRunner runner = new BatchCommandRunner(this.properties);
+        Writer output = new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try (BufferedReader input = fileName.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            runner.run(input, output);
+            // All the changes of the batch are committed to the log at once
+            this.commitLog();
+            System.err.printf("Ran %d commands (%d failed), %.0f commands/s%n",
+                    runner.getCommandsRun(), runner.getFailedCommands(),
+                    runner.getCommandsPerSecond());
+        } catch (IOException e) {
+            System.err.println("Could not run the commands in " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serves the register over HTTP on the given port of localhost, until
+     * the user presses Enter. See PropertyServer for the requests served.
+     * The server needs a thread-safe register, so it serves a
+     * ConcurrentPropertyRegister holding a copy of the properties in this
+     * register. Properties added through the server are not recorded in
+     * the data directory.
+     *
+     * @param port the port to listen on
+     */
+    public void serve(int port) {
+        ConcurrentPropertyRegister register = new ConcurrentPropertyRegister();
+        Iterator<Property> it = this.properties.getIterator();
+        while (it.hasNext()) {
+            register.addProperty(it.next());
+        }
+        // Request handling is short and mostly waits for the network,
+        // so a few threads per core keeps every core busy
+        int workerThreads = 4 * Runtime.getRuntime().availableProcessors();
+        try {
+            PropertyServer server = new PropertyServer(register,
+                    new InetSocketAddress("localhost", port), workerThreads);
+            server.start();
+            System.out.println("Serving " + register.getNumberOfProperties()
+                    + " properties on http://localhost:" + server.getAddress().getPort()
+                    + "/ - press Enter to stop");
+            // If there is no console the server runs until the process is stopped
+            if (this.reader.hasNextLine()) {
+                this.reader.nextLine();
+                server.stop();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not start the server on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Commits the changes recorded in the log, if the register is kept in a
+     * data directory.
+     */
+    private void commitLog() {
+        if (null != this.log) {
+            try {
+                this.log.commit();
+            } catch (IOException e) {
+                System.out.println("Could not write the change to the log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Saves a snapshot of the register and closes the log, if the register
+     * is kept in a data directory, so the next start does not need to
+     * replay the log.
+     */
+    private void closeDataDirectory() {
+        if (null != this.log) {
+            try {
+                this.log.checkpoint(this.snapshotFile);
+                this.log.close();
+            } catch (IOException e) {
+                System.out.println("Could not save the register: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Calculates and displays the average area of all the properties in the
      * register.
@@ -294,20 +625,58 @@ public class RealestateApp {
         }
     }
 
+    /**
+     * Imports all the properties in a cadastre CSV file into the register,
+     * parsing the file on all the available cores, and displays how many
+     * properties were imported and how fast.
+     * See PropertyCsvParser for the format of the file.
+     *
+     * @param fileName the name of the CSV file to import
+     */
+    public void importProperties(String fileName) {
+        int workerThreads = Runtime.getRuntime().availableProcessors();
+        PropertyImportPipeline pipeline = new PropertyImportPipeline(this.properties,
+                workerThreads, IMPORT_QUEUE_CAPACITY);
+        try {
+            ImportStatistics statistics = pipeline.importFile(Paths.get(fileName));
+            System.out.println("Imported " + fileName + ": " + statistics
+                    + " (max queue depth " + pipeline.getMaxQueueDepth() + ")");
+            System.out.println("Owner names: " + StringPool.getOwnerNamePool());
+        } catch (IOException e) {
+            System.out.println("Could not import " + fileName + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("The import of " + fileName + " was interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Displays the details of a given property.
      *
      * @param property the property to display
      */
     private void displayProperty(Property property) {
-        System.out.println("Municipality number: " + property.getMunicipalityNumber());
-        System.out.println("Municipality name  : " + property.getMunicipalityName());
-        System.out.println("Lot number         : " + property.getLotNumber());
-        System.out.println("Section number     : " + property.getSectionNumber());
-        System.out.println("Property name      : " + property.getName());
-        System.out.println("Area               : " + property.getArea() + " m2");
+        StringBuilder text = new StringBuilder();
+        appendProperty(text, property);
+        System.out.print(text);
+    }
+
+    /**
+     * Appends the details of a given property to the text, one line per
+     * detail.
+     *
+     * @param text the text to append to
+     * @param property the property to display
+     */
+    private static void appendProperty(StringBuilder text, Property property) {
+        text.append("Municipality number: ").append(property.getMunicipalityNumber()).append('\n');
+        text.append("Municipality name  : ").append(property.getMunicipalityName()).append('\n');
+        text.append("Lot number         : ").append(property.getLotNumber()).append('\n');
+        text.append("Section number     : ").append(property.getSectionNumber()).append('\n');
+        text.append("Property name      : ").append(property.getName()).append('\n');
+        text.append("Area               : ").append(property.getArea()).append(" m2\n");
         if (null != property.getNameOfOwner()) {
-            System.out.println("Name of owner      : " + property.getNameOfOwner());
+            text.append("Name of owner      : ").append(property.getNameOfOwner()).append('\n');
         }
     }
     
@@ -329,11 +698,59 @@ public class RealestateApp {
      * looking for this main-method to be able to know where to start the
      * application from.
      *
-     * @param args command line arguments as an fixed size array of strings
+     * @param args command line arguments as an fixed size array of strings:
+     *             optionally <code>--data-dir DIRECTORY</code> to keep the
+     *             register in a directory between runs, optionally
+     *             <code>--batch FILE</code> to run the commands in the file
+     *             (or <code>-</code> for standard input), or
+     *             <code>--serve PORT</code> to serve the register over HTTP,
+     *             instead of showing the menu, followed by the names of the
+     *             CSV files to import, if any
      */
     public static void main(String[] args) {
+        String dataDirectory = null;
+        String batchFile = null;
+        int serverPort = -1;
+        List<String> importFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data-dir") && i + 1 < args.length) {
+                i++;
+                dataDirectory = args[i];
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                i++;
+                batchFile = args[i];
+            } else if (args[i].equals("--serve") && i + 1 < args.length) {
+                i++;
+                try {
+                    serverPort = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("The port must be a number: " + args[i]);
+                    return;
+                }
+            } else {
+                importFiles.add(args[i]);
+            }
+        }
+
         RealestateApp app = new RealestateApp();
-        app.init();
-        app.start();
+        if (null != dataDirectory) {
+            try {
+                app = RealestateApp.openDataDirectory(Paths.get(dataDirectory));
+            } catch (IOException e) {
+                System.out.println("Could not open " + dataDirectory + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (serverPort >= 0) {
+            app.init(importFiles, true);
+            app.serve(serverPort);
+        } else if (null == batchFile) {
+            app.init(importFiles, true);
+            app.start();
+        } else {
+            app.init(importFiles, false);
+            app.runBatch(batchFile);
+            app.closeDataDirectory();
+        }
     }
 }
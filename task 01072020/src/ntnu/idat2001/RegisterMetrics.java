@@ -0,0 +1,144 @@
+package ntnu.idat2001;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the number of calls to and the time taken by the hot methods of
+ * a PropertyRegister: adding properties, looking up a single property,
+ * searching by lot number, and the area calculations. Each is recorded in
+ * a LatencyHistogram, so recording is cheap and does not contend between
+ * threads. Use PropertyRegister.getMetrics() to read the metrics.
+ *
+ * Each timed method gets its start time from start(), and passes it to the
+ * matching record method. While the metrics are disabled, start() does not
+ * read the clock, and nothing is recorded.
+ */
+final class RegisterMetrics
+{
+    // Returned by start() when the metrics are disabled
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final LatencyHistogram add;
+    private final LatencyHistogram find;
+    private final LatencyHistogram lotSearch;
+    private final LatencyHistogram aggregation;
+    private final LongAdder duplicatesRejected;
+    private volatile boolean enabled;
+
+    /**
+     * Creates empty metrics.
+     */
+    RegisterMetrics()
+    {
+        this.add = new LatencyHistogram();
+        this.find = new LatencyHistogram();
+        this.lotSearch = new LatencyHistogram();
+        this.aggregation = new LatencyHistogram();
+        this.duplicatesRejected = new LongAdder();
+        this.enabled = true;
+    }
+
+    /**
+     * Turns the recording of the metrics on or off. Calls already started
+     * are recorded as they were started.
+     *
+     * @param enabled <code>true</code> to record the metrics
+     */
+    void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns whether the metrics are recorded.
+     *
+     * @return <code>true</code> if the metrics are recorded
+     */
+    boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * Returns the start time of a call to pass to a record method, or
+     * NOT_TIMED if the metrics are disabled.
+     *
+     * @return the start time of the call, in nanoseconds
+     */
+    long start()
+    {
+        return this.enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records a call to addProperty().
+     *
+     * @param start the start time of the call, from start()
+     * @param added <code>false</code> if the property was rejected as a
+     *        duplicate
+     */
+    void recordAdd(long start, boolean added)
+    {
+        if (start != NOT_TIMED)
+        {
+            this.add.record(System.nanoTime() - start);
+            if (!added)
+            {
+                this.duplicatesRejected.increment();
+            }
+        }
+    }
+
+    /**
+     * Records a lookup of a single property.
+     *
+     * @param start the start time of the lookup, from start()
+     */
+    void recordFind(long start)
+    {
+        if (start != NOT_TIMED)
+        {
+            this.find.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a search by lot number, not including the use of the
+     * iterator returned.
+     *
+     * @param start the start time of the search, from start()
+     */
+    void recordLotSearch(long start)
+    {
+        if (start != NOT_TIMED)
+        {
+            this.lotSearch.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records an area calculation.
+     *
+     * @param start the start time of the calculation, from start()
+     */
+    void recordAggregation(long start)
+    {
+        if (start != NOT_TIMED)
+        {
+            this.aggregation.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the metrics.
+     *
+     * @param numberOfProperties the number of properties in the register
+     * @return the snapshot
+     */
+    MetricsSnapshot snapshot(int numberOfProperties)
+    {
+        return new MetricsSnapshot(this.add.snapshot(), this.find.snapshot(),
+                this.lotSearch.snapshot(), this.aggregation.snapshot(),
+                this.duplicatesRejected.sum(), numberOfProperties);
+    }
+}
@@ -0,0 +1,79 @@
+package ntnu.idat2001;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Assigns each distinct string a small integer ID, in the order the strings
+ * are first seen, so that repeated strings (municipality names, owners)
+ * can be stored once and referred to by their ID.
+ * The ID -1 stands for <code>null</code>.
+ */
+final class StringDictionary
+{
+    /** The ID used for <code>null</code>. */
+    static final int NO_STRING = -1;
+
+    private final HashMap<String, Integer> ids;
+    private String[] strings;
+    private int size;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    StringDictionary()
+    {
+        this.ids = new HashMap<>();
+        this.strings = new String[16];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the ID of the string, adding the string to the dictionary
+     * if it is not there already.
+     *
+     * @param string the string, may be <code>null</code>
+     * @return the ID of the string
+     */
+    int idOf(String string)
+    {
+        if (null == string)
+        {
+            return NO_STRING;
+        }
+        Integer id = this.ids.get(string);
+        if (null == id)
+        {
+            id = this.size;
+            if (this.size == this.strings.length)
+            {
+                this.strings = Arrays.copyOf(this.strings, this.size * 2);
+            }
+            this.strings[this.size] = string;
+            this.size++;
+            this.ids.put(string, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the string with the given ID.
+     *
+     * @param id the ID, as returned by idOf()
+     * @return the string, or <code>null</code> if the ID is -1
+     */
+    String stringOf(int id)
+    {
+        return id == NO_STRING ? null : this.strings[id];
+    }
+
+    /**
+     * Returns the number of distinct strings in the dictionary.
+     *
+     * @return the number of distinct strings
+     */
+    int size()
+    {
+        return this.size;
+    }
+}
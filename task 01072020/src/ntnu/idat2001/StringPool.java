@@ -0,0 +1,177 @@
+package ntnu.idat2001;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of strings that hands out one shared instance for equal strings,
+ * so that a name repeated on thousands of properties (such as an
+ * institutional owner) is only kept in memory once. The duplicate instances
+ * can then be garbage collected.
+ *
+ * The pool only holds weak references to the strings, so a string that
+ * is no longer used anywhere else, such as the name of a previous owner
+ * after a transfer, is garbage collected and drops out of the pool. The
+ * pool is split into STRIPES parts by the hash of the string, each
+ * guarded by its own lock, so threads importing properties in parallel
+ * seldom wait for each other.
+ *
+ * The pool keeps track of how often a string was already in the pool
+ * (the hit rate), and estimates how many bytes have been saved.
+ * The pool is thread-safe.
+ */
+public class StringPool
+{
+    // Estimated size of a String on a 64-bit JVM with compressed references:
+    // the String object itself, plus the header of its byte array.
+    private static final int STRING_OVERHEAD_BYTES = 24 + 16;
+
+    // The number of parts of the pool, a power of two
+    private static final int STRIPES = 64;
+
+    private static final StringPool OWNER_NAME_POOL = new StringPool();
+
+    // Each part maps a string to a weak reference to itself, the shared
+    // instance; the map holds its keys weakly too
+    private final WeakHashMap<String, WeakReference<String>>[] stripes;
+    private final LongAdder lookups;
+    private final LongAdder hits;
+    private final LongAdder bytesSaved;
+
+    /**
+     * Creates an empty pool.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StringPool()
+    {
+        this.stripes = new WeakHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+        {
+            this.stripes[i] = new WeakHashMap<>();
+        }
+        this.lookups = new LongAdder();
+        this.hits = new LongAdder();
+        this.bytesSaved = new LongAdder();
+    }
+
+    /**
+     * Returns the pool used for the names of owners, by
+     * Property.setNameOfOwner() and when importing properties.
+     *
+     * @return the pool of owner names
+     */
+    public static StringPool getOwnerNamePool()
+    {
+        return OWNER_NAME_POOL;
+    }
+
+    /**
+     * Returns the shared instance of the string. If an equal string is not
+     * in the pool, the string itself is added and returned.
+     *
+     * @param string the string, may be <code>null</code>
+     * @return the shared instance of the string, or <code>null</code>
+     */
+    public String intern(String string)
+    {
+        if (null == string)
+        {
+            return null;
+        }
+        this.lookups.increment();
+        int hash = string.hashCode();
+        WeakHashMap<String, WeakReference<String>> stripe = this.stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        String pooled;
+        synchronized (stripe)
+        {
+            WeakReference<String> reference = stripe.get(string);
+            pooled = null == reference ? null : reference.get();
+            if (null == pooled)
+            {
+                stripe.put(string, new WeakReference<>(string));
+                pooled = string;
+            }
+        }
+        if (pooled != string)
+        {
+            this.hits.increment();
+            this.bytesSaved.add(estimateSize(string));
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the number of distinct strings in the pool, not counting
+     * those already garbage collected.
+     *
+     * @return the number of distinct strings
+     */
+    public int getSize()
+    {
+        int size = 0;
+        for (WeakHashMap<String, WeakReference<String>> stripe : this.stripes)
+        {
+            synchronized (stripe)
+            {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of calls to intern() with a non-null string.
+     *
+     * @return the number of lookups
+     */
+    public long getLookups()
+    {
+        return this.lookups.sum();
+    }
+
+    /**
+     * Returns the share of the lookups that found an equal string already
+     * in the pool, between 0 and 1.
+     *
+     * @return the hit rate
+     */
+    public double getHitRate()
+    {
+        double hitRate = 0;
+        long lookupCount = this.lookups.sum();
+        if (lookupCount > 0)
+        {
+            hitRate = (double) this.hits.sum() / lookupCount;
+        }
+        return hitRate;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes saved, that is the size of
+     * the duplicate strings that were replaced by a shared instance. The
+     * estimate assumes compact strings with one byte per character.
+     *
+     * @return the estimated number of bytes saved
+     */
+    public long getBytesSaved()
+    {
+        return this.bytesSaved.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d distinct strings, %d lookups, %.1f %% hits, ~%d KB saved",
+                this.getSize(), this.getLookups(), this.getHitRate() * 100,
+                this.getBytesSaved() / 1024);
+    }
+
+    /**
+     * Estimates the number of bytes a String uses, rounded up to 8 bytes.
+     */
+    private static long estimateSize(String string)
+    {
+        return (STRING_OVERHEAD_BYTES + string.length() + 7) & ~7L;
+    }
+}
@@ -0,0 +1,203 @@
+package ntnu.idat2001;
+
+import java.util.Iterator;
+
+/**
+ * A property register that hands out consistent, point-in-time snapshots
+ * (multi-version concurrency control), for reports that scan the register
+ * while properties are still being loaded.
+ *
+ * The properties are kept in a persistent map (see PersistentPropertyMap):
+ * every change creates a new version of the map that shares almost all of
+ * its structure with the previous one. The current version is published
+ * through a volatile field, so taking a snapshot is a single read and
+ * costs O(1), and readers never take a lock. Writers are serialized by a
+ * lock that readers never touch, so a writer never waits for a reader.
+ *
+ * Properties are treated as immutable once added: transferOwnership()
+ * replaces the property with a copy that has the new owner, so older
+ * snapshots keep seeing the old owner.
+ */
+public class VersionedPropertyRegister
+{
+    private final Object writeLock;
+    private volatile PropertyRegisterSnapshot current;
+
+    /**
+     * Creates a new, empty instance of the VersionedPropertyRegister.
+     */
+    public VersionedPropertyRegister()
+    {
+        this.writeLock = new Object();
+        this.current = new PropertyRegisterSnapshot(0, PersistentPropertyMap.EMPTY,
+                new AreaStatistics());
+    }
+
+    /**
+     * Returns an immutable view of the register as it is now.
+     *
+     * @return a snapshot of the register
+     */
+    public PropertyRegisterSnapshot snapshot()
+    {
+        return this.current;
+    }
+
+    /**
+     * Adds a property to the register. If the property is already in the register
+     * the property is not added, and <code>false</code> is returned.
+     * The property becomes visible in the snapshots taken after this method
+     * returns.
+     *
+     * @param property the property/real estate to add to the register.
+     * @return <code>true</code> if property was added successfully,
+     *         <code>false</code> otherwise.
+     */
+    public boolean addProperty(Property property)
+    {
+        boolean success;
+        synchronized (this.writeLock)
+        {
+            PropertyRegisterSnapshot snapshot = this.current;
+            PersistentPropertyMap.Editor editor = snapshot.getProperties().edit();
+            success = editor.putIfAbsent(property);
+            if (success)
+            {
+                AreaStatistics areaStatistics = snapshot.getAreaStatistics();
+                areaStatistics.add(property.getArea());
+                this.publish(snapshot, editor, areaStatistics);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Adds all the properties of the iterator to the register, as one new
+     * version. This is much faster than adding the properties one by one,
+     * since the new version is built in place. The properties only become
+     * visible to snapshots when all of them have been added.
+     *
+     * @param properties the properties to add
+     * @return the number of properties added; properties already in the
+     *         register are not added
+     */
+    public int addProperties(Iterator<Property> properties)
+    {
+        int added = 0;
+        synchronized (this.writeLock)
+        {
+            PropertyRegisterSnapshot snapshot = this.current;
+            PersistentPropertyMap.Editor editor = snapshot.getProperties().edit();
+            AreaStatistics areaStatistics = snapshot.getAreaStatistics();
+            while (properties.hasNext())
+            {
+                Property property = properties.next();
+                if (editor.putIfAbsent(property))
+                {
+                    areaStatistics.add(property.getArea());
+                    added++;
+                }
+            }
+            if (added > 0)
+            {
+                this.publish(snapshot, editor, areaStatistics);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Transfers the ownership of the property matching the municipality
+     * number, lot number and section number to a new owner. The property
+     * is replaced by a copy with the new owner, so snapshots taken earlier
+     * still see the previous owner.
+     *
+     * @param municipalityNumber the municipality number of the property
+     * @param lotNumber the lot number of the property
+     * @param sectionNumber the section number of the property
+     * @param nameOfNewOwner the name of the new owner
+     * @return <code>true</code> if the property was found and the ownership
+     *         transferred, <code>false</code> if no property was found.
+     */
+    public boolean transferOwnership(int municipalityNumber, int lotNumber, int sectionNumber,
+                                     String nameOfNewOwner)
+    {
+        boolean success = false;
+        synchronized (this.writeLock)
+        {
+            PropertyRegisterSnapshot snapshot = this.current;
+            Property property = snapshot.findProperty(municipalityNumber, lotNumber, sectionNumber);
+            if (null != property)
+            {
+                Property transferred = new Property(property.getMunicipalityNumber(),
+                        property.getMunicipalityName(), property.getLotNumber(),
+                        property.getSectionNumber(), property.getName(), property.getArea(),
+                        nameOfNewOwner);
+                PersistentPropertyMap.Editor editor = snapshot.getProperties().edit();
+                editor.replace(transferred);
+                this.publish(snapshot, editor, snapshot.getAreaStatistics());
+                success = true;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Searches the current version of the register for the property matching
+     * the municipality number, lot number and section number.
+     * If no property found, <code>null</code> is returned.
+     *
+     * @param municipalityNumber the municipality number to be matched
+     * @param lotNumber the lot number to be matched
+     * @param sectionNumber the section number to be matched
+     * @return the property found, or <code>null</code> if no property was found
+     */
+    public Property findProperty(int municipalityNumber, int lotNumber, int sectionNumber)
+    {
+        return this.current.findProperty(municipalityNumber, lotNumber, sectionNumber);
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the register, so it is never
+     * affected by later changes.
+     *
+     * @return an iterator to iterate over the properties in the register.
+     */
+    public Iterator<Property> getIterator()
+    {
+        return this.current.getIterator();
+    }
+
+    /**
+     * Returns the average area of all the properties in the register.
+     * The average area is given in square meters.
+     * If the register does not contain any properties, 0 is returned.
+     *
+     * @return the average area in square meters
+     */
+    public double getAverageAreaOfProperties()
+    {
+        return this.current.getAverageAreaOfProperties();
+    }
+
+    /**
+     * Returns the number of properties in the register.
+     *
+     * @return the number of properties in the register.
+     */
+    public int getNumberOfProperties()
+    {
+        return this.current.getNumberOfProperties();
+    }
+
+    /**
+     * Publishes the version built by the editor as the current snapshot.
+     * Must be called holding the write lock.
+     */
+    private void publish(PropertyRegisterSnapshot previous, PersistentPropertyMap.Editor editor,
+                         AreaStatistics areaStatistics)
+    {
+        this.current = new PropertyRegisterSnapshot(previous.getVersion() + 1,
+                editor.persist(), areaStatistics);
+    }
+}